@@ -0,0 +1,29 @@
+package me.songha.tutorial.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH 실행 진입점. GCProfiler 를 기본으로 붙여 allocation rate(gc.alloc.rate.norm)까지 함께 리포트한다.
+ * JMH 커맨드라인 옵션을 그대로 받으므로 데이터 규모는 -p 로 조절한다.
+ * ex) ./mvnw -Pbenchmark test-compile exec:exec -Dbenchmark.args="PagingBenchmark -p members=1000000"
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
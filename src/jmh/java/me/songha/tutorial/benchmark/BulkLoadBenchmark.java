@@ -0,0 +1,43 @@
+package me.songha.tutorial.benchmark;
+
+import me.songha.tutorial.dto.MemberLoadRow;
+import me.songha.tutorial.repository.MemberBulkLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * MemberBulkLoader 의 적재 속도. OperationsPerInvocation 으로 한 번의 호출을 ROWS 건으로 계산하므로
+ * Throughput 결과가 곧 초당 적재 건수(rows/s)이다.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BulkLoadBenchmark {
+
+    private static final int ROWS = 100_000;
+    private static final List<String> TEAM_NAMES = List.of("loadTeamA", "loadTeamB", "loadTeamC", "loadTeamD");
+
+    private MemberBulkLoader loader;
+    private Map<String, Long> teamIds;
+
+    @Setup(Level.Trial)
+    public void setUp(SeededRepositoryState state) {
+        loader = state.context.getBean(MemberBulkLoader.class);
+        teamIds = loader.loadTeams(TEAM_NAMES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long loadMembers() {
+        return loader.loadMembers(IntStream.range(0, ROWS)
+                .mapToObj(i -> new MemberLoadRow("load" + i, i % 100, TEAM_NAMES.get(i % TEAM_NAMES.size())))
+                .iterator(), teamIds, ROWS);
+    }
+}
@@ -0,0 +1,42 @@
+package me.songha.tutorial.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static me.songha.tutorial.domain.QMember.member;
+
+/**
+ * exist() 의 fetchFirst() 방식과 count 쿼리 방식 비교.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExistBenchmark {
+
+    @Benchmark
+    public Boolean fetchFirst(SeededRepositoryState state) {
+        return state.repository.exist(state.middleMemberId());
+    }
+
+    /**
+     * 없는 id 는 MemberIdFilter 가 쿼리 없이 답한다.
+     */
+    @Benchmark
+    public Boolean fetchFirstMissing(SeededRepositoryState state) {
+        return state.repository.exist(state.middleMemberId() + state.members);
+    }
+
+    @Benchmark
+    public Boolean count(SeededRepositoryState state) {
+        Long count = state.queryFactory
+                .select(member.count())
+                .from(member)
+                .where(member.id.eq(state.middleMemberId()))
+                .fetchOne();
+
+        return count != null && count > 0;
+    }
+}
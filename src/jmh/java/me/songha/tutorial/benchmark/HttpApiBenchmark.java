@@ -0,0 +1,92 @@
+package me.songha.tutorial.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /api/members 부하 테스트. SeededRepositoryState 가 띄운 서버에 여러 스레드가 동시에 HTTP 요청을 보낸다.
+ * Throughput 으로 초당 처리량을, SampleTime 으로 응답 시간 분포(p0.50, p0.99 ...)를 리포트한다.
+ * 응답 본문은 끝까지 읽어 버리므로 스트리밍 응답의 전송 시간까지 포함된다.
+ * ex) ./mvnw -Pbenchmark test-compile exec:exec -Dbenchmark.args="HttpApiBenchmark -t 16 -p members=1000000"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(8)
+@State(Scope.Benchmark)
+public class HttpApiBenchmark {
+
+    private HttpClient httpClient;
+    private String baseUri;
+    private String etag;
+
+    @Setup(Level.Trial)
+    public void setUp(SeededRepositoryState state) throws Exception {
+        httpClient = HttpClient.newHttpClient();
+        baseUri = "http://localhost:" + state.context.getEnvironment().getProperty("local.server.port") + "/api/members";
+        etag = httpClient.send(request("/search?teamName=team1").build(), HttpResponse.BodyHandlers.discarding())
+                .headers().firstValue("ETag").orElseThrow();
+    }
+
+    /**
+     * 한 팀(members / teams 건)을 JSON 배열로 조회
+     */
+    @Benchmark
+    public long search() throws Exception {
+        return send(request("/search?teamName=team1"), 200);
+    }
+
+    /**
+     * 데이터가 바뀌지 않은 상태에서 같은 조회를 다시 요청하는 polling. DB 에 가지 않고 304 로 끝난다.
+     */
+    @Benchmark
+    public long searchNotModified() throws Exception {
+        return send(request("/search?teamName=team1").header("If-None-Match", etag), 304);
+    }
+
+    @Benchmark
+    public long cursorPage() throws Exception {
+        return send(request("/cursor?ageGoe=50&sort=age,asc&limit=50"), 200);
+    }
+
+    /**
+     * 전체 회원을 gzip 으로 압축된 NDJSON 으로 받는다.
+     */
+    @Benchmark
+    @Threads(2)
+    public long exportGzip() throws Exception {
+        return send(request("/export").header("Accept-Encoding", "gzip"), 200);
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUri + path));
+    }
+
+    private long send(HttpRequest.Builder request, int expectedStatus) throws Exception {
+        HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != expectedStatus) {
+                throw new IllegalStateException("unexpected status " + response.statusCode());
+            }
+            return drain(body);
+        }
+    }
+
+    private static long drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        for (int read; (read = body.read(buffer)) != -1; ) {
+            total += read;
+        }
+        return total;
+    }
+}
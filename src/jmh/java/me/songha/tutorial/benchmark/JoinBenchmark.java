@@ -0,0 +1,28 @@
+package me.songha.tutorial.benchmark;
+
+import me.songha.tutorial.domain.Member;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 암묵적 cross join 과 명시적 inner join 비교.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JoinBenchmark {
+
+    @Benchmark
+    public List<Member> crossJoin(SeededRepositoryState state) {
+        return state.repository.crossJoin();
+    }
+
+    @Benchmark
+    public List<Member> crossJoinToInnerJoin(SeededRepositoryState state) {
+        return state.repository.crossJoinToInnerJoin();
+    }
+}
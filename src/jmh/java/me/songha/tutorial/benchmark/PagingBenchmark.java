@@ -0,0 +1,42 @@
+package me.songha.tutorial.benchmark;
+
+import me.songha.tutorial.dto.MemberDto;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 같은 깊이(전체의 중간)의 페이지를 offset / No Offset / 커버링 인덱스 방식으로 조회했을 때의 비교.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PagingBenchmark {
+
+    @Param({"20"})
+    public int pageSize;
+
+    @Benchmark
+    public Page<MemberTeamDto> offsetSearch(SeededRepositoryState state) {
+        int page = (int) (state.middleOffset() / pageSize);
+        return state.repository.search(new MemberSearchCondition(), PageRequest.of(page, pageSize));
+    }
+
+    @Benchmark
+    public List<MemberDto> noOffset(SeededRepositoryState state) {
+        return state.repository.noOffset(state.middleMemberId(), pageSize);
+    }
+
+    @Benchmark
+    public List<MemberDto> useCoveringIndex(SeededRepositoryState state) {
+        return state.repository.useCoveringIndex((int) state.middleOffset(), pageSize);
+    }
+}
@@ -0,0 +1,43 @@
+package me.songha.tutorial.benchmark;
+
+import me.songha.tutorial.dto.MemberDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * pk 목록 / 집계 컬럼을 박싱된 List 로 읽는 방식과 primitive 배열로 읽는 방식 비교.
+ * BenchmarkRunner 가 붙이는 GCProfiler 의 gc.alloc.rate.norm(호출당 할당 byte)을 비교한다.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PrimitiveResultBenchmark {
+
+    @Param({"20", "5000"})
+    public int limit;
+
+    @Benchmark
+    public List<MemberDto> useCoveringIndex(SeededRepositoryState state) {
+        return state.repository.useCoveringIndex(0, limit);
+    }
+
+    @Benchmark
+    public List<MemberDto> useCoveringIndexPrimitive(SeededRepositoryState state) {
+        return state.repository.useCoveringIndexPrimitive(0, limit);
+    }
+
+    @Benchmark
+    public List<Integer> useOrderByNull(SeededRepositoryState state) {
+        return state.repository.useOrderByNull();
+    }
+
+    @Benchmark
+    public long[] useOrderByNullPrimitive(SeededRepositoryState state) {
+        return state.repository.useOrderByNullPrimitive();
+    }
+}
@@ -0,0 +1,45 @@
+package me.songha.tutorial.benchmark;
+
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 같은 조건을 BooleanBuilder / BooleanExpression / 쿼리 템플릿 방식으로 검색했을 때의 비교.
+ * 결과 건수가 적은 조건을 사용해 쿼리를 만드는 비용(CPU, allocation)의 차이가 드러나도록 한다.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private MemberSearchCondition condition;
+
+    @Setup
+    public void setUp() {
+        condition = new MemberSearchCondition();
+        condition.setUsername("member777");
+        condition.setAgeGoe(10);
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> searchByBuilder(SeededRepositoryState state) {
+        return state.repository.searchByBuilder(condition);
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> searchByWhere(SeededRepositoryState state) {
+        return state.repository.searchByWhere(condition);
+    }
+
+    @Benchmark
+    public List<MemberTeamDto> searchByTemplate(SeededRepositoryState state) {
+        return state.repository.searchByTemplate(condition);
+    }
+}
@@ -0,0 +1,94 @@
+package me.songha.tutorial.benchmark;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import me.songha.tutorial.Application;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 임베디드 H2(in-memory)에 Team / Member 데이터를 적재한 Spring 컨텍스트를 trial 단위로 공유한다.
+ * (SwaggerConfig 가 ServletContext 를 요구하므로 웹 환경은 임의 포트로 그대로 띄운다.)
+ * 쿼리 자체의 비용을 비교하므로 searchByWhere() 결과 캐시는 끈다.
+ * 천만 건 단위까지 적재해야 하므로 JPA 가 아닌 H2 의 SYSTEM_RANGE 를 이용한 insert ... select 로 한번에 넣는다.
+ *
+ * team_id 는 1 ~ teams, member_id 는 teams + 1 ~ teams + members 로 부여한다.
+ * 각 팀의 leader 는 그 팀의 첫번째 멤버이므로 crossJoin() 의 team.id > leader.id 조건은 항상 거짓이 되어,
+ * 결과 엔티티 적재 비용 없이 조인 방식 자체의 비용만 비교된다.
+ */
+@State(Scope.Benchmark)
+public class SeededRepositoryState {
+
+    @Param({"10000"})
+    public int members;
+
+    @Param({"100"})
+    public int teams;
+
+    public ConfigurableApplicationContext context;
+    public FinalMemberRepository repository;
+    public JPAQueryFactory queryFactory;
+    public TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Application.class)
+                .run("--server.port=0",
+                        "--management.server.port=-1",
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.jpa.properties.hibernate.format_sql=false",
+                        "--app.search-cache.enabled=false",
+                        "--logging.level.root=WARN",
+                        "--logging.level.me.songha=WARN");
+
+        repository = context.getBean(FinalMemberRepository.class);
+        queryFactory = context.getBean(JPAQueryFactory.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        seed(context.getBean(JdbcTemplate.class));
+        // JDBC 로 넣은 데이터는 엔티티 이벤트가 없으므로 메모리에 유지하는 캐시 / 인덱스가 다시 만들어지도록 알린다.
+        context.publishEvent(new BulkChangeEvent(Team.class));
+        context.publishEvent(new BulkChangeEvent(Member.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * 페이지 깊이는 전체 데이터의 가운데 지점으로 고정해 offset 방식이 건너뛰어야 하는 행 수를 members 에 비례하게 만든다.
+     */
+    public long middleOffset() {
+        return members / 2;
+    }
+
+    public long middleMemberId() {
+        return teams + members - middleOffset();
+    }
+
+    private void seed(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("insert into team (team_id, name) select x, concat('team', x) from system_range(1, ?)", teams);
+        jdbcTemplate.update("insert into member (member_id, username, age, team_id) " +
+                        "select x, concat('member', x), mod(x, 100), mod(x, ?) + 1 from system_range(?, ?)",
+                teams, teams + 1, teams + members);
+        jdbcTemplate.update("update team t set member_id = (select min(m.member_id) from member m where m.team_id = t.team_id)");
+        restartSequence(jdbcTemplate, "team_seq", teams);
+        restartSequence(jdbcTemplate, "member_seq", teams + members);
+    }
+
+    /**
+     * pooled 시퀀스 값 s 는 (s - allocationSize, s] 구간의 id 를 의미하므로 maxId + allocationSize 부터 시작해야 겹치지 않는다.
+     */
+    private void restartSequence(JdbcTemplate jdbcTemplate, String sequence, long maxId) {
+        jdbcTemplate.execute("alter sequence " + sequence + " restart with " + (maxId + 50));
+    }
+}
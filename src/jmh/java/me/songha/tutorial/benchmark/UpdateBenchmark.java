@@ -0,0 +1,34 @@
+package me.songha.tutorial.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dirty Checking 과 일괄 update 비교.
+ * 매 호출마다 데이터가 바뀌면 다음 호출의 조건이 달라지므로 flush 까지 수행한 뒤 rollback 한다.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UpdateBenchmark {
+
+    @Benchmark
+    public void dirtyChecking(SeededRepositoryState state) {
+        state.transactionTemplate.executeWithoutResult(status -> {
+            state.repository.dirtyChecking();
+            status.flush();
+            status.setRollbackOnly();
+        });
+    }
+
+    @Benchmark
+    public void batchUpdate(SeededRepositoryState state) {
+        state.transactionTemplate.executeWithoutResult(status -> {
+            state.repository.batchUpdate();
+            status.setRollbackOnly();
+        });
+    }
+}
@@ -0,0 +1,25 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * searchAsync() 의 content / count 쿼리를 실행하는 executor 설정.
+ * 쿼리마다 커넥션을 하나씩 사용하므로 poolSize 는 커넥션 풀 크기보다 충분히 작게 잡는다.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.async-search")
+public class AsyncSearchProperties {
+
+    private int poolSize = 4;
+
+    /** 대기열이 가득 차면 새 검색은 RejectedExecutionException 으로 바로 실패한다. */
+    private int queueCapacity = 100;
+
+    /** 두 쿼리를 합친 페이지 전체의 제한 시간. 각 쿼리의 statement timeout 으로도 사용한다. */
+    private Duration timeout = Duration.ofSeconds(5);
+}
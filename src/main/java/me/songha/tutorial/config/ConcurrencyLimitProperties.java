@@ -0,0 +1,56 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FinalMemberRepository 메서드별 동시 실행 한도 설정. methods 에 메서드 이름별로 기본값을 덮어쓸 수 있다.
+ * ex) app.concurrency-limit.methods.crossJoin.max-limit=2
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.concurrency-limit")
+public class ConcurrencyLimitProperties {
+
+    @Getter
+    @Setter
+    public static class Method {
+        private Integer initialLimit;
+        private Integer maxLimit;
+        private Duration statementTimeout;
+    }
+
+    private boolean enabled = false;
+
+    private int initialLimit = 10;
+
+    private int minLimit = 1;
+
+    /** 한도가 아무리 늘어나도 커넥션 풀 크기를 넘지 않도록 잡는다. */
+    private int maxLimit = 20;
+
+    /** 한도를 넘은 호출이 자리가 나기를 기다릴 수 있는 수. 넘으면 바로 ConcurrencyLimitExceededException 으로 실패한다. */
+    private int maxQueue = 20;
+
+    /** 대기열에서 기다리는 최대 시간 */
+    private Duration maxWait = Duration.ofMillis(100);
+
+    /**
+     * 메서드 안에서 실행하는 쿼리에 거는 statement timeout. 0 이면 걸지 않는다.
+     * JDBC 는 초 단위이므로 1초 미만은 설정할 수 없고, 1초 미만의 나머지는 버린다.
+     */
+    private Duration statementTimeout = Duration.ofSeconds(5);
+
+    /** timeout 으로 실패한 호출이 있으면 한도에 이 값을 곱해 줄인다. */
+    private double backoffRatio = 0.9;
+
+    /** 이만큼 호출할 때마다 부하가 없을 때의 응답 시간을 다시 잰다. */
+    private int probeInterval = 1000;
+
+    private Map<String, Method> methods = new HashMap<>();
+}
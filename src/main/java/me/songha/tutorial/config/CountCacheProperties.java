@@ -0,0 +1,29 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * search() 의 전체 건수 캐시 설정.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.count-cache")
+public class CountCacheProperties {
+
+    public enum Mode {
+        /** 데이터가 바뀌지 않은 동안만 캐시된 건수를 사용한다. */
+        EXACT,
+        /** 조건이 없으면 통계 정보의 추정치를, 조건이 있으면 maxStaleness 이내의 캐시를 그대로 사용한다. */
+        ESTIMATED
+    }
+
+    private Mode mode = Mode.EXACT;
+
+    private long maximumSize = 10_000;
+
+    private Duration maxStaleness = Duration.ofMinutes(1);
+}
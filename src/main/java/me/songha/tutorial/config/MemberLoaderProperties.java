@@ -0,0 +1,25 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * MemberLoader 가 단건 조회를 모으는 설정.
+ * window 는 조회 한 건이 기다릴 수 있는 최대 지연이므로 쿼리 한 번의 시간보다 충분히 짧게 잡는다.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.member-loader")
+public class MemberLoaderProperties {
+
+    private Duration window = Duration.ofMillis(2);
+
+    /** 모인 id 가 이만큼이 되면 window 를 기다리지 않고 바로 조회한다. */
+    private int maxBatchSize = 512;
+
+    /** 동시에 실행할 수 있는 batch 쿼리 수. 쿼리마다 커넥션을 하나씩 사용한다. */
+    private int poolSize = 2;
+}
@@ -0,0 +1,35 @@
+package me.songha.tutorial.config;
+
+import me.songha.tutorial.monitoring.QueryStatistics;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * QueryStatistics 를 Hibernate 에 연결한다.
+ * StatementInspector 는 SessionFactory 생성 시점에 설정해야 하고, PostLoad 리스너는 생성된 이후에 등록한다.
+ */
+@Configuration
+public class QueryMetricsConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer statementInspectorCustomizer(QueryStatistics queryStatistics) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, queryStatistics);
+    }
+
+    @Bean
+    public SmartInitializingSingleton postLoadListenerRegistrar(EntityManagerFactory entityManagerFactory,
+                                                                QueryStatistics queryStatistics) {
+        return () -> entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_LOAD, queryStatistics);
+    }
+}
@@ -1,7 +1,10 @@
 package me.songha.tutorial.config;
 
+import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.monitoring.QueryTimeout;
+import org.hibernate.jpa.QueryHints;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -9,6 +12,7 @@ import javax.persistence.EntityManager;
 
 /**
  * repository 에서 extends or implements 를 지양하기 위해 JPAQueryFactory 를 bean 등록해준다.
+ * select / selectFrom / from 으로 만든 쿼리에는 현재 스레드의 QueryTimeout 을 statement timeout 힌트로 넣는다.
  */
 @Configuration
 @RequiredArgsConstructor
@@ -17,6 +21,16 @@ public class QuerydslConfig {
 
     @Bean
     public JPAQueryFactory jpaQueryFactory() {
-        return new JPAQueryFactory(em);
+        return new JPAQueryFactory(em) {
+            @Override
+            public JPAQuery<?> query() {
+                JPAQuery<?> query = super.query();
+                Integer timeoutMillis = QueryTimeout.currentMillis();
+                if (timeoutMillis != null) {
+                    query.setHint(QueryHints.SPEC_HINT_TIMEOUT, timeoutMillis);
+                }
+                return query;
+            }
+        };
     }
 }
@@ -0,0 +1,24 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * searchByWhere() 결과 캐시 설정.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.search-cache")
+public class SearchCacheProperties {
+
+    private boolean enabled = true;
+
+    /** 캐시 전체가 가질 수 있는 결과 행 수. 결과가 큰 조건일수록 많은 몫을 차지한다. */
+    private long maximumRows = 100_000;
+
+    /** 이벤트로 알 수 없는 변경(직접 실행한 SQL 등)이 반영되기까지의 최대 시간. */
+    private Duration ttl = Duration.ofMinutes(1);
+}
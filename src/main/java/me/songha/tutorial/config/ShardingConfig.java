@@ -0,0 +1,38 @@
+package me.songha.tutorial.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import me.songha.tutorial.repository.shard.MemberShards;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * app.sharding.enabled=true 이면 app.sharding.shards 마다 DataSource 를 만들어 MemberShards 로 묶는다.
+ * shard 는 JPA 가 아닌 JDBC 로만 사용하므로 기본 DataSource / EntityManagerFactory 에는 영향이 없다.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ShardingConfig {
+
+    @Bean
+    public MemberShards memberShards(ShardingProperties properties) {
+        List<HikariDataSource> dataSources = new ArrayList<>();
+        List<ShardingProperties.Shard> configured = properties.getShards();
+        for (int i = 0; i < configured.size(); i++) {
+            ShardingProperties.Shard shard = configured.get(i);
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(shard.getUrl())
+                    .username(shard.getUsername())
+                    .password(shard.getPassword())
+                    .build();
+            dataSource.setPoolName("shard-" + i);
+            dataSources.add(dataSource);
+        }
+        return new MemberShards(dataSources, (int) Math.max(properties.getTimeout().toSeconds(), 1));
+    }
+}
@@ -0,0 +1,48 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * team_id 로 나눈 Member / Team 읽기용 shard 사본 설정.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.sharding")
+public class ShardingProperties {
+
+    @Getter
+    @Setter
+    public static class Shard {
+        private String url;
+        private String username;
+        private String password;
+    }
+
+    private boolean enabled = false;
+
+    private List<Shard> shards = new ArrayList<>();
+
+    /** 전체 shard 에 동시에 보내는 조회를 실행할 스레드 수 */
+    private int poolSize = 4;
+
+    /** shard 하나에 보내는 조회의 statement timeout. 전체 조회도 이 시간 안에 끝나지 않으면 실패한다. */
+    private Duration timeout = Duration.ofSeconds(5);
+
+    /** 벌크 변경 후 전체 동기화를 이만큼 미뤄서, 그 사이에 온 벌크 변경을 한 번의 동기화로 합친다. */
+    private Duration resyncDelay = Duration.ofSeconds(1);
+
+    /** 커밋된 변경 이벤트를 shard 에 쓰기 전에 쌓아두는 대기열 크기. 넘치면 이벤트를 버리고 전체 동기화를 예약한다. */
+    private int writeQueueCapacity = 10_000;
+
+    /** 동기화 / 팀 이동 시 insert 를 이만큼씩 batch 로 보낸다. */
+    private int batchSize = 1000;
+
+    /** rebalance 는 가장 큰 shard 의 회원 수가 평균보다 이 비율 이상 많을 때만 팀을 옮긴다. */
+    private double maxImbalance = 0.1;
+}
@@ -0,0 +1,28 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Member / Team 스냅샷 파일 설정.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.snapshot")
+public class SnapshotProperties {
+
+    private Path path = Paths.get("data/member-snapshot.bin");
+
+    /** 시작할 때 path 의 스냅샷을 적재한다. 파일이 없거나 스키마가 다르면 적재하지 않고 빈 상태로 시작한다. */
+    private boolean restoreOnStartup = false;
+
+    /** 종료할 때 현재 데이터를 path 에 저장한다. */
+    private boolean dumpOnShutdown = false;
+
+    /** insert 를 이만큼씩 batch 로 보내고 커밋한다. */
+    private int batchSize = 1000;
+}
@@ -0,0 +1,19 @@
+package me.songha.tutorial.config;
+
+import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.controller.DataVersionETagInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final DataVersionETagInterceptor dataVersionETagInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(dataVersionETagInterceptor).addPathPatterns("/api/members/**");
+    }
+}
@@ -0,0 +1,33 @@
+package me.songha.tutorial.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * MemberWriteBehind 가 username / age 변경을 모았다가 반영하는 설정.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.write-behind")
+public class WriteBehindProperties {
+
+    private boolean enabled = false;
+
+    /** 변경이 DB 에 반영되기까지의 최대 지연. 이 간격마다 모인 변경을 반영한다. */
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    /** 모인 회원 수가 이만큼이 되면 flushInterval 을 기다리지 않고 반영한다. 트랜잭션 하나에서 반영하는 최대 회원 수이기도 하다. */
+    private int maxBatchSize = 1000;
+
+    /** 반영되지 않은 회원 수의 상한. 넘으면 새 회원의 변경은 반영될 때까지 기다린다. (이미 모인 회원의 변경은 합쳐지므로 기다리지 않는다) */
+    private int maxPending = 10_000;
+
+    /** 한 회원의 변경이 이만큼 실패하면 다시 시도하지 않고 버린다. */
+    private int maxAttempts = 3;
+
+    /** maxPending 때문에 기다리는 최대 시간. 넘으면 IllegalStateException 으로 실패한다. */
+    private Duration backpressureTimeout = Duration.ofSeconds(1);
+}
@@ -0,0 +1,230 @@
+package me.songha.tutorial.config.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * ** primary / replica 라우팅 **
+ * 읽기 전용 트랜잭션(@Transactional(readOnly = true))은 replica 중 하나로, 그 외에는 primary 로 커넥션을 연결한다.
+ * 트랜잭션의 readOnly 여부는 트랜잭션이 시작된 뒤에 알 수 있으므로 반드시 LazyConnectionDataSourceProxy 로 감싸서
+ * 첫 statement 를 실행하는 시점에 커넥션을 얻도록 해야 한다.
+ *
+ * replica 는 checkReplicas() 가 주기적으로 확인해서 연결할 수 없으면 DOWN, 복제 지연이 maxLag 를 넘으면 STALE 로 두고 제외한다.
+ * 사용할 replica 가 없거나 커넥션을 얻는 데 실패하면 fallback 설정에 따라 primary 에서 읽거나 실패한다.
+ * 또한 쓰기 트랜잭션을 커밋한 스레드는 readYourWritesWindow 동안 읽기도 primary 에서 한다.
+ *
+ * datasource.route 메트릭(target, reason)으로 어디로 연결되었는지 확인할 수 있다.
+ * 현재 트랜잭션이 replica 에서 읽고 있는지는 isReadingFromReplica() 로 알 수 있다. (결과를 캐시하지 않기 위함)
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    public static final String PRIMARY = "primary";
+
+    public enum State {
+        UP, STALE, DOWN
+    }
+
+    private static final ThreadLocal<Long> LAST_WRITE_COMMIT = new ThreadLocal<>();
+    /** 현재 트랜잭션이 replica 로 라우팅되었다는 표시의 TransactionSynchronizationManager resource key */
+    private static final String REPLICA_READ = ReplicaRoutingDataSource.class.getName() + ".replicaRead";
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final Map<String, State> states = new LinkedHashMap<>();
+    private final RoutingDataSourceProperties properties;
+    /**
+     * MeterRegistry 는 DataSource 메트릭 바인더 때문에 DataSource 보다 늦게 만들어져야 하므로 처음 라우팅할 때 꺼내 쓴다.
+     */
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final AtomicInteger next = new AtomicInteger();
+    /** readYourWritesWindow 를 재는 시계 (ns). 테스트에서는 직접 움직이는 값으로 바꾼다. */
+    private volatile LongSupplier nanoClock = System::nanoTime;
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas,
+                                    RoutingDataSourceProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.primary = primary;
+        this.replicas = new LinkedHashMap<>(replicas);
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        replicas.keySet().forEach(name -> states.put(name, State.UP));
+
+        Map<Object, Object> targets = new LinkedHashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    /**
+     * 현재 트랜잭션의 커넥션이 replica 로 라우팅되었으면 true. 커밋 / 롤백되면 다시 false 가 된다.
+     * replica 로 연결하려다 실패해서 primary 에서 읽은 경우도 true 로 본다.
+     */
+    public static boolean isReadingFromReplica() {
+        return TransactionSynchronizationManager.hasResource(REPLICA_READ);
+    }
+
+    void setNanoClock(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    public synchronized State stateOf(String replica) {
+        return states.get(replica);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String target = (String) determineCurrentLookupKey();
+        if (target == null) {
+            throw new SQLException("사용할 수 있는 replica 가 없습니다.");
+        }
+        if (PRIMARY.equals(target)) {
+            return primary.getConnection();
+        }
+        try {
+            return replicas.get(target).getConnection();
+        } catch (SQLException e) {
+            log.warn("replica {} 에 연결할 수 없습니다.", target, e);
+            update(target, State.DOWN);
+            return fallback("down", e);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            rememberWriteCommit();
+            return route(PRIMARY, "write");
+        }
+
+        Long lastWrite = LAST_WRITE_COMMIT.get();
+        if (lastWrite != null && nanoClock.getAsLong() - lastWrite < properties.getReadYourWritesWindow().toNanos()) {
+            return route(PRIMARY, "read-your-writes");
+        }
+
+        List<String> usable = usableReplicas();
+        if (usable.isEmpty()) {
+            return route(fallbackTarget(), "no-replica");
+        }
+        markReplicaRead();
+        return route(usable.get(Math.floorMod(next.getAndIncrement(), usable.size())), "read");
+    }
+
+    /**
+     * 각 replica 에 lagQuery(없으면 연결 확인)를 실행해 상태를 갱신한다.
+     */
+    @Scheduled(fixedDelayString = "${app.datasource.routing.check-interval:PT5S}")
+    public void checkReplicas() {
+        replicas.forEach((name, dataSource) -> update(name, check(dataSource)));
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for (DataSource dataSource : replicas.values()) {
+            close(dataSource);
+        }
+        close(primary);
+    }
+
+    private State check(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            if (properties.getLagQuery() == null) {
+                return connection.isValid(1) ? State.UP : State.DOWN;
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery(properties.getLagQuery())) {
+                double lagSeconds = rs.next() ? rs.getDouble(1) : Double.MAX_VALUE;
+                return lagSeconds * 1000 > properties.getMaxLag().toMillis() ? State.STALE : State.UP;
+            }
+        } catch (SQLException e) {
+            return State.DOWN;
+        }
+    }
+
+    private synchronized void update(String replica, State state) {
+        State previous = states.put(replica, state);
+        if (previous != state) {
+            log.info("replica {} : {} -> {}", replica, previous, state);
+        }
+    }
+
+    private synchronized List<String> usableReplicas() {
+        List<String> usable = new ArrayList<>(states.size());
+        states.forEach((name, state) -> {
+            if (state == State.UP) {
+                usable.add(name);
+            }
+        });
+        return usable;
+    }
+
+    private String fallbackTarget() {
+        return properties.getFallback() == RoutingDataSourceProperties.Fallback.PRIMARY ? PRIMARY : null;
+    }
+
+    private Connection fallback(String reason, SQLException cause) throws SQLException {
+        if (fallbackTarget() == null) {
+            throw cause;
+        }
+        route(PRIMARY, reason);
+        return primary.getConnection();
+    }
+
+    private String route(String target, String reason) {
+        meterRegistry.getObject().counter("datasource.route", "target", target == null ? "none" : target, "reason", reason).increment();
+        return target;
+    }
+
+    /**
+     * 쓰기 트랜잭션이 커밋되면 이 스레드의 이후 읽기는 replica 가 따라올 때까지 primary 로 보낸다.
+     */
+    private void rememberWriteCommit() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                LAST_WRITE_COMMIT.set(nanoClock.getAsLong());
+            }
+        });
+    }
+
+    private static void markReplicaRead() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(REPLICA_READ)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(REPLICA_READ, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(REPLICA_READ);
+            }
+        });
+    }
+
+    private static void close(DataSource dataSource) throws IOException {
+        if (dataSource instanceof Closeable) {
+            ((Closeable) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package me.songha.tutorial.config.datasource;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 읽기 전용 트랜잭션을 replica 로 보내는 라우팅 설정. primary 는 spring.datasource.* 를 그대로 사용한다.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "app.datasource.routing")
+public class RoutingDataSourceProperties {
+
+    public enum Fallback {
+        /** 사용할 수 있는 replica 가 없으면 primary 에서 읽는다. */
+        PRIMARY,
+        /** 사용할 수 있는 replica 가 없으면 커넥션을 얻지 못하고 실패한다. (primary 를 읽기 부하로부터 보호) */
+        FAIL
+    }
+
+    @Getter
+    @Setter
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+    }
+
+    private boolean enabled = false;
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    /** 복제 지연을 초 단위 숫자로 반환하는 replica 쿼리. 없으면 연결 가능 여부만 확인한다. */
+    private String lagQuery;
+
+    /** 복제 지연이 이보다 크면 해당 replica 로 보내지 않는다. */
+    private Duration maxLag = Duration.ofSeconds(5);
+
+    private Duration checkInterval = Duration.ofSeconds(5);
+
+    /** 같은 스레드에서 쓰기 트랜잭션이 커밋된 뒤 이 시간 동안은 읽기도 primary 로 보내 방금 쓴 데이터를 읽을 수 있게 한다. */
+    private Duration readYourWritesWindow = Duration.ofSeconds(5);
+
+    private Fallback fallback = Fallback.PRIMARY;
+}
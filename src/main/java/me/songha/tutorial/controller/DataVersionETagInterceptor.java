@@ -0,0 +1,41 @@
+package me.songha.tutorial.controller;
+
+import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.domain.event.DataVersion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ** DataVersion 기반 조건부 응답 **
+ * Member / Team 조회 결과는 DataVersion 이 같은 동안 바뀌지 않으므로, 버전을 ETag 로 내려주고
+ * If-None-Match 가 현재 버전과 같으면 핸들러를 실행하지 않고 304 Not Modified 로 끝낸다. (DB 에 가지 않는다)
+ *
+ * 버전은 조회하기 전에 읽으므로 조회 도중 커밋된 변경이 응답에 섞여도 다음 요청에서는 버전이 달라 다시 조회한다.
+ * 버전 카운터는 인스턴스마다 0 부터 시작하므로 기동할 때 정한 임의의 epoch 를 붙여 재시작 / 다른 인스턴스의 ETag 와 겹치지 않게 한다.
+ * gzip 으로 압축되면 바이트가 달라지므로 weak ETag 를 사용한다. (Tomcat 은 strong ETag 가 있으면 압축하지 않는다)
+ *
+ * JPA 를 거치지 않은 변경은 DataVersion 을 올리지 않으며, replica 로 조회하면 최대 복제 지연만큼 이전 데이터가 현재 버전으로 캐시될 수 있다.
+ */
+@Component
+@RequiredArgsConstructor
+public class DataVersionETagInterceptor implements HandlerInterceptor {
+
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final DataVersion dataVersion;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod())) {
+            return true;
+        }
+        String etag = "W/\"" + epoch + "-" + dataVersion.current() + "\"";
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        return !new ServletWebRequest(request, response).checkNotModified(etag);
+    }
+}
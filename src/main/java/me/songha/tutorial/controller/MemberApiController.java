@@ -0,0 +1,101 @@
+package me.songha.tutorial.controller;
+
+import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.dto.CursorSlice;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.ConcurrencyLimitExceededException;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import me.songha.tutorial.service.MemberExportService;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * ** Member 조회 API **
+ * 결과 전체를 List 로 모아 직렬화하지 않고, 커서에서 읽는 대로 응답 스트림에 쓴다. (server.compression 설정으로 gzip 압축된다)
+ * 스트리밍 응답은 MVC 비동기 스레드에서 MemberExportService 의 읽기 전용 트랜잭션으로 실행된다.
+ * 모든 응답에는 DataVersionETagInterceptor 가 ETag 를 붙이므로 데이터가 바뀌지 않았다면 304 로 응답한다.
+ */
+@RestController
+@RequestMapping("/api/members")
+@RequiredArgsConstructor
+public class MemberApiController {
+
+    static final int MAX_LIMIT = 1000;
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+
+    private final FinalMemberRepository memberRepository;
+    private final MemberExportService exportService;
+
+    /**
+     * 조건에 맞는 회원 전체를 JSON 배열로 내려준다.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<StreamingResponseBody> search(MemberSearchCondition condition) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> exportService.exportSearch(condition, out, MemberExportService.Format.JSON));
+    }
+
+    /**
+     * No Offset(keyset) 페이지. 응답의 nextCursor 를 다음 요청의 cursor 로 넘긴다.
+     * ex) /api/members/cursor?teamName=teamA&sort=age,asc&limit=50
+     */
+    @GetMapping("/cursor")
+    public CursorSlice<MemberTeamDto> cursor(MemberSearchCondition condition, Sort sort,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit 은 1 ~ " + MAX_LIMIT + " 사이여야 합니다. limit=" + limit);
+        }
+        return memberRepository.searchByCursor(condition, sort, cursor, limit);
+    }
+
+    /**
+     * 조건이 없으면 전체 회원을, 있으면 조건에 맞는 회원을 NDJSON(기본) 또는 CSV 로 내려준다.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(MemberSearchCondition condition,
+                                                        @RequestParam(defaultValue = "NDJSON") MemberExportService.Format format) {
+        StreamingResponseBody body = condition.hasNoFilter()
+                ? out -> exportService.exportMembers(out, format)
+                : out -> exportService.exportSearch(condition, out, format);
+        return ResponseEntity.ok()
+                .contentType(mediaTypeOf(format))
+                .body(body);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    /**
+     * 동시 실행 한도(ConcurrencyLimitAspect)를 넘은 요청은 max-wait 동안 max-queue 개까지 대기열에서 기다리고,
+     * 대기열이 가득 찼거나 그 안에 자리가 나지 않으면 503 으로 돌려보낸다.
+     */
+    @ExceptionHandler(ConcurrencyLimitExceededException.class)
+    public ResponseEntity<String> overloaded(ConcurrencyLimitExceededException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage());
+    }
+
+    private static MediaType mediaTypeOf(MemberExportService.Format format) {
+        switch (format) {
+            case CSV:
+                return CSV;
+            case JSON:
+                return MediaType.APPLICATION_JSON;
+            default:
+                return NDJSON;
+        }
+    }
+}
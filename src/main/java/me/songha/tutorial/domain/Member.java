@@ -5,12 +5,18 @@ import lombok.*;
 import javax.persistence.*;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_member_username_id", columnList = "username, member_id"),
+        @Index(name = "idx_member_age_id", columnList = "age, member_id"),
+        @Index(name = "idx_member_team_id", columnList = "team_id, member_id")
+})
 @Getter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 @ToString(of = {"id", "username", "age"})
 public class Member {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "member_seq")
+    @SequenceGenerator(name = "member_seq", sequenceName = "member_seq", allocationSize = 50)
     @Column(name = "member_id")
     private Long id;
 
@@ -32,4 +38,8 @@ public class Member {
     public void setUsername(String username) {
         this.username = username;
     }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
 }
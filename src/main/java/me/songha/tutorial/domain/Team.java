@@ -1,24 +1,34 @@
 package me.songha.tutorial.domain;
 
 import lombok.*;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@Table(indexes = @Index(name = "idx_team_name", columnList = "name"))
+@BatchSize(size = Team.BATCH_SIZE)
 @Getter
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
 @ToString(of = {"id", "name"})
 public class Team {
 
+    /**
+     * lazy 로딩되는 Team 프록시와 Team.members 컬렉션을 한 번에 몇 개씩 IN 쿼리로 초기화할지 정한다.
+     */
+    public static final int BATCH_SIZE = 100;
+
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "team_seq")
+    @SequenceGenerator(name = "team_seq", sequenceName = "team_seq", allocationSize = 50)
     @Column(name = "team_id")
     private Long id;
 
     private String name;
 
+    @BatchSize(size = Team.BATCH_SIZE)
     @OneToMany(mappedBy = "team")
     List<Member> members = new ArrayList<>();
 
@@ -0,0 +1,29 @@
+package me.songha.tutorial.domain.event;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 벌크 update / delete 처럼 영속성 컨택스트를 거치지 않아 엔티티 이벤트가 발생하지 않는 변경을 알린다.
+ * 어떤 행이 바뀌었는지 알 수 없으므로 받는 쪽은 해당 엔티티 타입 전체가 바뀐 것으로 취급해야 한다.
+ */
+@Getter
+@ToString
+public class BulkChangeEvent {
+    private final Class<?> entityType;
+    /** true 이면 기존 행의 컬럼만 바뀌었고 추가 / 삭제된 행은 없다. (벌크 update) */
+    private final boolean updateOnly;
+
+    public BulkChangeEvent(Class<?> entityType) {
+        this(entityType, false);
+    }
+
+    public BulkChangeEvent(Class<?> entityType, boolean updateOnly) {
+        this.entityType = entityType;
+        this.updateOnly = updateOnly;
+    }
+
+    public boolean isOf(Class<?> entityType) {
+        return this.entityType.equals(entityType);
+    }
+}
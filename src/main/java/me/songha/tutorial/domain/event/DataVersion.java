@@ -0,0 +1,32 @@
+package me.songha.tutorial.domain.event;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Member / Team 데이터가 커밋될 때마다 증가하는 버전.
+ * 조회 결과를 만들 때의 버전을 함께 기억해두면, 버전이 달라졌는지만으로 캐시가 오래되었는지 판단할 수 있다.
+ *
+ * 벌크 변경 이벤트는 트랜잭션 안에서 발행되므로 커밋된 뒤에 버전을 올린다. (트랜잭션이 없다면 바로 올린다.)
+ */
+@Component
+public class DataVersion {
+    private final AtomicLong version = new AtomicLong();
+
+    public long current() {
+        return version.get();
+    }
+
+    @EventListener
+    public void onEntityChange(EntityChangeEvent event) {
+        version.incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        version.incrementAndGet();
+    }
+}
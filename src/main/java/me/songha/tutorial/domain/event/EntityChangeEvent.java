@@ -0,0 +1,59 @@
+package me.songha.tutorial.domain.event;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Arrays;
+
+/**
+ * 커밋된 엔티티 변경 내용. Hibernate 의 post-commit 이벤트를 Spring 이벤트로 옮겨 발행한다.
+ * insert 는 oldState 가, delete 는 state 가 null 이다.
+ */
+@Getter
+@ToString(of = {"entityType", "id", "type"})
+public class EntityChangeEvent {
+
+    public enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    private final Class<?> entityType;
+    private final Object id;
+    private final Type type;
+    private final String[] propertyNames;
+    private final Object[] oldState;
+    private final Object[] state;
+
+    public EntityChangeEvent(Class<?> entityType, Object id, Type type,
+                             String[] propertyNames, Object[] oldState, Object[] state) {
+        this.entityType = entityType;
+        this.id = id;
+        this.type = type;
+        this.propertyNames = propertyNames;
+        this.oldState = oldState;
+        this.state = state;
+    }
+
+    public boolean isOf(Class<?> entityType) {
+        return this.entityType.equals(entityType);
+    }
+
+    public Object getOld(String property) {
+        return valueOf(oldState, property);
+    }
+
+    public Object get(String property) {
+        return valueOf(state, property);
+    }
+
+    private Object valueOf(Object[] values, String property) {
+        if (values == null) {
+            return null;
+        }
+        int index = Arrays.asList(propertyNames).indexOf(property);
+        if (index < 0) {
+            throw new IllegalArgumentException(entityType.getSimpleName() + " 에 없는 속성입니다. property=" + property);
+        }
+        return values[index];
+    }
+}
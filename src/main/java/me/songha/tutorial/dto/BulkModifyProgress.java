@@ -0,0 +1,32 @@
+package me.songha.tutorial.dto;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * 구간(chunk) 단위 벌크 수정의 진행 상황. 마지막 구간의 진행 상황이 곧 전체 결과이다.
+ * totalChunks 는 시작할 때 센 대상 건수로 계산한 값이며, 마지막 구간에서 실제 구간 수로 맞춰진다.
+ */
+@Getter
+@ToString
+public class BulkModifyProgress {
+    private final long completedChunks;
+    private final long totalChunks;
+    private final Long lastId;
+    private final long modifiedRows;
+    private final Duration elapsed;
+
+    public BulkModifyProgress(long completedChunks, long totalChunks, Long lastId, long modifiedRows, Duration elapsed) {
+        this.completedChunks = completedChunks;
+        this.totalChunks = totalChunks;
+        this.lastId = lastId;
+        this.modifiedRows = modifiedRows;
+        this.elapsed = elapsed;
+    }
+
+    public boolean isDone() {
+        return completedChunks == totalChunks;
+    }
+}
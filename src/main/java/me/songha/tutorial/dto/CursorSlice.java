@@ -0,0 +1,26 @@
+package me.songha.tutorial.dto;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * No Offset(keyset) 방식의 조회 결과.
+ * 전체 건수나 페이지 번호 대신 다음 조회를 이어갈 수 있는 cursor 토큰만 내려준다.
+ */
+@Getter
+@ToString
+public class CursorSlice<T> {
+    private final List<T> content;
+    private final String nextCursor;
+
+    public CursorSlice(List<T> content, String nextCursor) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,21 @@
+package me.songha.tutorial.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 대량 적재할 Member 한 건. 팀은 이름으로 참조하며 적재 시 team_id 로 바뀐다.
+ */
+@NoArgsConstructor
+@Data
+public class MemberLoadRow {
+    private String username;
+    private int age;
+    private String teamName;
+
+    public MemberLoadRow(String username, int age, String teamName) {
+        this.username = username;
+        this.age = age;
+        this.teamName = teamName;
+    }
+}
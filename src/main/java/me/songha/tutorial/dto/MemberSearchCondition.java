@@ -2,10 +2,29 @@ package me.songha.tutorial.dto;
 
 import lombok.Data;
 
+import static org.springframework.util.StringUtils.hasText;
+
 @Data
 public class MemberSearchCondition {
     private String username;
     private String teamName;
     private Integer ageGoe;
     private Integer ageLoe;
+
+    /**
+     * where 절에서 무시되는 빈 문자열을 null 로 맞춘 사본을 반환한다.
+     * 조회 결과가 같은 조건은 equals / hashCode 도 같아지므로 캐시의 key 로 사용할 수 있다.
+     */
+    public MemberSearchCondition normalized() {
+        MemberSearchCondition normalized = new MemberSearchCondition();
+        normalized.setUsername(hasText(username) ? username : null);
+        normalized.setTeamName(hasText(teamName) ? teamName : null);
+        normalized.setAgeGoe(ageGoe);
+        normalized.setAgeLoe(ageLoe);
+        return normalized;
+    }
+
+    public boolean hasNoFilter() {
+        return !hasText(username) && !hasText(teamName) && ageGoe == null && ageLoe == null;
+    }
 }
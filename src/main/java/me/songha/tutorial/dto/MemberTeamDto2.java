@@ -24,6 +24,6 @@ public class MemberTeamDto2 {
         this.memberId = memberId;
         this.username = username;
         this.age = age;
-        this.team = Team.builder().id(teamId).build();
+        this.team = teamId == null ? null : Team.builder().id(teamId).build();
     }
 }
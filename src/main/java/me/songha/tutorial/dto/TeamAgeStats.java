@@ -0,0 +1,25 @@
+package me.songha.tutorial.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 팀별 소속 회원 수와 나이 합계 / 최소 / 최대.
+ */
+@NoArgsConstructor
+@Data
+public class TeamAgeStats {
+    private Long teamId;
+    private long memberCount;
+    private long ageSum;
+    private int minAge;
+    private int maxAge;
+
+    public TeamAgeStats(Long teamId, long memberCount, long ageSum, int minAge, int maxAge) {
+        this.teamId = teamId;
+        this.memberCount = memberCount;
+        this.ageSum = ageSum;
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+    }
+}
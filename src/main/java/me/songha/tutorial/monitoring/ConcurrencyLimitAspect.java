@@ -0,0 +1,196 @@
+package me.songha.tutorial.monitoring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.config.ConcurrencyLimitProperties;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.sql.SQLTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.BaseStream;
+
+/**
+ * ** repository 메서드별 동시 실행 한도 (load shedding) **
+ * search() 의 count 쿼리, crossJoin(), getMembers() 처럼 무거운 호출이 몰리면 커넥션을 모두 차지해 exist() 같은 가벼운 호출까지 기다리게 된다.
+ * FinalMemberRepository 의 public 메서드마다 VegasLimit 으로 응답 시간에 맞춰 바뀌는 동시 실행 한도를 두고,
+ * 한도를 넘은 호출은 maxWait 동안 maxQueue 개까지만 기다리게 한 뒤 ConcurrencyLimitExceededException 으로 바로 실패시킨다.
+ *
+ * 트랜잭션(커넥션)을 얻기 전에 거절해야 하므로 가장 바깥에서 실행되도록 순서를 가장 앞에 둔다.
+ * 실행하는 동안에는 QueryTimeout 을 설정해 메서드 안에서 실행하는 쿼리에 statement timeout 이 걸리도록 한다.
+ * timeout 은 초 단위로만 걸 수 있으므로 1초 미만의 statement-timeout 은 시작할 때 거절한다.
+ * CompletableFuture 를 반환하면 완료될 때 자리를 반납하고, Stream 을 반환하는 메서드는 호출이 끝난 뒤에도 커넥션을 쓰므로 제외한다.
+ *
+ * 메트릭 (tag: class, method)
+ * - repository.concurrency.limit : 현재 한도
+ * - repository.concurrency.inflight : 실행 중인 호출 수
+ * - repository.concurrency.queue : 자리를 기다리는 호출 수
+ * - repository.concurrency.rejected : 거절한 호출 수
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(prefix = "app.concurrency-limit", name = "enabled", havingValue = "true")
+public class ConcurrencyLimitAspect {
+
+    private final ConcurrencyLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<Method, MethodLimiter> limiters = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimitAspect(ConcurrencyLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        validateStatementTimeout("statement-timeout", properties.getStatementTimeout());
+        properties.getMethods().forEach((name, method) ->
+                validateStatementTimeout("methods." + name + ".statement-timeout", method.getStatementTimeout()));
+    }
+
+    private static void validateStatementTimeout(String name, Duration timeout) {
+        if (timeout != null && !timeout.isNegative() && !timeout.isZero() && timeout.compareTo(Duration.ofSeconds(1)) < 0) {
+            throw new IllegalArgumentException("app.concurrency-limit." + name + " 은 0 이거나 1초 이상이어야 합니다. value=" + timeout);
+        }
+    }
+
+    @Around("execution(public * me.songha.tutorial.repository.FinalMemberRepository.*(..))")
+    public Object limit(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        if (BaseStream.class.isAssignableFrom(method.getReturnType())) {
+            return joinPoint.proceed();
+        }
+        MethodLimiter limiter = limiters.computeIfAbsent(method, MethodLimiter::new);
+
+        limiter.acquire();
+        long start = System.nanoTime();
+        Integer previousTimeout = QueryTimeout.set(limiter.statementTimeoutMillis);
+        Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable e) {
+            limiter.release(start, e);
+            throw e;
+        } finally {
+            QueryTimeout.restore(previousTimeout);
+        }
+
+        if (result instanceof CompletableFuture) {
+            ((CompletableFuture<?>) result).whenComplete((value, error) -> limiter.release(start, error));
+        } else {
+            limiter.release(start, null);
+        }
+        return result;
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTimeoutException
+                    || cause instanceof javax.persistence.QueryTimeoutException
+                    || cause instanceof org.springframework.dao.QueryTimeoutException
+                    || cause instanceof java.util.concurrent.TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class MethodLimiter {
+        private final String name;
+        private final VegasLimit limit;
+        private final Integer statementTimeoutMillis;
+        private final Counter rejected;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private volatile int inflight;
+        private volatile int waiting;
+
+        private MethodLimiter(Method method) {
+            String className = method.getDeclaringClass().getSimpleName();
+            String methodName = method.getName();
+            this.name = className + "." + methodName;
+
+            ConcurrencyLimitProperties.Method override = properties.getMethods()
+                    .getOrDefault(methodName, new ConcurrencyLimitProperties.Method());
+            int maxLimit = override.getMaxLimit() != null ? override.getMaxLimit() : properties.getMaxLimit();
+            int initialLimit = override.getInitialLimit() != null ? override.getInitialLimit() : Math.min(properties.getInitialLimit(), maxLimit);
+            long timeoutMillis = (override.getStatementTimeout() != null ? override.getStatementTimeout() : properties.getStatementTimeout()).toMillis();
+            this.limit = new VegasLimit(initialLimit, Math.min(properties.getMinLimit(), maxLimit), maxLimit,
+                    properties.getBackoffRatio(), properties.getProbeInterval());
+            this.statementTimeoutMillis = timeoutMillis > 0 ? (int) Math.min(timeoutMillis, Integer.MAX_VALUE) : null;
+
+            Gauge.builder("repository.concurrency.limit", limit, VegasLimit::getLimit)
+                    .tag("class", className).tag("method", methodName).register(meterRegistry);
+            Gauge.builder("repository.concurrency.inflight", this, limiter -> limiter.inflight)
+                    .tag("class", className).tag("method", methodName).register(meterRegistry);
+            Gauge.builder("repository.concurrency.queue", this, limiter -> limiter.waiting)
+                    .tag("class", className).tag("method", methodName).register(meterRegistry);
+            this.rejected = Counter.builder("repository.concurrency.rejected")
+                    .tag("class", className).tag("method", methodName).register(meterRegistry);
+        }
+
+        private void acquire() {
+            lock.lock();
+            try {
+                if (inflight < limit.getLimit()) {
+                    inflight++;
+                    return;
+                }
+                if (waiting >= properties.getMaxQueue()) {
+                    throw reject();
+                }
+
+                waiting++;
+                try {
+                    long remaining = properties.getMaxWait().toNanos();
+                    while (inflight >= limit.getLimit()) {
+                        if (remaining <= 0) {
+                            throw reject();
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                    inflight++;
+                } finally {
+                    waiting--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw reject();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(long start, Throwable error) {
+            long elapsed = System.nanoTime() - start;
+            lock.lock();
+            try {
+                boolean dropped = error != null && isTimeout(error);
+                // timeout 이 아닌 실패는 응답 시간이 의미가 없으므로 한도 계산에 쓰지 않는다.
+                if (error == null || dropped) {
+                    limit.onSample(elapsed, inflight, dropped);
+                }
+                inflight--;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private ConcurrencyLimitExceededException reject() {
+            rejected.increment();
+            return new ConcurrencyLimitExceededException(name, limit.getLimit(), inflight);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package me.songha.tutorial.monitoring;
+
+import lombok.Getter;
+
+@Getter
+public class ConcurrencyLimitExceededException extends IllegalStateException {
+
+    private final String method;
+    private final int limit;
+    private final int inflight;
+
+    public ConcurrencyLimitExceededException(String method, int limit, int inflight) {
+        super(method + " rejected, " + inflight + " calls in flight, limit is " + limit);
+        this.method = method;
+        this.limit = limit;
+        this.inflight = inflight;
+    }
+}
@@ -0,0 +1,67 @@
+package me.songha.tutorial.monitoring;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * QueryPlanAdvisor 가 repository 메서드가 실행한 SQL 하나에 대해 H2 EXPLAIN 결과를 분석한 내용.
+ */
+@Getter
+@ToString
+public class QueryPlan {
+
+    public enum Issue {
+        /** 조건 없이 테이블(또는 인덱스) 전체를 읽는다. */
+        FULL_SCAN,
+        /** order by 를 인덱스 순서로 처리하지 못해 읽은 행을 다시 정렬한다. */
+        FILESORT,
+        /** 조인 조건 없이 from 절에 나열된 테이블끼리 조인한다. (member.team.leader.id 같은 묵시적 조인) */
+        CROSS_JOIN
+    }
+
+    /**
+     * H2 는 접근 경로를 "/* PUBLIC.인덱스명: 조건 *&#47;" 주석으로 표시하며, 조건이 없으면 전체를 읽는다는 뜻이다.
+     */
+    private static final Pattern ACCESS_PATH = Pattern.compile("/\\* (PUBLIC\\.[\\w.]+?)(:[^*]*)? \\*/");
+
+    private final String method;
+    private final String sql;
+    private final String plan;
+    private final Set<Issue> issues;
+
+    public QueryPlan(String method, String sql, String plan) {
+        this.method = method;
+        this.sql = sql;
+        this.plan = plan;
+        this.issues = Collections.unmodifiableSet(analyze(sql, plan));
+    }
+
+    public boolean hasIssues() {
+        return !issues.isEmpty();
+    }
+
+    private static Set<Issue> analyze(String sql, String plan) {
+        Set<Issue> issues = EnumSet.noneOf(Issue.class);
+
+        Matcher accessPath = ACCESS_PATH.matcher(plan);
+        while (accessPath.find()) {
+            if (accessPath.group(2) == null) {
+                issues.add(Issue.FULL_SCAN);
+            }
+        }
+        if (plan.contains("ORDER BY") && !plan.contains("/* index sorted */")) {
+            issues.add(Issue.FILESORT);
+        }
+        // H2 는 inner join 도 plan 에서는 ON 1=1 로 바꿔 표시하므로 cross join 여부는 Hibernate 가 만든 SQL 로 판단한다.
+        if (sql.toLowerCase().contains(" cross join ")) {
+            issues.add(Issue.CROSS_JOIN);
+        }
+        return issues;
+    }
+}
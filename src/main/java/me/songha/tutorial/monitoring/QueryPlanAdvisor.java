@@ -0,0 +1,132 @@
+package me.songha.tutorial.monitoring;
+
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * ** 실행 계획 점검 **
+ * FinalMemberRepository 의 메서드를 대표 인자로 한번씩 실행해 Hibernate 가 만든 SQL 을 수집하고,
+ * 내장 H2 에서 EXPLAIN 한 결과로 전체 스캔 / 인덱스를 타지 못한 정렬 / 묵시적 cross join 을 찾아낸다.
+ *
+ * 운영 DB 에서 켜도 부담이 없도록 메서드는 QueryStatistics.captureWithoutRows() 로 실행해 select 가 행을 읽지 않게 하고,
+ * rollback 되는 트랜잭션 안에서 실행한다. 그래서 getMembers(), crossJoin() 같은 전체 조회도 SQL 과 실행 계획만 얻는다.
+ * 읽은 행이 없으니 dirtyChecking() 도 update 를 실행하지 않는다.
+ * 벌크 update 는 행을 읽지 않고 바로 실행되므로 batchUpdate(), chunkedUpdate() 는 제외한다.
+ * 다른 스레드에서 쿼리를 실행하는 searchAsync() 는 search() 와 같은 SQL 을 사용하므로 제외한다.
+ * 행을 읽지 않은 빈 결과가 남지 않도록, 결과를 캐시하는 SearchResultCache / MemberCountCache 는 점검 중에 캐시를 거치지 않고
+ * read model(TeamCache, UsernameIndex, TeamAgeStatsView, MemberIdFilter)은 점검하는 스레드가 아닌 각자의 스레드에서 만들어진다.
+ *
+ * app.query-plan-advisor.enabled=true 이면 기동 시점에 결과를 로그로 남기고, 테스트에서는 analyze() 를 직접 호출한다.
+ */
+@Slf4j
+@Component
+public class QueryPlanAdvisor {
+
+    private final FinalMemberRepository repository;
+    private final QueryStatistics queryStatistics;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final Map<String, Consumer<FinalMemberRepository>> probes = new LinkedHashMap<>();
+
+    public QueryPlanAdvisor(FinalMemberRepository repository, QueryStatistics queryStatistics,
+                            TransactionTemplate transactionTemplate, JdbcTemplate jdbcTemplate,
+                            @Value("${app.query-plan-advisor.enabled:false}") boolean enabled) {
+        this.repository = repository;
+        this.queryStatistics = queryStatistics;
+        this.transactionTemplate = transactionTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("member1");
+        condition.setTeamName("teamA");
+        condition.setAgeGoe(10);
+        condition.setAgeLoe(40);
+
+        probes.put("getMembers", FinalMemberRepository::getMembers);
+        probes.put("streamMembers", r -> {
+            try (Stream<?> stream = r.streamMembers(100)) {
+                stream.findFirst();
+            }
+        });
+        probes.put("dirtyChecking", FinalMemberRepository::dirtyChecking);
+        probes.put("searchByBuilder", r -> r.searchByBuilder(condition));
+        probes.put("searchByWhere", r -> r.searchByWhere(condition));
+        probes.put("searchByTemplate", r -> r.searchByTemplate(condition));
+        probes.put("searchWithoutJoin", r -> r.searchWithoutJoin(condition));
+        probes.put("streamByWhere", r -> {
+            try (Stream<?> stream = r.streamByWhere(condition, 100)) {
+                stream.findFirst();
+            }
+        });
+        probes.put("useOrderByNull", FinalMemberRepository::useOrderByNull);
+        probes.put("teamAgeStats", FinalMemberRepository::teamAgeStats);
+        probes.put("entityInSelect", r -> r.entityInSelect(1L));
+        probes.put("entityInSelectBatched", r -> r.entityInSelectBatched(1L));
+        probes.put("searchWithTeams", r -> r.searchWithTeams(condition));
+        probes.put("findSameTeamMember", r -> r.findSameTeamMember(1L));
+        probes.put("crossJoin", FinalMemberRepository::crossJoin);
+        probes.put("crossJoinToInnerJoin", FinalMemberRepository::crossJoinToInnerJoin);
+        // 음수 id 는 MemberIdFilter 가 답하지 않으므로 항상 쿼리가 실행된다.
+        probes.put("exist", r -> r.exist(-1L));
+        probes.put("search", r -> r.search(condition, PageRequest.of(0, 20)));
+        probes.put("noOffset", r -> r.noOffset(1000L, 20));
+        probes.put("searchByCursor", r -> r.searchByCursor(condition, Sort.by("age"), null, 20));
+        probes.put("useCoveringIndex", r -> r.useCoveringIndex(0, 20));
+        probes.put("noOffsetByUsernameIndex", r -> r.noOffsetByUsernameIndex("member", 1000L, 20));
+        probes.put("useCoveringIndexByUsernameIndex", r -> r.useCoveringIndexByUsernameIndex("member", 0, 20));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void adviseOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        for (QueryPlan plan : analyze()) {
+            if (plan.hasIssues()) {
+                log.warn("{} {}\n  sql: {}\n  plan: {}", plan.getMethod(), plan.getIssues(), plan.getSql(), plan.getPlan());
+            }
+        }
+    }
+
+    public List<QueryPlan> analyze() {
+        List<QueryPlan> plans = new ArrayList<>();
+        probes.forEach((method, probe) -> {
+            Set<String> statements = new LinkedHashSet<>(capture(probe));
+            for (String sql : statements) {
+                plans.add(new QueryPlan(method, sql, explain(sql)));
+            }
+        });
+        return plans;
+    }
+
+    private List<String> capture(Consumer<FinalMemberRepository> probe) {
+        return transactionTemplate.execute(status -> {
+            status.setRollbackOnly();
+            return queryStatistics.captureWithoutRows(() -> probe.accept(repository));
+        });
+    }
+
+    /**
+     * 파라미터를 바인딩하지 않아도 H2 는 PreparedStatement 로 EXPLAIN 할 수 있다. (?1, ?2 로 표시된다)
+     */
+    private String explain(String sql) {
+        return jdbcTemplate.query(
+                connection -> connection.prepareStatement("explain " + sql),
+                rs -> rs.next() ? rs.getString(1) : "");
+    }
+}
@@ -0,0 +1,120 @@
+package me.songha.tutorial.monitoring;
+
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ** 스레드별 SQL / 엔티티 로딩 카운터 **
+ * Hibernate 가 SQL 을 prepare 할 때마다 호출하는 StatementInspector 와 엔티티를 영속성 컨텍스트에 올린 뒤 호출되는
+ * PostLoadEventListener 로 현재 스레드가 실행한 statement 수와 로딩한 엔티티 수를 센다.
+ * JPAQueryFactory 로 만든 쿼리도 결국 Hibernate 를 거치므로 별도로 감쌀 필요 없이 함께 집계된다.
+ *
+ * 카운터는 증가만 하므로 측정하려는 구간의 앞뒤로 snapshot() 을 찍어 차이를 보면 된다. (중첩 호출도 그대로 계산된다)
+ * 배치 insert / update 는 JDBC batch 하나가 statement 하나로 집계된다.
+ *
+ * captureWithoutRows() 는 SQL 만 필요할 때(실행 계획 점검) 사용한다. select 를 행을 읽지 않는 쿼리로 감싸 실행한다.
+ * 그 동안의 조회 결과는 항상 비어 있으므로, 결과를 남기는 캐시는 isCapturingWithoutRows() 이면 캐시를 거치지 않아야 한다.
+ */
+@Component
+public class QueryStatistics implements StatementInspector, PostLoadEventListener {
+
+    private static final ThreadLocal<Counters> COUNTERS = ThreadLocal.withInitial(Counters::new);
+    private static final ThreadLocal<List<String>> CAPTURED = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> WITHOUT_ROWS = new ThreadLocal<>();
+
+    private static class Counters {
+        private long statements;
+        private long entities;
+    }
+
+    public static class Snapshot {
+        private final long statements;
+        private final long entities;
+
+        private Snapshot(long statements, long entities) {
+            this.statements = statements;
+            this.entities = entities;
+        }
+
+        public long statementsSince(Snapshot before) {
+            return statements - before.statements;
+        }
+
+        public long entitiesSince(Snapshot before) {
+            return entities - before.entities;
+        }
+    }
+
+    public Snapshot snapshot() {
+        Counters counters = COUNTERS.get();
+        return new Snapshot(counters.statements, counters.entities);
+    }
+
+    /**
+     * action 을 실행하는 동안 현재 스레드에서 실행된 SQL 을 순서대로 반환한다.
+     */
+    public List<String> capture(Runnable action) {
+        List<String> previous = CAPTURED.get();
+        List<String> captured = new ArrayList<>();
+        CAPTURED.set(captured);
+        try {
+            action.run();
+        } finally {
+            CAPTURED.set(previous);
+        }
+        return captured;
+    }
+
+    /**
+     * capture() 와 같지만 select 는 "select * from (sql) where 1 = 0" 으로 감싸 실행하므로 행을 읽지 않는다.
+     * 반환하는 SQL 은 감싸기 전의 원래 SQL 이다. select 가 아닌 statement 는 그대로 실행되므로 action 에 넣지 않아야 한다.
+     */
+    public List<String> captureWithoutRows(Runnable action) {
+        Boolean previous = WITHOUT_ROWS.get();
+        WITHOUT_ROWS.set(Boolean.TRUE);
+        try {
+            return capture(action);
+        } finally {
+            if (previous == null) {
+                WITHOUT_ROWS.remove();
+            } else {
+                WITHOUT_ROWS.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 현재 스레드가 captureWithoutRows() 안에서 실행 중인지
+     */
+    public boolean isCapturingWithoutRows() {
+        return WITHOUT_ROWS.get() != null;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        COUNTERS.get().statements++;
+        List<String> captured = CAPTURED.get();
+        if (captured != null) {
+            captured.add(sql);
+        }
+        if (isCapturingWithoutRows() && isSelect(sql)) {
+            return "select * from (" + sql + ") without_rows where 1 = 0";
+        }
+        return sql;
+    }
+
+    private static boolean isSelect(String sql) {
+        String trimmed = sql.trim();
+        return trimmed.regionMatches(true, 0, "select", 0, "select".length());
+    }
+
+    @Override
+    public void onPostLoad(PostLoadEvent event) {
+        COUNTERS.get().entities++;
+    }
+}
@@ -0,0 +1,60 @@
+package me.songha.tutorial.monitoring;
+
+import org.hibernate.jpa.QueryHints;
+
+import javax.persistence.Query;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 현재 스레드에서 만드는 쿼리에 걸 statement timeout (ms).
+ * QuerydslConfig 의 JPAQueryFactory 가 쿼리를 만들 때 javax.persistence.query.timeout 힌트로 넣는다.
+ * JPAQueryFactory 를 거치지 않는 쿼리(EntityManager.createQuery, JdbcTemplate)는 apply() 로 직접 건다.
+ * 쿼리를 만든 뒤 직접 setHint 로 timeout 을 건 쿼리(searchAsync 등)는 그 값이 우선한다.
+ *
+ * JDBC 의 statement timeout 은 초 단위이고 Hibernate 도 힌트의 ms 를 초로 내림하므로, 1초 미만은 timeout 이 없는 것과 같다.
+ * 그래서 set() 에는 1초 이상의 값만 넣어야 한다.
+ */
+public final class QueryTimeout {
+
+    private static final ThreadLocal<Integer> MILLIS = new ThreadLocal<>();
+
+    private QueryTimeout() {
+    }
+
+    public static Integer currentMillis() {
+        return MILLIS.get();
+    }
+
+    /**
+     * @return 이전 값. 끝나면 restore() 로 되돌린다.
+     */
+    public static Integer set(Integer millis) {
+        Integer previous = MILLIS.get();
+        restore(millis);
+        return previous;
+    }
+
+    public static <T extends Query> T apply(T query) {
+        Integer millis = MILLIS.get();
+        if (millis != null) {
+            query.setHint(QueryHints.SPEC_HINT_TIMEOUT, millis);
+        }
+        return query;
+    }
+
+    public static void apply(Statement statement) throws SQLException {
+        Integer millis = MILLIS.get();
+        if (millis != null) {
+            statement.setQueryTimeout(millis / 1000);
+        }
+    }
+
+    public static void restore(Integer millis) {
+        if (millis == null) {
+            MILLIS.remove();
+        } else {
+            MILLIS.set(millis);
+        }
+    }
+}
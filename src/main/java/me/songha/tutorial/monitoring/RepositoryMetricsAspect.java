@@ -0,0 +1,175 @@
+package me.songha.tutorial.monitoring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.dto.CursorSlice;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.BaseStream;
+
+/**
+ * ** repository 메서드별 비용 측정 **
+ * FinalMemberRepository 의 public 메서드와 @StatementBudget 이 붙은 메서드 호출마다 아래 메트릭을 남긴다. (tag: class, method)
+ * - repository.query : 실행 시간 (histogram, exception tag 포함)
+ * - repository.query.statements : 실행한 SQL statement 수
+ * - repository.query.entities : 영속성 컨텍스트에 로딩한 엔티티 수
+ * - repository.query.rows : 반환한 결과 건수 (Stream, Future 처럼 호출 시점에 알 수 없는 경우는 제외)
+ *
+ * show-sql 과 달리 SQL 문자열을 다루지 않고 카운터만 증가시키므로 운영 환경에 켜두어도 부담이 적다.
+ */
+@Slf4j
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+
+    private final MeterRegistry meterRegistry;
+    private final QueryStatistics queryStatistics;
+    private final boolean failOnBudgetExceeded;
+    private final Map<Method, MethodMeters> meters = new ConcurrentHashMap<>();
+
+    public RepositoryMetricsAspect(MeterRegistry meterRegistry, QueryStatistics queryStatistics,
+                                   @Value("${app.query-metrics.fail-on-budget-exceeded:false}") boolean failOnBudgetExceeded) {
+        this.meterRegistry = meterRegistry;
+        this.queryStatistics = queryStatistics;
+        this.failOnBudgetExceeded = failOnBudgetExceeded;
+    }
+
+    @Around("execution(public * me.songha.tutorial.repository.FinalMemberRepository.*(..))"
+            + " || @annotation(me.songha.tutorial.monitoring.StatementBudget)")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        MethodMeters methodMeters = meters.computeIfAbsent(method, MethodMeters::new);
+
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+        long start = System.nanoTime();
+        String exception = "none";
+        try {
+            Object result = joinPoint.proceed();
+            methodMeters.recordRows(result);
+            return result;
+        } catch (Throwable e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            QueryStatistics.Snapshot after = queryStatistics.snapshot();
+            long statements = after.statementsSince(before);
+
+            methodMeters.timer(exception).record(elapsed, TimeUnit.NANOSECONDS);
+            methodMeters.statements.record(statements);
+            methodMeters.entities.record(after.entitiesSince(before));
+
+            if ("none".equals(exception)) {
+                checkBudget(methodMeters, statements);
+            }
+        }
+    }
+
+    private void checkBudget(MethodMeters methodMeters, long statements) {
+        if (methodMeters.budget == null || statements <= methodMeters.budget.value()) {
+            return;
+        }
+        methodMeters.budgetExceeded.increment();
+        if (failOnBudgetExceeded) {
+            throw new StatementBudgetExceededException(methodMeters.name, methodMeters.budget.value(), statements);
+        }
+        log.warn("{} executed {} statements, budget is {}", methodMeters.name, statements, methodMeters.budget.value());
+    }
+
+    private class MethodMeters {
+        private final String className;
+        private final String methodName;
+        private final String name;
+        private final StatementBudget budget;
+        private final DistributionSummary statements;
+        private final DistributionSummary entities;
+        private final DistributionSummary rows;
+        private final Counter budgetExceeded;
+        private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+        private MethodMeters(Method method) {
+            this.className = method.getDeclaringClass().getSimpleName();
+            this.methodName = method.getName();
+            this.name = className + "." + methodName;
+            this.budget = method.getAnnotation(StatementBudget.class);
+            this.statements = summary("repository.query.statements");
+            this.entities = summary("repository.query.entities");
+            this.rows = summary("repository.query.rows");
+            this.budgetExceeded = Counter.builder("repository.query.budget.exceeded")
+                    .tag("class", className)
+                    .tag("method", methodName)
+                    .register(meterRegistry);
+        }
+
+        private DistributionSummary summary(String metricName) {
+            return DistributionSummary.builder(metricName)
+                    .tag("class", className)
+                    .tag("method", methodName)
+                    .register(meterRegistry);
+        }
+
+        private Timer timer(String exception) {
+            return timers.computeIfAbsent(exception, e -> Timer.builder("repository.query")
+                    .tag("class", className)
+                    .tag("method", methodName)
+                    .tag("exception", e)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+
+        private void recordRows(Object result) {
+            long count = rowsOf(result);
+            if (count >= 0) {
+                rows.record(count);
+            }
+        }
+    }
+
+    /**
+     * 결과 건수를 알 수 없으면 -1 을 반환한다.
+     */
+    private static long rowsOf(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof Slice) {
+            return ((Slice<?>) result).getNumberOfElements();
+        }
+        if (result instanceof CursorSlice) {
+            return ((CursorSlice<?>) result).getContent().size();
+        }
+        if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
+        }
+        if (result instanceof Optional) {
+            return ((Optional<?>) result).isPresent() ? 1 : 0;
+        }
+        if (result.getClass().isArray()) {
+            return Array.getLength(result);
+        }
+        if (result instanceof BaseStream || result instanceof Future) {
+            return -1;
+        }
+        return 1;
+    }
+}
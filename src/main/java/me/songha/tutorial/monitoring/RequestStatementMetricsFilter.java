@@ -0,0 +1,50 @@
+package me.songha.tutorial.monitoring;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * HTTP 요청 하나를 처리하는 동안 실행한 SQL statement 수와 로딩한 엔티티 수를 남긴다.
+ * - http.server.requests.statements / http.server.requests.entities (tag: method, uri)
+ * uri 는 http.server.requests 와 같이 매핑된 패턴을 사용해서 path variable 마다 메트릭이 늘어나지 않도록 한다.
+ */
+@Component
+@RequiredArgsConstructor
+public class RequestStatementMetricsFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry meterRegistry;
+    private final QueryStatistics queryStatistics;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            QueryStatistics.Snapshot after = queryStatistics.snapshot();
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+
+            summary("http.server.requests.statements", request.getMethod(), uri).record(after.statementsSince(before));
+            summary("http.server.requests.entities", request.getMethod(), uri).record(after.entitiesSince(before));
+        }
+    }
+
+    private DistributionSummary summary(String name, String method, String uri) {
+        return DistributionSummary.builder(name)
+                .tag("method", method)
+                .tag("uri", uri)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,17 @@
+package me.songha.tutorial.monitoring;
+
+import java.lang.annotation.*;
+
+/**
+ * 메서드 한 번 호출에 허용하는 SQL statement 수.
+ * 초과하면 repository.query.budget.exceeded 카운터가 증가하고,
+ * app.query-metrics.fail-on-budget-exceeded=true 인 경우(테스트)에는 StatementBudgetExceededException 이 발생한다.
+ * 조회 결과 건수에 비례해서 statement 가 늘어나는 N+1 을 테스트 단계에서 잡기 위해 사용한다.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface StatementBudget {
+
+    int value();
+}
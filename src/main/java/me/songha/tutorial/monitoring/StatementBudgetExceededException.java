@@ -0,0 +1,18 @@
+package me.songha.tutorial.monitoring;
+
+import lombok.Getter;
+
+@Getter
+public class StatementBudgetExceededException extends IllegalStateException {
+
+    private final String method;
+    private final int budget;
+    private final long statements;
+
+    public StatementBudgetExceededException(String method, int budget, long statements) {
+        super(method + " executed " + statements + " statements, budget is " + budget);
+        this.method = method;
+        this.budget = budget;
+        this.statements = statements;
+    }
+}
@@ -0,0 +1,71 @@
+package me.songha.tutorial.monitoring;
+
+/**
+ * ** TCP Vegas 방식의 동시 실행 한도 **
+ * 부하가 없을 때의 응답 시간(가장 짧은 rtt)과 방금 끝난 호출의 응답 시간을 비교해 DB 앞에 쌓인 대기열 길이를 추정한다.
+ *   queue = limit * (1 - rttNoLoad / rtt)
+ * 대기열이 alpha(3 * log10(limit)) 이하면 한도를 늘리고, beta(6 * log10(limit)) 이상이면 줄인다.
+ * 한도의 절반도 쓰지 않고 있을 때는 응답 시간이 짧아도 한도를 늘리지 않는다.
+ * timeout 으로 실패한 호출이 있으면 대기열 추정과 상관없이 backoffRatio 를 곱해 줄인다.
+ *
+ * 데이터나 실행 계획이 바뀌면 부하가 없을 때의 응답 시간도 달라지므로 probeInterval 번마다 다시 잰다.
+ */
+public class VegasLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final int probeInterval;
+
+    private volatile int limit;
+    private long rttNoLoad;
+    private long samples;
+
+    public VegasLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, int probeInterval) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("1 <= minLimit <= maxLimit 이어야 합니다. minLimit=" + minLimit + ", maxLimit=" + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.probeInterval = Math.max(probeInterval, 1);
+        this.limit = clamp(initialLimit);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param rttNanos 호출 한 건의 실행 시간
+     * @param inflight 호출이 끝나기 직전의 동시 실행 수
+     * @param dropped  timeout 으로 실패했는지
+     * @return 바뀐 한도
+     */
+    public synchronized int onSample(long rttNanos, int inflight, boolean dropped) {
+        if (dropped) {
+            limit = clamp((int) (limit * backoffRatio));
+            return limit;
+        }
+        if (rttNanos <= 0) {
+            return limit;
+        }
+        if (rttNoLoad == 0 || rttNanos < rttNoLoad || ++samples % probeInterval == 0) {
+            rttNoLoad = rttNanos;
+            return limit;
+        }
+
+        double log = Math.max(1, Math.log10(limit));
+        double queue = limit * (1 - (double) rttNoLoad / rttNanos);
+        if (queue >= 6 * log) {
+            limit = clamp(limit - (int) Math.ceil(log));
+        } else if (queue <= 3 * log && inflight * 2 >= limit) {
+            limit = clamp(limit + (int) Math.ceil(log));
+        }
+        return limit;
+    }
+
+    private int clamp(int value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -0,0 +1,428 @@
+package me.songha.tutorial.repository;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.config.SnapshotProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * ** Member / Team 스냅샷 **
+ * ddl-auto=create 로 매번 빈 스키마에서 시작하는 환경에서, 기준 데이터를 JPA 로 다시 적재하지 않고
+ * 이전에 저장해둔 바이너리 파일을 그대로 insert 해서 시작 시간을 줄인다.
+ *
+ * 파일 구조 (big endian)
+ *  - header : magic(int) / FORMAT_VERSION(int) / 스키마 fingerprint(long) / team 건수(long) / member 건수(long)
+ *  - team   : team_id(long) / name(string) / leader member_id(long)
+ *  - member : member_id(long) / username(string) / age(int) / team_id(long)
+ *  string 은 UTF-8 byte 길이(int, null 이면 -1) + byte, null id 는 Long.MIN_VALUE 로 저장한다.
+ *
+ * 스키마 fingerprint 는 Hibernate 매핑(테이블, 컬럼, 타입)으로 계산하므로 엔티티가 바뀐 뒤의 오래된 스냅샷은 적재하지 않는다.
+ * 적재는 파일을 memory-mapped 로 읽어 batchSize 건씩 JDBC batch insert 하고 커밋하며,
+ * team.member_id(leader) 는 member 를 모두 넣은 뒤에 채운다. 적재 전에 header 의 건수를 파일 길이와 비교하고,
+ * 중간에 실패하면(잘린 파일, 제약 조건 위반 등) 이미 커밋한 행을 지워 빈 상태로 되돌린다. 끝나면 시퀀스를 최대 id + allocationSize 부터 다시 시작하고
+ * BulkChangeEvent 를 발행해 메모리에 유지하는 캐시 / 인덱스가 다시 만들어지도록 한다.
+ *
+ * app.snapshot.restore-on-startup 이면 ApplicationRunner 로 적재하므로 ApplicationReadyEvent(readiness) 전에 끝난다.
+ * 적재에 실패하면 경고만 남기고 빈 상태로 시작한다.
+ */
+@Slf4j
+@Component
+public class DataSnapshot implements ApplicationRunner {
+
+    private static final int MAGIC = 0x4D534E50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_COUNTS_OFFSET = 16;
+    private static final long NULL_ID = Long.MIN_VALUE;
+    /** name 이 null 인 team 한 건의 크기 */
+    private static final int MIN_TEAM_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES;
+    /** username 이 null 인 member 한 건의 크기 */
+    private static final int MIN_MEMBER_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int SEQUENCE_ALLOCATION_SIZE = 50;
+
+    @Getter
+    @ToString
+    public static class Result {
+        private final long teams;
+        private final long members;
+
+        public Result(long teams, long members) {
+            this.teams = teams;
+            this.members = members;
+        }
+    }
+
+    private final SnapshotProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long schemaFingerprint;
+
+    public DataSnapshot(SnapshotProperties properties, JdbcTemplate jdbcTemplate,
+                        PlatformTransactionManager transactionManager, EntityManagerFactory entityManagerFactory,
+                        ApplicationEventPublisher eventPublisher) {
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.eventPublisher = eventPublisher;
+        this.schemaFingerprint = schemaFingerprint(entityManagerFactory.unwrap(SessionFactoryImplementor.class));
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!properties.isRestoreOnStartup()) {
+            return;
+        }
+        Path path = properties.getPath();
+        if (!Files.exists(path)) {
+            log.info("스냅샷 파일이 없어 빈 상태로 시작합니다. path={}", path);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            Result result = restore(path);
+            log.info("스냅샷 적재 완료 : {} ({} ms)", result, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            log.warn("스냅샷을 적재하지 않습니다. path={}", path, e);
+        }
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    public void dumpOnShutdown() {
+        if (!properties.isDumpOnShutdown()) {
+            return;
+        }
+        try {
+            log.info("스냅샷 저장 완료 : {}", dump(properties.getPath()));
+        } catch (IOException | RuntimeException e) {
+            log.warn("스냅샷을 저장하지 못했습니다. path={}", properties.getPath(), e);
+        }
+    }
+
+    /**
+     * 같은 디렉터리의 임시 파일에 쓴 뒤 교체하므로, 저장 중에 실패해도 기존 스냅샷은 그대로 남는다.
+     */
+    public Result dump(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+
+        try {
+            long[] counts = new long[2];
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(schemaFingerprint);
+                out.writeLong(0);
+                out.writeLong(0);
+
+                readOnlyTransaction.executeWithoutResult(status -> {
+                    counts[0] = stream("select team_id, name, member_id from team order by team_id", rs -> {
+                        writeId(out, rs, 1);
+                        writeString(out, rs.getString(2));
+                        writeId(out, rs, 3);
+                    });
+                    counts[1] = stream("select member_id, username, age, team_id from member order by member_id", rs -> {
+                        writeId(out, rs, 1);
+                        writeString(out, rs.getString(2));
+                        out.writeInt(rs.getInt(3));
+                        writeId(out, rs, 4);
+                    });
+                });
+            }
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(Long.BYTES * 2).putLong(counts[0]).putLong(counts[1]);
+                header.flip();
+                channel.write(header, HEADER_COUNTS_OFFSET);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(counts[0], counts[1]);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * member / team 테이블이 비어 있어야 한다. 스냅샷의 스키마가 현재 매핑과 다르거나 파일이 잘렸으면 IllegalStateException 이 발생한다.
+     * 적재 중에 실패하면 넣은 행을 모두 지운 뒤 예외를 던진다.
+     */
+    public Result restore(Path path) throws IOException {
+        boolean modified = false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("2GB 를 넘는 스냅샷은 지원하지 않습니다. size=" + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("스냅샷 파일이 아닙니다. path=" + path);
+            }
+            int version = buffer.getInt();
+            long fingerprint = buffer.getLong();
+            if (version != FORMAT_VERSION || fingerprint != schemaFingerprint) {
+                throw new IllegalStateException(String.format(
+                        "스냅샷의 스키마가 현재와 다릅니다. version=%d, fingerprint=%x (현재 %d, %x)",
+                        version, fingerprint, FORMAT_VERSION, schemaFingerprint));
+            }
+            long teamCount = buffer.getLong();
+            long members = buffer.getLong();
+            if (teamCount < 0 || members < 0
+                    || teamCount > buffer.remaining() / MIN_TEAM_BYTES
+                    || members > (buffer.remaining() - teamCount * MIN_TEAM_BYTES) / MIN_MEMBER_BYTES) {
+                throw new IllegalStateException(String.format(
+                        "스냅샷 파일이 잘렸거나 header 가 잘못되었습니다. team=%d, member=%d, size=%d", teamCount, members, channel.size()));
+            }
+            int teams = (int) teamCount;
+            ensureEmpty();
+            modified = true;
+
+            try {
+                restoreRows(buffer, teams, members);
+            } catch (RuntimeException e) {
+                deleteRestoredRows(e);
+                if (e instanceof BufferUnderflowException) {
+                    throw new IllegalStateException("스냅샷 파일이 잘렸습니다. path=" + path, e);
+                }
+                throw e;
+            }
+        } finally {
+            if (modified) {
+                eventPublisher.publishEvent(new BulkChangeEvent(Team.class));
+                eventPublisher.publishEvent(new BulkChangeEvent(Member.class));
+            }
+        }
+        return new Result(count("team"), count("member"));
+    }
+
+    private void restoreRows(ByteBuffer buffer, int teams, long members) {
+        long[] teamIds = new long[teams];
+        long[] leaderIds = new long[teams];
+        long maxTeamId = insert("insert into team (team_id, name, member_id) values (?, ?, null)", teams, (ps, i) -> {
+            teamIds[i] = buffer.getLong();
+            ps.setLong(1, teamIds[i]);
+            ps.setString(2, readString(buffer));
+            leaderIds[i] = buffer.getLong();
+            return teamIds[i];
+        });
+        long maxMemberId = insert("insert into member (member_id, username, age, team_id) values (?, ?, ?, ?)", members, (ps, i) -> {
+            long id = buffer.getLong();
+            ps.setLong(1, id);
+            ps.setString(2, readString(buffer));
+            ps.setInt(3, buffer.getInt());
+            setId(ps, 4, buffer.getLong());
+            return id;
+        });
+        if (buffer.hasRemaining()) {
+            throw new IllegalStateException("스냅샷 파일의 header 건수보다 데이터가 많습니다. 남은 byte=" + buffer.remaining());
+        }
+        linkLeaders(teamIds, leaderIds);
+
+        restartSequence("team_seq", maxTeamId);
+        restartSequence("member_seq", maxMemberId);
+    }
+
+    /**
+     * insert 는 batchSize 건씩 커밋하므로 실패하면 그때까지 넣은 행이 남는다. 적재 전에 테이블이 비어 있었으므로 모두 지운다.
+     */
+    private void deleteRestoredRows(RuntimeException cause) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update("update team set member_id = null");
+                jdbcTemplate.update("delete from member");
+                jdbcTemplate.update("delete from team");
+            });
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(ResultSet rs) throws SQLException, IOException;
+    }
+
+    @FunctionalInterface
+    private interface RowBinder {
+        /**
+         * @return 바인딩한 행의 id
+         */
+        long bind(PreparedStatement ps, int index) throws SQLException;
+    }
+
+    private long stream(String sql, RowWriter writer) {
+        long[] rows = new long[1];
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(properties.getBatchSize());
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                writer.write(rs);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows[0]++;
+        });
+        return rows[0];
+    }
+
+    /**
+     * batchSize 건씩 batch insert 하고 커밋한다. binder 는 호출될 때마다 버퍼에서 다음 행을 읽는다.
+     * @return 가장 큰 id
+     */
+    private long insert(String sql, long rows, RowBinder binder) {
+        long[] maxId = {0};
+        for (long done = 0; done < rows; ) {
+            int size = (int) Math.min(properties.getBatchSize(), rows - done);
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    maxId[0] = Math.max(maxId[0], binder.bind(ps, i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return size;
+                }
+            }));
+            done += size;
+        }
+        return maxId[0];
+    }
+
+    private void linkLeaders(long[] teamIds, long[] leaderIds) {
+        int[] withLeader = IntStream.range(0, teamIds.length)
+                .filter(i -> leaderIds[i] != NULL_ID)
+                .toArray();
+        for (int from = 0; from < withLeader.length; from += properties.getBatchSize()) {
+            int[] chunk = Arrays.copyOfRange(withLeader, from, Math.min(from + properties.getBatchSize(), withLeader.length));
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                    "update team set member_id = ? where team_id = ?", new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            ps.setLong(1, leaderIds[chunk[i]]);
+                            ps.setLong(2, teamIds[chunk[i]]);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return chunk.length;
+                        }
+                    }));
+        }
+    }
+
+    private void ensureEmpty() {
+        if (count("team") > 0 || count("member") > 0) {
+            throw new IllegalStateException("member / team 테이블이 비어있을 때만 스냅샷을 적재할 수 있습니다.");
+        }
+    }
+
+    private long count(String table) {
+        Long count = jdbcTemplate.queryForObject("select count(*) from " + table, Long.class);
+        return count != null ? count : 0L;
+    }
+
+    /**
+     * pooled 시퀀스 값 s 는 (s - allocationSize, s] 구간의 id 를 의미하므로 maxId + allocationSize 부터 시작해야 겹치지 않는다.
+     */
+    private void restartSequence(String sequence, long maxId) {
+        jdbcTemplate.execute("alter sequence " + sequence + " restart with " + (maxId + SEQUENCE_ALLOCATION_SIZE));
+    }
+
+    private static void writeId(DataOutputStream out, ResultSet rs, int column) throws SQLException, IOException {
+        long id = rs.getLong(column);
+        out.writeLong(rs.wasNull() ? NULL_ID : id);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void setId(PreparedStatement ps, int index, long id) throws SQLException {
+        if (id == NULL_ID) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, id);
+        }
+    }
+
+    /**
+     * Team / Member 의 테이블, 컬럼, 타입 매핑으로 계산한다. 매핑이 같으면 실행할 때마다 같은 값이 나온다.
+     */
+    private static long schemaFingerprint(SessionFactoryImplementor sessionFactory) {
+        StringBuilder schema = new StringBuilder().append(FORMAT_VERSION);
+        for (Class<?> entity : new Class<?>[]{Team.class, Member.class}) {
+            AbstractEntityPersister persister = (AbstractEntityPersister) sessionFactory.getMetamodel().entityPersister(entity);
+            schema.append('|').append(persister.getTableName())
+                    .append(Arrays.toString(persister.getIdentifierColumnNames()));
+            String[] properties = persister.getPropertyNames();
+            for (int i = 0; i < properties.length; i++) {
+                schema.append(';').append(properties[i])
+                        .append(Arrays.toString(persister.getPropertyColumnNames(properties[i])))
+                        .append(':').append(persister.getPropertyTypes()[i].getName());
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(schema.toString().getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
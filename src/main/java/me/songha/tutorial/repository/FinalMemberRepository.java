@@ -1,21 +1,52 @@
 package me.songha.tutorial.repository;
 
 import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.Tuple;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.jpa.impl.JPAQuery;
 import com.querydsl.jpa.impl.JPAQueryFactory;
 import lombok.RequiredArgsConstructor;
 import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
 import me.songha.tutorial.dto.*;
+import me.songha.tutorial.monitoring.StatementBudget;
+import me.songha.tutorial.repository.support.MemberIdFilter;
+import me.songha.tutorial.repository.support.MemberCountCache;
+import me.songha.tutorial.repository.support.MemberKeyset;
+import me.songha.tutorial.repository.support.MemberSearchTemplates;
+import me.songha.tutorial.repository.support.MemberWriteBehind;
 import me.songha.tutorial.repository.support.OrderByNull;
+import me.songha.tutorial.repository.support.ParallelPageExecutor;
+import me.songha.tutorial.repository.support.PrimitiveColumns;
+import me.songha.tutorial.repository.support.SearchResultCache;
+import me.songha.tutorial.repository.support.TeamAgeStatsView;
+import me.songha.tutorial.repository.support.TeamBatchLoader;
+import me.songha.tutorial.repository.support.TeamCache;
+import me.songha.tutorial.repository.support.UsernameIndex;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static me.songha.tutorial.domain.QMember.member;
 import static me.songha.tutorial.domain.QTeam.team;
@@ -23,11 +54,31 @@ import static org.springframework.util.StringUtils.hasText;
 
 /**
  * extends 하지 않고 bean 등록된 JPAQueryFactory 를 생성자 주입하는 방법
+ *
+ * 조회 메서드는 읽기 전용 트랜잭션으로 실행한다. Hibernate 는 flush 를 하지 않고 조회한 엔티티의 스냅샷도 만들지 않으며,
+ * 라우팅 DataSource 를 사용하면(app.datasource.routing.enabled) replica 로 연결된다.
  */
 @Repository
+@Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class FinalMemberRepository {
+    public static final int ID_CHUNK_SIZE = 512;
+
     private final JPAQueryFactory queryFactory;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MemberCountCache countCache;
+    private final MemberBulkModifier bulkModifier;
+    private final MemberSearchTemplates searchTemplates;
+    private final TeamCache teamCache;
+    private final TeamBatchLoader teamBatchLoader;
+    private final ParallelPageExecutor parallelPageExecutor;
+    private final TeamAgeStatsView teamAgeStatsView;
+    private final UsernameIndex usernameIndex;
+    private final MemberIdFilter memberIdFilter;
+    private final SearchResultCache searchResultCache;
+    private final PrimitiveColumns primitiveColumns;
+    /** app.write-behind.enabled=true 일 때만 있다. */
+    private final ObjectProvider<MemberWriteBehind> writeBehind;
 
     /**
      * selectFrom()은 select 절 컬럼이 명시되어있지 않아 모든 컬럼을 조회하는 단점이 있다.
@@ -38,6 +89,19 @@ public class FinalMemberRepository {
                 .fetch();
     }
 
+    /**
+     * fetch() 는 결과 전체를 List 로 만들고 영속성 컨택스트에도 모두 올려두기 때문에 대량 조회 시 메모리가 부족해질 수 있다.
+     * stream() 은 forward-only 커서로 fetchSize 만큼씩 읽어오므로, 사용하는 쪽에서 다 쓴 엔티티를 detach 해주면 메모리가 일정하게 유지된다.
+     * 커서가 열려있는 동안 커넥션이 필요하므로 트랜잭션 안에서 호출하고, 사용 후에는 반드시 close 해야 한다.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<Member> streamMembers(int fetchSize) {
+        return queryFactory
+                .selectFrom(member)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .stream();
+    }
+
     /** ============================================================================================================ */
 
     /**
@@ -45,6 +109,7 @@ public class FinalMemberRepository {
      * 이를 이용하면 엄청나게 많은 양의 데이터에 대해서 업데이트 쿼리가 나갈수도 있다.
      * 이렇게하면 일괄 Update 하는 것보다 확실히 성능이 낮다.
      */
+    @Transactional
     public void dirtyChecking() {
         List<Member> result = queryFactory
                 .selectFrom(member)
@@ -58,13 +123,28 @@ public class FinalMemberRepository {
     /**
      * 주의해야할 점은 영속성 컨택스트의 1차 캐시 갱신이 안된다.
      * DB의 업데이트 작업만 필요할 경우 사용하는 것이 좋다.
+     * 엔티티 이벤트도 발생하지 않으므로 캐시들이 변경을 알 수 있도록 BulkChangeEvent 를 직접 발행한다.
      */
+    @Transactional
     public void batchUpdate() {
         String test = "test";
         queryFactory
                 .update(member)
                 .set(member.username, test)
                 .execute();
+
+        eventPublisher.publishEvent(new BulkChangeEvent(Member.class, true));
+    }
+
+    /**
+     * dirtyChecking() 과 같은 결과(username + "+")를 엔티티를 조회하지 않고 id 구간별 벌크 update 로 만든다.
+     * 구간마다 커밋하므로 lock 을 짧게 잡고, 진행 상황은 listener 로 전달된다.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public BulkModifyProgress chunkedUpdate(long chunkSize, Consumer<BulkModifyProgress> listener) {
+        return bulkModifier.modify(null,
+                update -> update.set(member.username, member.username.concat("+")),
+                chunkSize, listener);
     }
 
     /** ============================================================================================================ */
@@ -72,6 +152,7 @@ public class FinalMemberRepository {
     /**
      * BooleanBuilder 를 사용해 where 절을 만드는 방법은 직관적이지 않다.
      */
+    @StatementBudget(1)
     public List<MemberTeamDto> searchByBuilder(MemberSearchCondition condition) {
         BooleanBuilder builder = new BooleanBuilder();
 
@@ -91,7 +172,7 @@ public class FinalMemberRepository {
             builder.and(member.age.loe(condition.getAgeLoe()));
         }
 
-        return queryFactory
+        return withPendingWrites(queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.username,
@@ -101,14 +182,16 @@ public class FinalMemberRepository {
                 .from(member)
                 .leftJoin(member.team, team)
                 .where(builder)
-                .fetch();
+                .fetch());
     }
 
     /**
      * BooleanExpression 를 사용하여 where 절을 좀 더 직관적으로 표현할 수 있다.
+     * 같은 조건의 반복 조회는 SearchResultCache 가 답하며, 결과 리스트는 수정할 수 없다.
      */
+    @StatementBudget(1)
     public List<MemberTeamDto> searchByWhere(MemberSearchCondition condition) {
-        return queryFactory
+        return withPendingWrites(searchResultCache.get(condition, () -> queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.username,
@@ -124,15 +207,133 @@ public class FinalMemberRepository {
                         ageGoe(condition.getAgeGoe()),
                         ageLoe(condition.getAgeLoe())
                 )
+                .fetch()));
+    }
+
+    /**
+     * searchByWhere() 와 결과는 같지만, 채워진 조건의 조합별로 미리 만들어둔 JPQL 에 값만 바인딩해서 실행한다.
+     * 호출마다 Querydsl 표현식을 만들고 JPQL 로 직렬화하는 비용이 없어 호출이 잦은 검색에 유리하다.
+     */
+    @StatementBudget(1)
+    public List<MemberTeamDto> searchByTemplate(MemberSearchCondition condition) {
+        return withPendingWrites(searchTemplates.search(condition));
+    }
+
+    /**
+     * team 조인은 team.name 으로 필터링하거나 team.name 을 가져오기 위해서만 필요하다.
+     * TeamCache 로 teamName 을 team_id 조건으로 바꾸고, 조회 후에 teamName 을 채워넣으면 조인 없이 member 테이블만 읽는다.
+     * member.team.id 는 member 테이블의 FK 컬럼이므로 조인이 생기지 않는다.
+     */
+    @StatementBudget(2)
+    public List<MemberTeamDto> searchWithoutJoin(MemberSearchCondition condition) {
+        if (!teamCache.isComplete()) {
+            return searchByWhere(condition);
+        }
+
+        List<Tuple> rows = queryFactory
+                .select(member.id, member.username, member.age, member.team.id)
+                .from(member)
+                .where(
+                        usernameEq(condition.getUsername()),
+                        teamIdIn(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe())
+                )
                 .fetch();
+
+        List<MemberTeamDto> result = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            Long teamId = row.get(member.team.id);
+            result.add(new MemberTeamDto(
+                    row.get(member.id),
+                    row.get(member.username),
+                    row.get(member.age),
+                    teamId,
+                    teamCache.nameOf(teamId)));
+        }
+        return withPendingWrites(result);
+    }
+
+    /**
+     * searchByWhere() 와 같은 조건을 forward-only 커서로 읽는다. dto 조회라 영속성 컨택스트에는 아무것도 남지 않는다.
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<MemberTeamDto> streamByWhere(MemberSearchCondition condition, int fetchSize) {
+        return queryFactory
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")
+                ))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(
+                        usernameEq(condition.getUsername()),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe())
+                )
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+                .stream()
+                .map(this::withPendingWrites);
+    }
+
+    /**
+     * write-behind 를 사용하면 이 노드에서 아직 반영되지 않은 username / age 변경을 조회 결과에 덮어쓴다. (검색 조건은 DB 의 값으로 비교한다)
+     */
+    private List<MemberTeamDto> withPendingWrites(List<MemberTeamDto> rows) {
+        MemberWriteBehind pending = writeBehind.getIfAvailable();
+        return pending != null ? pending.overlay(rows) : rows;
+    }
+
+    private MemberTeamDto withPendingWrites(MemberTeamDto row) {
+        MemberWriteBehind pending = writeBehind.getIfAvailable();
+        return pending != null ? pending.overlay(row) : row;
     }
 
     private BooleanExpression usernameEq(String username) {
         return hasText(username) ? member.username.eq(username) : null;
     }
 
+    /**
+     * TeamCache 를 사용할 수 있으면 조인한 team.name 대신 member 테이블의 team_id(FK) 로 비교한다.
+     * 사용할 수 없으면 조인한 team 의 이름으로 비교한다.
+     */
     private BooleanExpression teamNameEq(String teamName) {
-        return hasText(teamName) ? team.name.eq(teamName) : null;
+        if (!hasText(teamName)) {
+            return null;
+        }
+        return cachedTeamIds(teamName).map(this::inTeams).orElseGet(() -> team.name.eq(teamName));
+    }
+
+    /**
+     * team 을 조인하지 않는 조회용. TeamCache 를 사용할 수 없으면 member.team.name 으로 비교한다. (inner join 이 추가된다)
+     */
+    private BooleanExpression teamIdIn(String teamName) {
+        if (!hasText(teamName)) {
+            return null;
+        }
+        return cachedTeamIds(teamName).map(this::inTeams).orElseGet(() -> member.team.name.eq(teamName));
+    }
+
+    /**
+     * 팀 이름은 unique 가 아니므로 in 조건을 사용하고, 해당 이름의 팀이 없으면 아무 행도 나오지 않는 조건을 반환한다.
+     */
+    private BooleanExpression inTeams(List<Long> teamIds) {
+        return teamIds.isEmpty() ? member.id.isNull() : member.team.id.in(teamIds);
+    }
+
+    /**
+     * TeamCache 는 커밋된 변경만 따라오므로, 쓰기 트랜잭션 안에서는 그 트랜잭션의 팀 변경이 보이도록 사용하지 않는다.
+     */
+    private Optional<List<Long>> cachedTeamIds(String teamName) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return Optional.empty();
+        }
+        return teamCache.findIdsOf(teamName);
     }
 
     private BooleanExpression ageGoe(Integer ageGoe) {
@@ -162,11 +363,29 @@ public class FinalMemberRepository {
                 .fetch();
     }
 
+    /**
+     * useOrderByNull() 과 같은 팀별 집계(회원 수, 나이 합계 / 최소 / 최대)를 매번 group by 하지 않고
+     * 변경 이벤트로 갱신되는 TeamAgeStatsView 에서 가져온다. 조회 비용은 회원 수가 아닌 팀 수에 비례한다.
+     */
+    public List<TeamAgeStats> teamAgeStats() {
+        return teamAgeStatsView.findAll();
+    }
+
+    /**
+     * useOrderByNull() 과 같은 팀별 나이 합계를 Integer 리스트 대신 long[] 로 읽는다.
+     * (sum 은 DB 에서 bigint 이므로 long 으로 읽는다)
+     */
+    public long[] useOrderByNullPrimitive() {
+        return primitiveColumns.longs(
+                "select sum(m.age) from member m inner join team t on t.team_id = m.team_id group by m.team_id", 0);
+    }
+
     /** ============================================================================================================ */
 
     /**
      * select 절에 entity 를 불러올 경우 모든 컬럼을 조회할 수 있으니 주의가 필요하다.
      */
+    @StatementBudget(1)
     public List<MemberTeamDto2> entityInSelect(Long teamId) {
         return queryFactory
                 .select(new QMemberTeamDto2(
@@ -180,14 +399,53 @@ public class FinalMemberRepository {
                 .fetch();
     }
 
+    /**
+     * entity 대신 team_id 만 조회하고, 참조된 Team 은 중복을 제거해 IN 쿼리로 한 번에 읽어서 붙인다.
+     * member.team.id 는 member 테이블의 FK 컬럼이므로 조인도 필요 없다.
+     */
+    @StatementBudget(2)
+    public List<MemberTeamDto2> entityInSelectBatched(Long teamId) {
+        return teamBatchLoader.attachTeams(queryFactory
+                .select(new QMemberTeamDto2(
+                        member.id,
+                        member.username,
+                        member.age,
+                        member.team.id))
+                .from(member)
+                .where(member.team.id.eq(teamId))
+                .fetch());
+    }
+
+    /**
+     * 검색 결과가 여러 팀에 걸쳐 있는 경우에도 팀 수 / Team.BATCH_SIZE 번의 쿼리로 Team 을 채운다.
+     */
+    public List<MemberTeamDto2> searchWithTeams(MemberSearchCondition condition) {
+        return teamBatchLoader.attachTeams(queryFactory
+                .select(new QMemberTeamDto2(
+                        member.id,
+                        member.username,
+                        member.age,
+                        member.team.id))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(
+                        usernameEq(condition.getUsername()),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe())
+                )
+                .fetch());
+    }
+
     /** ============================================================================================================ */
 
     /**
      * teamId는 이미 기존에 매개변수로 받았으니 데이터베이스에서 가져올 필요는 없다.
      * 중복된 컬럼은 가져오지 않도록 해서 성능상에서 약간의 이득을 더 볼 수 있다.
      */
+    @StatementBudget(1)
     public List<MemberTeamDto> findSameTeamMember(Long teamId) {
-        return queryFactory.select(new QMemberTeamDto(
+        return withPendingWrites(queryFactory.select(new QMemberTeamDto(
                         member.id,
                         member.username,
                         member.age,
@@ -195,7 +453,7 @@ public class FinalMemberRepository {
                         team.name)).from(member)
                 .innerJoin(member.team, team)
                 .where(member.team.id.eq(teamId))
-                .fetch();
+                .fetch());
     }
 
     /** ============================================================================================================ */
@@ -227,27 +485,94 @@ public class FinalMemberRepository {
     /**
      * 값 존재 유무를 확인하고 싶을 땐, count 를 사용하는 것 보단 fetchFirst() 를 사용하는 것이 성능 상 유리하다.
      * count는 전체 행을 조회하기 때문에, 필요한 값이 조회되면 바로 반환하는 limit 1 과 같은 fetchFirst() 를 사용하자.
+     * 없는 id 는 MemberIdFilter 가 메모리에서 바로 답하므로 쿼리가 나가지 않는다.
+     * 쓰기 트랜잭션 안에서 호출하면 그 트랜잭션에서 저장한 행도 보이도록 항상 DB 에 확인한다.
      */
+    @StatementBudget(1)
     public Boolean exist(Long memberId) {
+        if (!memberIdFilter.mightContain(memberId)) {
+            return false;
+        }
+
         Integer fetchOne = queryFactory
                 .selectOne()
                 .from(member)
                 .where(member.id.eq(memberId))
                 .fetchFirst();
 
+        memberIdFilter.confirm(memberId, fetchOne != null);
         return fetchOne != null;
     }
 
     /** ============================================================================================================ */
 
+    /**
+     * id 마다 em.find() 를 호출하면 id 수만큼 쿼리가 나가므로 ID_CHUNK_SIZE 개씩 묶어 IN 쿼리로 조회한다.
+     * IN 절 파라미터 수가 매번 다르면 DB 가 파라미터 수마다 실행 계획을 따로 만들기 때문에
+     * hibernate.query.in_clause_parameter_padding 으로 2의 거듭제곱 개까지 마지막 id 를 반복해 채운다. (ID_CHUNK_SIZE 도 2의 거듭제곱)
+     *
+     * 결과는 입력 순서를 따르며, null / 중복 id 는 한 번만 조회하고 없는 id 는 결과에서 빠진다.
+     */
+    public List<Member> findByIds(Collection<Long> memberIds) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(memberIds));
+        distinctIds.removeIf(Objects::isNull);
+
+        Map<Long, Member> found = new HashMap<>(distinctIds.size() * 2);
+        for (int from = 0; from < distinctIds.size(); from += ID_CHUNK_SIZE) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + ID_CHUNK_SIZE, distinctIds.size()));
+            for (Member loaded : queryFactory.selectFrom(member).where(member.id.in(chunk)).fetch()) {
+                found.put(loaded.getId(), loaded);
+            }
+        }
+
+        List<Member> ordered = new ArrayList<>(found.size());
+        for (Long memberId : distinctIds) {
+            Member loaded = found.get(memberId);
+            if (loaded != null) {
+                ordered.add(loaded);
+            }
+        }
+        return ordered;
+    }
+
+    /** ============================================================================================================ */
+
     /**
      * offset 을 이용하면 offset + limit 만큼의 데이터를 읽어야 한다.
      * 이와 같은 형태는 페이지 번호가 뒤로 갈수록 앞에서 읽었던 행을 다시 읽어야 한다.
      * 이 말은 offset이 10000이고 limit가 20이라면 10,020 행을 읽어야 한다는 것이고 그러고 나서 10,000 개의 행을 버리는 것이다.
      * 그렇기 때문에 성능 상에 안좋다는 점인데 No Offset 방식은 시작 지점을 인덱스로 빠르게 찾아 첫 페이지부터 읽도록 하는 방식이다.
+     * 전체 건수는 조건별로 MemberCountCache 에 캐시해 데이터가 바뀌지 않은 동안 count 쿼리를 다시 실행하지 않는다.
      */
+    @StatementBudget(2)
     public Page<MemberTeamDto> search(MemberSearchCondition condition, Pageable pageable) {
-        List<MemberTeamDto> content = queryFactory
+        List<MemberTeamDto> content = withPendingWrites(searchContentQuery(condition, pageable).fetch());
+        JPAQuery<Member> countQuery = searchCountQuery(condition);
+
+        return PageableExecutionUtils.getPage(content, pageable,
+                () -> countCache.count(condition, countQuery::fetchCount));
+    }
+
+    /**
+     * search() 는 content 쿼리가 끝난 뒤에 count 쿼리를 실행하므로 응답 시간이 두 쿼리의 합이 된다.
+     * 두 쿼리를 ParallelPageExecutor 에서 각자의 읽기 전용 트랜잭션으로 동시에 실행해 느린 쪽의 시간만 기다리도록 한다.
+     * 호출한 스레드의 트랜잭션에는 참여하지 않는다.
+     * 조건이 많아 두 쿼리 모두 무거운 뒤쪽 페이지일수록 효과가 크며, 각 쿼리에는 페이지 timeout 과 같은 statement timeout 을 건다.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CompletableFuture<Page<MemberTeamDto>> searchAsync(MemberSearchCondition condition, Pageable pageable) {
+        int timeoutMillis = parallelPageExecutor.getTimeoutMillis();
+        JPAQuery<MemberTeamDto> contentQuery = searchContentQuery(condition, pageable)
+                .setHint(QueryHints.SPEC_HINT_TIMEOUT, timeoutMillis);
+        JPAQuery<Member> countQuery = searchCountQuery(condition)
+                .setHint(QueryHints.SPEC_HINT_TIMEOUT, timeoutMillis);
+
+        return parallelPageExecutor.page(pageable, () -> withPendingWrites(contentQuery.fetch()),
+                () -> countCache.count(condition, countQuery::fetchCount));
+    }
+
+    private JPAQuery<MemberTeamDto> searchContentQuery(MemberSearchCondition condition, Pageable pageable) {
+        return queryFactory
                 .select(new QMemberTeamDto(
                         member.id.as("memberId"),
                         member.username,
@@ -261,23 +586,23 @@ public class FinalMemberRepository {
                         ageGoe(condition.getAgeGoe()),
                         ageLoe(condition.getAgeLoe()))
                 .offset(pageable.getOffset())
-                .limit(pageable.getPageSize())
-                .fetch();
+                .limit(pageable.getPageSize());
+    }
 
-        JPAQuery<Member> countQuery = queryFactory
+    private JPAQuery<Member> searchCountQuery(MemberSearchCondition condition) {
+        return queryFactory
                 .selectFrom(member)
                 .leftJoin(member.team, team)
                 .where(usernameEq(condition.getUsername()),
                         teamNameEq(condition.getTeamName()),
                         ageGoe(condition.getAgeGoe()),
                         ageLoe(condition.getAgeLoe()));
-
-        return PageableExecutionUtils.getPage(content, pageable, countQuery::fetchCount);
     }
 
     /**
      * 이전에 조회된 결과를 한번에 건너뛸 수 있게 마지막 조회 결과의 ID 를 조건문에 사용하는 방식을 이용한다.
      */
+    @StatementBudget(1)
     public List<MemberDto> noOffset(Long lastMemberId, int limit) {
         return queryFactory.select(
                         new QMemberDto(
@@ -295,6 +620,55 @@ public class FinalMemberRepository {
         return lastMemberId != null ? member.id.lt(lastMemberId) : null;
     }
 
+    /**
+     * noOffset() 의 contains 조건은 like '%member%' 가 되어 어떤 인덱스도 사용할 수 없으므로 id 가 작아지는 방향으로 테이블을 계속 읽는다.
+     * UsernameIndex 에서 keyword 를 포함하는 id 중 lastMemberId 다음 한 페이지 분량만 골라 pk 로 가져온다.
+     */
+    @StatementBudget(2)
+    public List<MemberDto> noOffsetByUsernameIndex(String keyword, Long lastMemberId, int limit) {
+        List<Long> ids = usernameIndex.containing(keyword, lastMemberId, 0, limit);
+        return fetchMemberDtos(ids);
+    }
+
+    /**
+     * noOffset() 을 검색 조건 전체와 임의의 정렬 키((age, id), (teamName, id) 등)로 일반화한 방식이다.
+     * 마지막 행의 정렬 키 값을 cursor 로 내려주고 다음 요청에서는 그 위치부터 바로 읽기 때문에 몇 번째 페이지든 비용이 같다.
+     * limit + 1 건을 조회해 다음 페이지 존재 여부를 count 쿼리 없이 판단한다.
+     */
+    @StatementBudget(1)
+    public CursorSlice<MemberTeamDto> searchByCursor(MemberSearchCondition condition, Sort sort, String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit 은 1 이상이어야 합니다. limit=" + limit);
+        }
+        MemberKeyset keyset = MemberKeyset.of(sort);
+
+        List<MemberTeamDto> content = queryFactory
+                .select(new QMemberTeamDto(
+                        member.id.as("memberId"),
+                        member.username,
+                        member.age,
+                        team.id.as("teamId"),
+                        team.name.as("teamName")))
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(usernameEq(condition.getUsername()),
+                        teamNameEq(condition.getTeamName()),
+                        ageGoe(condition.getAgeGoe()),
+                        ageLoe(condition.getAgeLoe()),
+                        keyset.after(cursor))
+                .orderBy(keyset.orderSpecifiers())
+                .limit(limit + 1)
+                .fetch();
+
+        if (content.size() <= limit) {
+            return new CursorSlice<>(withPendingWrites(content), null);
+        }
+
+        // cursor 는 정렬 키를 DB 의 값과 비교하므로 덮어쓰기 전의 값으로 만든다.
+        content = content.subList(0, limit);
+        return new CursorSlice<>(withPendingWrites(content), keyset.cursorOf(content.get(limit - 1)));
+    }
+
     /** ============================================================================================================ */
 
     /**
@@ -303,6 +677,7 @@ public class FinalMemberRepository {
      * 우선 첫번째 select로 대상이 되는 pk 리스트를 조회한 다음,
      * 두번째 select 에서 in 조건으로 검색하는 것이다.
      */
+    @StatementBudget(2)
     public List<MemberDto> useCoveringIndex(int offset, int limit) {
         List<Long> ids = queryFactory
                 .select(member.id)
@@ -328,4 +703,50 @@ public class FinalMemberRepository {
                 .fetch();
     }
 
+    /**
+     * useCoveringIndex() 의 첫번째 select(like 'member%' 로 pk 목록 조회)를 UsernameIndex 의 prefix 검색으로 대신한다.
+     * 파라미터로 바인딩된 like 는 인덱스를 사용하지 못해 테이블 전체를 읽지만, UsernameIndex 는 한 페이지를 채우는 만큼만 확인한다.
+     */
+    @StatementBudget(2)
+    public List<MemberDto> useCoveringIndexByUsernameIndex(String prefix, int offset, int limit) {
+        List<Long> ids = usernameIndex.startingWith(prefix, null, offset, limit);
+        return fetchMemberDtos(ids);
+    }
+
+    /**
+     * useCoveringIndex() 와 결과는 같지만, 첫번째 select 의 pk 목록을 List<Long> 대신 long[] 로 읽어서
+     * 그대로 두번째 select 의 IN 절에 바인딩한다. limit 가 크거나 자주 호출될 때 박싱과 리스트 확장에 드는 할당이 없어진다.
+     */
+    public List<MemberDto> useCoveringIndexPrimitive(int offset, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit 은 1 이상이어야 합니다. limit=" + limit);
+        }
+        long[] ids = primitiveColumns.longs(
+                "select member_id from member where username like ? order by member_id desc limit ? offset ?",
+                limit, "member%", limit, offset);
+
+        if (ids.length == 0) {
+            return new ArrayList<>();
+        }
+
+        return primitiveColumns.queryIn("select username, age from member where member_id in (", ids,
+                ") order by member_id desc", (rs, rowNum) -> new MemberDto(rs.getString(1), rs.getInt(2)));
+    }
+
+    private List<MemberDto> fetchMemberDtos(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return queryFactory
+                .select(new QMemberDto(
+                        member.username,
+                        member.age
+                ))
+                .from(member)
+                .where(member.id.in(ids))
+                .orderBy(member.id.desc())
+                .fetch();
+    }
+
 }
@@ -0,0 +1,118 @@
+package me.songha.tutorial.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.dto.MemberLoadRow;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ** 대량 적재 **
+ * 영속성 컨택스트를 거치지 않는 StatelessSession 으로 insert 한다.
+ * 1차 캐시, dirty checking, cascade 가 없으므로 건수와 상관없이 메모리가 일정하고,
+ * id 는 allocationSize 만큼 미리 할당받은 시퀀스(pooled)에서 꺼내며 insert 는 hibernate.jdbc.batch_size 단위로 묶여 실행된다.
+ *
+ * Team 을 먼저 적재해 이름별 id 를 얻은 다음, Member 의 teamName 을 team_id 로 바꿔 적재한다.
+ * commitInterval 건마다 커밋해 트랜잭션이 너무 커지지 않도록 한다.
+ */
+@Slf4j
+@Component
+public class MemberBulkLoader {
+
+    private final SessionFactory sessionFactory;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public MemberBulkLoader(EntityManagerFactory entityManagerFactory, ApplicationEventPublisher eventPublisher) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * @return 팀 이름별 team_id
+     */
+    public Map<String, Long> loadTeams(Collection<String> teamNames) {
+        Map<String, Long> teamIds = new LinkedHashMap<>();
+
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Transaction transaction = session.beginTransaction();
+            for (String teamName : teamNames) {
+                if (!teamIds.containsKey(teamName)) {
+                    Team team = Team.builder().name(teamName).build();
+                    session.insert(team);
+                    teamIds.put(teamName, team.getId());
+                }
+            }
+            transaction.commit();
+        }
+
+        eventPublisher.publishEvent(new BulkChangeEvent(Team.class));
+        return teamIds;
+    }
+
+    /**
+     * @param teamIds        loadTeams() 의 결과처럼 팀 이름별 team_id. 여기에 없는 팀 이름은 IllegalArgumentException 이 발생한다.
+     * @param commitInterval 몇 건마다 커밋할지 (1 이상)
+     * @return 적재한 Member 건수
+     */
+    public long loadMembers(Iterator<MemberLoadRow> rows, Map<String, Long> teamIds, int commitInterval) {
+        if (commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval 은 0 보다 커야 합니다. commitInterval=" + commitInterval);
+        }
+        Map<Long, Team> teamReferences = new LinkedHashMap<>();
+        long loaded = 0;
+
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                while (rows.hasNext()) {
+                    MemberLoadRow row = rows.next();
+                    session.insert(Member.builder()
+                            .username(row.getUsername())
+                            .age(row.getAge())
+                            .team(teamReference(row.getTeamName(), teamIds, teamReferences))
+                            .build());
+
+                    if (++loaded % commitInterval == 0) {
+                        transaction.commit();
+                        log.debug("bulk load progress : {} members", loaded);
+                        transaction = session.beginTransaction();
+                    }
+                }
+                transaction.commit();
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            } finally {
+                eventPublisher.publishEvent(new BulkChangeEvent(Member.class));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * insert 에는 team_id 만 필요하므로 id 만 채운 Team 을 참조로 사용한다.
+     */
+    private Team teamReference(String teamName, Map<String, Long> teamIds, Map<Long, Team> teamReferences) {
+        if (teamName == null) {
+            return null;
+        }
+        Long teamId = teamIds.get(teamName);
+        if (teamId == null) {
+            throw new IllegalArgumentException("적재되지 않은 팀입니다. teamName=" + teamName);
+        }
+        return teamReferences.computeIfAbsent(teamId, id -> Team.builder().id(id).build());
+    }
+}
@@ -0,0 +1,159 @@
+package me.songha.tutorial.repository;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.dto.BulkModifyProgress;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static me.songha.tutorial.domain.QMember.member;
+
+/**
+ * ** id 구간별 벌크 수정 **
+ * dirtyChecking() 은 행마다 update 가 나가고, batchUpdate() 는 한번의 update 로 테이블 전체에 lock 을 오래 잡는다.
+ * 대상 행을 id 순으로 chunkSize 건씩 나눠 구간마다 별도의 트랜잭션에서 set 기반 update 를 실행하므로
+ * lock 은 구간 단위로만 잡히고 영속성 컨택스트에 엔티티를 올리지 않아 건수와 상관없이 메모리가 일정하다.
+ *
+ * 구간의 경계는 min ~ max 를 같은 폭으로 나누지 않고 no offset 방식처럼 직전 구간의 마지막 id 다음부터 chunkSize 번째 id 로 정한다.
+ * id 가 듬성듬성하거나 범위가 넓어도 빈 구간을 도는 일 없이 구간마다 chunkSize 건씩 수정한다.
+ *
+ * 구간마다 update 전에 flush 로 영속성 컨택스트의 변경을 먼저 반영하고, 실행 후에는 clear 해서
+ * (open-in-view 등으로 같은 EntityManager 를 쓰는 경우에도) 오래된 1차 캐시가 남지 않도록 한다.
+ * 구간별로 커밋해야 하므로 이미 시작된 트랜잭션 안에서는 호출할 수 없다.
+ */
+@Slf4j
+@Component
+public class MemberBulkModifier {
+
+    private final JPAQueryFactory queryFactory;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+
+    public MemberBulkModifier(JPAQueryFactory queryFactory, EntityManager entityManager,
+                              ApplicationEventPublisher eventPublisher, PlatformTransactionManager transactionManager) {
+        this.queryFactory = queryFactory;
+        this.entityManager = entityManager;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 전체 구간 수는 시작할 때 센 대상 건수로 계산한 값이며, 수정하는 동안 대상이 늘거나 줄면 마지막 구간에서 실제 값으로 맞춘다.
+     *
+     * @param condition   수정 대상 조건 (null 이면 전체)
+     * @param assignments set 절. ex) update -> update.set(member.username, member.username.concat("+"))
+     * @param chunkSize   한 트랜잭션에서 수정할 행의 수 (offset 으로 구간의 끝을 찾으므로 int 범위까지)
+     * @param listener    구간이 커밋될 때마다 진행 상황을 전달받는다.
+     */
+    public BulkModifyProgress modify(Predicate condition, Consumer<JPAUpdateClause> assignments,
+                                     long chunkSize, Consumer<BulkModifyProgress> listener) {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("chunkSize 는 1 ~ " + Integer.MAX_VALUE + " 이어야 합니다. chunkSize=" + chunkSize);
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("구간별로 커밋해야 하므로 트랜잭션 밖에서 호출해야 합니다.");
+        }
+
+        long startedAt = System.nanoTime();
+        long targetRows = queryFactory
+                .select(member.count())
+                .from(member)
+                .where(condition)
+                .fetchOne();
+        long estimatedChunks = targetRows / chunkSize + (targetRows % chunkSize == 0 ? 0 : 1);
+
+        long completedChunks = 0;
+        long modifiedRows = 0;
+        Long lastId = null;
+        BulkModifyProgress progress = new BulkModifyProgress(0, 0, null, 0, Duration.ZERO);
+
+        while (true) {
+            Long after = lastId;
+            Chunk chunk = transactionTemplate.execute(status -> modifyChunk(condition, assignments, after, chunkSize));
+            if (chunk == null) {
+                break;
+            }
+            completedChunks++;
+            modifiedRows += chunk.modified;
+            lastId = chunk.lastId;
+
+            long totalChunks = chunk.last ? completedChunks : Math.max(estimatedChunks, completedChunks + 1);
+            progress = new BulkModifyProgress(completedChunks, totalChunks, lastId, modifiedRows,
+                    Duration.ofNanos(System.nanoTime() - startedAt));
+            log.debug("bulk modify progress : {}", progress);
+            listener.accept(progress);
+            if (chunk.last) {
+                return progress;
+            }
+        }
+
+        // 남은 대상이 없다. (대상이 처음부터 없었거나, 수정하는 동안 지워졌다)
+        progress = new BulkModifyProgress(completedChunks, completedChunks, lastId, modifiedRows,
+                Duration.ofNanos(System.nanoTime() - startedAt));
+        listener.accept(progress);
+        return progress;
+    }
+
+    /**
+     * after 다음의 chunkSize 번째 id 까지 수정한다. 그 다음 id 를 함께 읽어서 이번 구간이 마지막인지 확인한다.
+     * 수정할 행이 없으면 null 을 반환한다.
+     */
+    private Chunk modifyChunk(Predicate condition, Consumer<JPAUpdateClause> assignments, Long after, long chunkSize) {
+        entityManager.flush();
+
+        BooleanExpression afterLast = after != null ? member.id.gt(after) : null;
+        List<Long> boundary = queryFactory
+                .select(member.id)
+                .from(member)
+                .where(condition, afterLast)
+                .orderBy(member.id.asc())
+                .offset(chunkSize - 1)
+                .limit(2)
+                .fetch();
+
+        Long to = !boundary.isEmpty() ? boundary.get(0) : queryFactory
+                .select(member.id.max())
+                .from(member)
+                .where(condition, afterLast)
+                .fetchOne();
+        if (to == null) {
+            return null;
+        }
+
+        JPAUpdateClause update = queryFactory.update(member);
+        assignments.accept(update);
+        long modified = update
+                .where(afterLast, member.id.loe(to), condition)
+                .execute();
+
+        entityManager.clear();
+        eventPublisher.publishEvent(new BulkChangeEvent(Member.class, true));
+        return new Chunk(to, modified, boundary.size() < 2);
+    }
+
+    private static class Chunk {
+        private final long lastId;
+        private final long modified;
+        private final boolean last;
+
+        private Chunk(long lastId, long modified, boolean last) {
+            this.lastId = lastId;
+            this.modified = modified;
+            this.last = last;
+        }
+    }
+}
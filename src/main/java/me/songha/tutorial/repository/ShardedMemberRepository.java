@@ -0,0 +1,270 @@
+package me.songha.tutorial.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.dto.MemberTeamDto2;
+import me.songha.tutorial.repository.shard.MemberShards;
+import me.songha.tutorial.repository.shard.ScatterGather;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * ** team_id 로 나눈 shard 에서의 조회 **
+ * FinalMemberRepository 의 같은 이름 메서드와 결과가 같지만 MemberShards 의 shard 들에서 읽는다.
+ * - 팀 하나만 보는 조회(findSameTeamMember, entityInSelect)는 그 팀이 있는 shard 하나에서 끝난다.
+ * - 팀 조건이 없는 조회는 ScatterGather 로 모든 shard 에 동시에 보내고,
+ *   정렬된 결과는 shard 별로 정렬해 받은 뒤 k-way merge 하고, 건수는 더한다. 한 팀의 행은 한 shard 에만 있으므로 집계는 합치기만 하면 된다.
+ *
+ * 동기화 중이거나 벌크 변경 뒤 다시 나누기 전이거나 팀을 옮기는 중이면 FinalMemberRepository(primary)로 조회하고
+ * member.shard.fallback 카운터에 남긴다.
+ * shard 는 쓰기를 나누는 partitioning 이 아니라 primary 의 커밋 이벤트로 비동기 갱신되는 읽기용 사본이므로,
+ * 쓰기는 FinalMemberRepository 로 하고 커밋 직후에는 잠시 이전 값을 읽을 수 있다.
+ */
+@Repository
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ShardedMemberRepository {
+
+    private static final String SELECT_MEMBER_TEAM =
+            "select m.member_id, m.username, m.age, m.team_id, t.name from member m left join team t on t.team_id = m.team_id";
+    private static final RowMapper<MemberTeamDto> MEMBER_TEAM = (rs, rowNum) -> new MemberTeamDto(
+            rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getObject(4, Long.class), rs.getString(5));
+
+    /**
+     * 정렬할 수 있는 속성과 컬럼. 비교 순서를 SQL 과 맞추기 위해 null 은 항상 마지막에 둔다.
+     */
+    private enum SortKey {
+        MEMBER_ID("memberId", "m.member_id", MemberTeamDto::getMemberId),
+        USERNAME("username", "m.username", MemberTeamDto::getUsername),
+        AGE("age", "m.age", MemberTeamDto::getAge),
+        TEAM_ID("teamId", "m.team_id", MemberTeamDto::getTeamId),
+        TEAM_NAME("teamName", "t.name", MemberTeamDto::getTeamName);
+
+        private final String property;
+        private final String column;
+        private final Function<MemberTeamDto, Comparable<?>> extractor;
+
+        SortKey(String property, String column, Function<MemberTeamDto, Comparable<?>> extractor) {
+            this.property = property;
+            this.column = column;
+            this.extractor = extractor;
+        }
+
+        static SortKey of(String property) {
+            return Arrays.stream(values())
+                    .filter(key -> key.property.equals(property))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("정렬을 지원하지 않는 속성입니다. property=" + property));
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Comparator<MemberTeamDto> comparator(Sort.Direction direction) {
+            Comparator<Comparable> natural = direction.isAscending() ? Comparator.naturalOrder() : Comparator.reverseOrder();
+            return Comparator.comparing(row -> (Comparable) extractor.apply(row), Comparator.nullsLast(natural));
+        }
+    }
+
+    private final MemberShards shards;
+    private final ScatterGather scatterGather;
+    private final FinalMemberRepository primary;
+    private final Counter fallback;
+
+    public ShardedMemberRepository(MemberShards shards, ScatterGather scatterGather, FinalMemberRepository primary,
+                                   MeterRegistry meterRegistry) {
+        this.shards = shards;
+        this.scatterGather = scatterGather;
+        this.primary = primary;
+        this.fallback = meterRegistry.counter("member.shard.fallback");
+    }
+
+    public List<MemberTeamDto> findSameTeamMember(Long teamId) {
+        return shards.read(() -> shards.ofTeam(teamId).getJdbcTemplate().query(
+                        "select m.member_id, m.username, m.age, t.name from member m inner join team t on t.team_id = m.team_id where m.team_id = ?",
+                        (rs, rowNum) -> new MemberTeamDto(rs.getLong(1), rs.getString(2), rs.getInt(3), teamId, rs.getString(4)),
+                        teamId),
+                () -> fallback(() -> primary.findSameTeamMember(teamId)));
+    }
+
+    /**
+     * shard 에는 엔티티가 없으므로 id / name 만 채운 Team 을 만들어 모든 행이 같은 인스턴스를 공유한다.
+     */
+    public List<MemberTeamDto2> entityInSelect(Long teamId) {
+        return shards.read(() -> {
+            Team[] team = new Team[1];
+            return shards.ofTeam(teamId).getJdbcTemplate().query(
+                    "select m.member_id, m.username, m.age, t.name from member m inner join team t on t.team_id = m.team_id where m.team_id = ?",
+                    (rs, rowNum) -> {
+                        if (team[0] == null) {
+                            team[0] = Team.builder().id(teamId).name(rs.getString(4)).build();
+                        }
+                        return new MemberTeamDto2(rs.getLong(1), rs.getString(2), rs.getInt(3), team[0]);
+                    },
+                    teamId);
+        }, () -> fallback(() -> primary.entityInSelect(teamId)));
+    }
+
+    /**
+     * 팀별 나이 합계. 팀은 한 shard 에만 있으므로 shard 별 group by 결과를 이어 붙인다. (순서는 보장하지 않는다)
+     */
+    public List<Integer> useOrderByNull() {
+        return shards.read(() -> {
+            List<Integer> result = new ArrayList<>();
+            scatterGather.scatter(shard -> shard.getJdbcTemplate().queryForList(
+                            "select sum(m.age) from member m inner join team t on t.team_id = m.team_id group by m.team_id", Integer.class))
+                    .forEach(result::addAll);
+            return result;
+        }, () -> fallback(primary::useOrderByNull));
+    }
+
+    /**
+     * 결과는 member_id 순서로 정렬된다.
+     */
+    public List<MemberTeamDto> searchByWhere(MemberSearchCondition condition) {
+        return shards.read(() -> {
+            List<Object> args = new ArrayList<>();
+            String sql = SELECT_MEMBER_TEAM + where(condition, args) + " order by m.member_id";
+            List<List<MemberTeamDto>> perShard = scatterGather.scatter(shard -> shard.getJdbcTemplate().query(sql, MEMBER_TEAM, args.toArray()));
+            return merge(perShard, SortKey.MEMBER_ID.comparator(Sort.Direction.ASC), 0, Integer.MAX_VALUE);
+        }, () -> fallback(() -> primary.searchByWhere(condition)));
+    }
+
+    /**
+     * 각 shard 에서 offset + pageSize 건까지 정렬해 받고, 합친 순서에서 offset 만큼 건너뛴다.
+     * 정렬은 memberId, username, age, teamId, teamName 으로 할 수 있고 (null 은 마지막), 마지막 키로 memberId 를 붙인다.
+     * 정렬이 없으면 memberId 오름차순이다. 전체 건수는 shard 별 count 의 합이다.
+     * 뒤쪽 페이지일수록 shard 수 * (offset + pageSize) 건을 읽어야 하므로 깊은 페이지는 searchByCursor() 를 사용한다.
+     */
+    public Page<MemberTeamDto> search(MemberSearchCondition condition, Pageable pageable) {
+        return shards.read(() -> {
+            List<Object> args = new ArrayList<>();
+            String where = where(condition, args);
+            StringBuilder orderBy = new StringBuilder(" order by ");
+            Comparator<MemberTeamDto> comparator = null;
+            boolean byMemberId = false;
+            for (Sort.Order order : pageable.getSort()) {
+                SortKey key = SortKey.of(order.getProperty());
+                orderBy.append(key.column).append(order.isAscending() ? " asc" : " desc").append(" nulls last, ");
+                comparator = comparator == null ? key.comparator(order.getDirection()) : comparator.thenComparing(key.comparator(order.getDirection()));
+                byMemberId |= key == SortKey.MEMBER_ID;
+            }
+            if (!byMemberId) {
+                orderBy.append(SortKey.MEMBER_ID.column).append(" asc, ");
+                Comparator<MemberTeamDto> byId = SortKey.MEMBER_ID.comparator(Sort.Direction.ASC);
+                comparator = comparator == null ? byId : comparator.thenComparing(byId);
+            }
+            orderBy.setLength(orderBy.length() - 2);
+
+            long fetch = pageable.getOffset() + pageable.getPageSize();
+            String contentSql = SELECT_MEMBER_TEAM + where + orderBy + " limit " + fetch;
+            String countSql = "select count(*) from member m left join team t on t.team_id = m.team_id" + where;
+
+            List<ShardPage> perShard = scatterGather.scatter(shard -> new ShardPage(
+                    shard.getJdbcTemplate().query(contentSql, MEMBER_TEAM, args.toArray()),
+                    shard.getJdbcTemplate().queryForObject(countSql, Long.class, args.toArray())));
+
+            List<List<MemberTeamDto>> contents = new ArrayList<>(perShard.size());
+            long total = 0;
+            for (ShardPage page : perShard) {
+                contents.add(page.content);
+                total += page.count;
+            }
+            long count = total;
+            List<MemberTeamDto> content = merge(contents, comparator, pageable.getOffset(), pageable.getPageSize());
+            return PageableExecutionUtils.getPage(content, pageable, () -> count);
+        }, () -> fallback(() -> primary.search(condition, pageable)));
+    }
+
+    private static class ShardPage {
+        private final List<MemberTeamDto> content;
+        private final long count;
+
+        private ShardPage(List<MemberTeamDto> content, Long count) {
+            this.content = content;
+            this.count = count != null ? count : 0;
+        }
+    }
+
+    /**
+     * shard 별로 정렬된 목록을 우선순위 큐로 합치면서 skip 건을 건너뛰고 limit 건을 모은다.
+     */
+    private static List<MemberTeamDto> merge(List<List<MemberTeamDto>> sorted, Comparator<MemberTeamDto> comparator, long skip, int limit) {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>((a, b) -> comparator.compare(a.current, b.current));
+        int size = 0;
+        for (List<MemberTeamDto> rows : sorted) {
+            size += rows.size();
+            Iterator<MemberTeamDto> iterator = rows.iterator();
+            if (iterator.hasNext()) {
+                heads.add(new Cursor(iterator));
+            }
+        }
+
+        List<MemberTeamDto> result = new ArrayList<>((int) Math.max(Math.min((long) limit, size - skip), 0));
+        for (long index = 0; !heads.isEmpty() && result.size() < limit; index++) {
+            Cursor head = heads.poll();
+            if (index >= skip) {
+                result.add(head.current);
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return result;
+    }
+
+    private static class Cursor {
+        private final Iterator<MemberTeamDto> iterator;
+        private MemberTeamDto current;
+
+        private Cursor(Iterator<MemberTeamDto> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        private boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+    }
+
+    private static String where(MemberSearchCondition condition, List<Object> args) {
+        StringBuilder where = new StringBuilder();
+        if (hasText(condition.getUsername())) {
+            where.append(" and m.username = ?");
+            args.add(condition.getUsername());
+        }
+        if (hasText(condition.getTeamName())) {
+            where.append(" and t.name = ?");
+            args.add(condition.getTeamName());
+        }
+        if (condition.getAgeGoe() != null) {
+            where.append(" and m.age >= ?");
+            args.add(condition.getAgeGoe());
+        }
+        if (condition.getAgeLoe() != null) {
+            where.append(" and m.age <= ?");
+            args.add(condition.getAgeLoe());
+        }
+        return where.length() == 0 ? "" : " where" + where.substring(4);
+    }
+
+    private <T> T fallback(Supplier<T> query) {
+        fallback.increment();
+        return query.get();
+    }
+}
@@ -0,0 +1,212 @@
+package me.songha.tutorial.repository.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * ** team_id 기준 Member / Team shard **
+ * 원본은 primary 에 있고 shard 는 ShardSynchronizer 가 채우는 읽기용 분할 사본이다. 애플리케이션의 쓰기는 shard 로 오지 않는다.
+ * 팀과 그 팀의 회원은 항상 같은 shard 에 두어 member left join team 이 shard 안에서 끝나도록 한다.
+ * 팀이 어느 shard 에 있는지는 directory(teamId -> shard)로 관리하고, directory 에 없는 팀은 teamId mod shard 수에 둔다.
+ * 팀이 없는 회원은 옮겨지지 않으므로 memberId mod shard 수에 고정한다.
+ *
+ * directory 는 별도 테이블에 두지 않고 각 shard 의 team 테이블 자체로 복원한다. (readPlacement)
+ *
+ * shard 에 쓰는 작업(변경 이벤트 반영, 전체 동기화, 팀 이동)은 write() 로 한 번에 하나씩 실행한다.
+ * 팀을 옮기거나 전체를 다시 나누는 동안에는 같은 팀이 두 shard 에 있거나 아예 없을 수 있으므로 relocate() 로 배치 lock 을 잡고,
+ * 조회는 read() 로 배치 lock 을 기다리지 않고 얻을 수 있을 때만 shard 에서, 아니면 primary 에서 읽는다.
+ */
+@Slf4j
+public class MemberShards implements DisposableBean {
+
+    private static final String[] SCHEMA = {
+            "create table if not exists team (team_id bigint primary key, name varchar(255), member_id bigint)",
+            "create table if not exists member (member_id bigint primary key, username varchar(255), age integer not null, team_id bigint)",
+            "create index if not exists idx_team_name on team (name)",
+            "create index if not exists idx_member_username_id on member (username, member_id)",
+            "create index if not exists idx_member_age_id on member (age, member_id)",
+            "create index if not exists idx_member_team_id on member (team_id, member_id)"
+    };
+
+    @Getter
+    public static class Shard {
+        private final int index;
+        private final HikariDataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+        private final TransactionTemplate transactionTemplate;
+
+        Shard(int index, HikariDataSource dataSource, int queryTimeoutSeconds) {
+            this.index = index;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.jdbcTemplate.setQueryTimeout(queryTimeoutSeconds);
+            this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        }
+
+        @Override
+        public String toString() {
+            return "shard-" + index;
+        }
+    }
+
+    private final List<Shard> shards;
+    private final Map<Long, Integer> directory = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /** 배치를 바꾸는 쪽이 계속 기다리지 않도록 fair 로 만들고, 조회는 tryLock(0) 으로 순서를 지킨다. */
+    private final ReadWriteLock placementLock = new ReentrantReadWriteLock(true);
+
+    /** 전체 동기화가 끝나기 전에는 false 이며, 이때 조회는 primary 로 보낸다. */
+    private volatile boolean ready;
+
+    public MemberShards(List<HikariDataSource> dataSources, int queryTimeoutSeconds) {
+        if (dataSources.isEmpty()) {
+            throw new IllegalStateException("app.sharding.shards 가 비어 있습니다.");
+        }
+        List<Shard> shards = new ArrayList<>(dataSources.size());
+        for (int i = 0; i < dataSources.size(); i++) {
+            Shard shard = new Shard(i, dataSources.get(i), queryTimeoutSeconds);
+            for (String ddl : SCHEMA) {
+                shard.jdbcTemplate.execute(ddl);
+            }
+            shards.add(shard);
+        }
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    public List<Shard> all() {
+        return shards;
+    }
+
+    public Shard get(int index) {
+        return shards.get(index);
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public Shard ofTeam(Long teamId) {
+        return shards.get(indexOfTeam(teamId));
+    }
+
+    public int indexOfTeam(Long teamId) {
+        return directory.getOrDefault(teamId, defaultIndex(teamId));
+    }
+
+    public int indexOfMember(Long memberId, Long teamId) {
+        return teamId != null ? indexOfTeam(teamId) : defaultIndex(memberId);
+    }
+
+    public Map<Long, Integer> directory() {
+        return Collections.unmodifiableMap(directory);
+    }
+
+    void assign(Long teamId, int shard) {
+        directory.put(teamId, shard);
+    }
+
+    void unassign(Long teamId) {
+        directory.remove(teamId);
+    }
+
+    void clearDirectory() {
+        directory.clear();
+    }
+
+    /**
+     * 각 shard 의 team 테이블로 이전 배치를 읽는다. 이동이 중간에 실패해 두 shard 에 남은 팀은 회원이 더 많은 쪽으로 본다.
+     */
+    Map<Long, Integer> readPlacement() {
+        Map<Long, Integer> placement = new HashMap<>();
+        Map<Long, Long> membersOnPlaced = new HashMap<>();
+        for (Shard shard : shards) {
+            shard.jdbcTemplate.query("select t.team_id, count(m.member_id) from team t left join member m on m.team_id = t.team_id group by t.team_id", rs -> {
+                long teamId = rs.getLong(1);
+                long members = rs.getLong(2);
+                Integer previous = placement.get(teamId);
+                if (previous != null) {
+                    log.warn("team {} 이(가) {} 와 {} 에 모두 있습니다.", teamId, shards.get(previous), shard);
+                    if (membersOnPlaced.get(teamId) >= members) {
+                        return;
+                    }
+                }
+                placement.put(teamId, shard.index);
+                membersOnPlaced.put(teamId, members);
+            });
+        }
+        return placement;
+    }
+
+    /**
+     * 동기화가 끝났고 배치가 바뀌는 중이 아니면 shard 에서, 아니면 primary(fallback)에서 읽는다.
+     */
+    public <T> T read(Supplier<T> shardQuery, Supplier<T> fallback) {
+        boolean locked = false;
+        try {
+            locked = placementLock.readLock().tryLock(0, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            return fallback.get();
+        }
+        try {
+            return ready ? shardQuery.get() : fallback.get();
+        } finally {
+            placementLock.readLock().unlock();
+        }
+    }
+
+    public <T> T write(Supplier<T> action) {
+        writeLock.lock();
+        try {
+            return action.get();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 진행 중인 shard 조회가 끝나기를 기다린 뒤, 그 동안의 조회는 primary 로 보내고 action 을 실행한다.
+     */
+    public <T> T relocate(Supplier<T> action) {
+        return write(() -> {
+            placementLock.writeLock().lock();
+            try {
+                return action.get();
+            } finally {
+                placementLock.writeLock().unlock();
+            }
+        });
+    }
+
+    private int defaultIndex(Long id) {
+        return (int) Math.floorMod(id, (long) shards.size());
+    }
+
+    @Override
+    public void destroy() {
+        shards.forEach(shard -> shard.dataSource.close());
+    }
+}
@@ -0,0 +1,77 @@
+package me.songha.tutorial.repository.shard;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.songha.tutorial.config.ShardingProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * ** 전체 shard 동시 조회 **
+ * 같은 조회를 모든 shard 에 동시에 보내고 shard 순서대로 결과를 모은다. 응답 시간은 가장 느린 shard 에 맞춰진다.
+ * 하나라도 실패하거나 app.sharding.timeout 안에 끝나지 않으면 나머지를 취소하고 실패한다. (일부 shard 만의 결과는 돌려주지 않는다)
+ *
+ * - member.shard.query : shard 별 조회 시간 (tag: shard) - 특정 shard 에 데이터나 부하가 몰렸는지 확인한다.
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ScatterGather implements DisposableBean {
+
+    private final MemberShards shards;
+    private final ThreadPoolTaskExecutor executor;
+    private final long timeoutMillis;
+    private final List<Timer> timers = new ArrayList<>();
+
+    public ScatterGather(MemberShards shards, ShardingProperties properties, MeterRegistry meterRegistry) {
+        this.shards = shards;
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(properties.getPoolSize());
+        this.executor.setMaxPoolSize(properties.getPoolSize());
+        this.executor.setThreadNamePrefix("shard-");
+        this.executor.initialize();
+        this.timeoutMillis = properties.getTimeout().toMillis();
+        for (MemberShards.Shard shard : shards.all()) {
+            timers.add(Timer.builder("member.shard.query").tag("shard", String.valueOf(shard.getIndex())).register(meterRegistry));
+        }
+    }
+
+    /**
+     * @return shard 순서대로의 결과
+     */
+    public <T> List<T> scatter(Function<MemberShards.Shard, T> query) {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (MemberShards.Shard shard : shards.all()) {
+            futures.add(executor.submit(() -> timers.get(shard.getIndex()).recordCallable(() -> query.apply(shard))));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("shard 조회가 " + timeoutMillis + "ms 안에 끝나지 않았습니다.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,49 @@
+package me.songha.tutorial.repository.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 행을 shard 별로 모아 batchSize 건씩 각 shard 의 트랜잭션으로 batch insert 한다. close() 할 때 남은 행을 보낸다.
+ */
+class ShardBatches implements AutoCloseable {
+
+    private final MemberShards shards;
+    private final String sql;
+    private final int batchSize;
+    private final List<List<Object[]>> buffers = new ArrayList<>();
+
+    ShardBatches(MemberShards shards, String sql, int batchSize) {
+        this.shards = shards;
+        this.sql = sql;
+        this.batchSize = batchSize;
+        for (int i = 0; i < shards.size(); i++) {
+            buffers.add(new ArrayList<>(batchSize));
+        }
+    }
+
+    void add(int shard, Object... row) {
+        List<Object[]> buffer = buffers.get(shard);
+        buffer.add(row);
+        if (buffer.size() >= batchSize) {
+            flush(shard);
+        }
+    }
+
+    private void flush(int shard) {
+        List<Object[]> buffer = buffers.get(shard);
+        if (buffer.isEmpty()) {
+            return;
+        }
+        MemberShards.Shard target = shards.get(shard);
+        target.getTransactionTemplate().executeWithoutResult(status -> target.getJdbcTemplate().batchUpdate(sql, buffer));
+        buffer.clear();
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < buffers.size(); i++) {
+            flush(i);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package me.songha.tutorial.repository.shard;
+
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.config.ShardingProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * ** shard 간 팀 이동 **
+ * 팀 단위로 다른 shard 에 복사하고 directory 를 바꾼 뒤 이전 shard 에서 지운다.
+ * 옮기는 동안에는 배치 lock(MemberShards.relocate)을 잡으므로 shard 조회는 primary 로 가고, 변경 이벤트 반영은 끝날 때까지 기다린다.
+ * 복사는 대상 shard 의 트랜잭션 하나로 하므로 실패하면 아무것도 바뀌지 않으며,
+ * 이전 shard 에서 지우다 실패해 남은 행은 다음 전체 동기화(readPlacement)에서 회원이 더 많은 쪽을 기준으로 정리된다.
+ *
+ * rebalance() 는 가장 큰 shard 의 회원 수가 평균보다 app.sharding.max-imbalance 이상 많은 동안,
+ * 가장 큰 shard 에서 가장 작은 shard 로 옮겼을 때 두 shard 의 차이를 가장 많이 줄이는 팀을 하나씩 옮긴다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ShardRebalancer {
+
+    @Getter
+    @ToString
+    public static class Move {
+        private final long teamId;
+        private final int from;
+        private final int to;
+        private final long members;
+
+        public Move(long teamId, int from, int to, long members) {
+            this.teamId = teamId;
+            this.from = from;
+            this.to = to;
+            this.members = members;
+        }
+    }
+
+    private final MemberShards shards;
+    private final ShardingProperties properties;
+
+    public ShardRebalancer(MemberShards shards, ShardingProperties properties) {
+        this.shards = shards;
+        this.properties = properties;
+    }
+
+    /**
+     * @return shard 별 회원 수
+     */
+    public long[] distribution() {
+        long[] members = new long[shards.size()];
+        for (MemberShards.Shard shard : shards.all()) {
+            Long count = shard.getJdbcTemplate().queryForObject("select count(*) from member", Long.class);
+            members[shard.getIndex()] = count != null ? count : 0;
+        }
+        return members;
+    }
+
+    /**
+     * 옮기지는 않고 rebalance() 가 옮길 팀 목록만 계산한다.
+     */
+    public List<Move> plan() {
+        List<Map<Long, Long>> teamSizes = new ArrayList<>(shards.size());
+        long[] totals = distribution();
+        for (MemberShards.Shard shard : shards.all()) {
+            Map<Long, Long> sizes = new HashMap<>();
+            shard.getJdbcTemplate().query("select team_id, count(*) from member where team_id is not null group by team_id",
+                    rs -> {
+                        sizes.put(rs.getLong(1), rs.getLong(2));
+                    });
+            teamSizes.add(sizes);
+        }
+
+        double average = Arrays.stream(totals).sum() / (double) totals.length;
+        List<Move> moves = new ArrayList<>();
+        while (true) {
+            int largest = indexOfMax(totals);
+            int smallest = indexOfMin(totals);
+            if (totals[largest] <= average * (1 + properties.getMaxImbalance())) {
+                return moves;
+            }
+
+            // 옮긴 뒤에 차이가 줄어들려면 팀 크기가 두 shard 차이보다 작아야 하고, 차이의 절반에 가까울수록 많이 줄어든다.
+            long gap = totals[largest] - totals[smallest];
+            Map.Entry<Long, Long> best = null;
+            for (Map.Entry<Long, Long> team : teamSizes.get(largest).entrySet()) {
+                if (team.getValue() < gap && (best == null
+                        || Math.abs(gap - 2 * team.getValue()) < Math.abs(gap - 2 * best.getValue()))) {
+                    best = team;
+                }
+            }
+            if (best == null) {
+                return moves;
+            }
+
+            teamSizes.get(largest).remove(best.getKey());
+            teamSizes.get(smallest).put(best.getKey(), best.getValue());
+            totals[largest] -= best.getValue();
+            totals[smallest] += best.getValue();
+            moves.add(new Move(best.getKey(), largest, smallest, best.getValue()));
+        }
+    }
+
+    public List<Move> rebalance() {
+        List<Move> moves = new ArrayList<>();
+        for (Move planned : plan()) {
+            moves.add(move(planned.teamId, planned.to));
+        }
+        return moves;
+    }
+
+    /**
+     * teamId 의 팀과 회원을 target shard 로 옮긴다. 이미 target 에 있으면 아무것도 하지 않는다.
+     */
+    public Move move(long teamId, int target) {
+        if (target < 0 || target >= shards.size()) {
+            throw new IllegalArgumentException("없는 shard 입니다. shard=" + target);
+        }
+        return shards.relocate(() -> {
+            MemberShards.Shard from = shards.ofTeam(teamId);
+            MemberShards.Shard to = shards.get(target);
+            if (from == to) {
+                return new Move(teamId, from.getIndex(), target, 0);
+            }
+
+            List<Object[]> team = from.getJdbcTemplate().query("select team_id, name, member_id from team where team_id = ?",
+                    (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getObject(3)}, teamId);
+            List<Object[]> members = from.getJdbcTemplate().query("select member_id, username, age, team_id from member where team_id = ?",
+                    (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getInt(3), rs.getLong(4)}, teamId);
+
+            to.getTransactionTemplate().executeWithoutResult(status -> {
+                to.getJdbcTemplate().batchUpdate(ShardSynchronizer.MERGE_TEAM, team);
+                for (int i = 0; i < members.size(); i += properties.getBatchSize()) {
+                    to.getJdbcTemplate().batchUpdate(ShardSynchronizer.MERGE_MEMBER,
+                            members.subList(i, Math.min(i + properties.getBatchSize(), members.size())));
+                }
+            });
+            shards.assign(teamId, target);
+            from.getTransactionTemplate().executeWithoutResult(status -> {
+                from.getJdbcTemplate().update("delete from member where team_id = ?", teamId);
+                from.getJdbcTemplate().update("delete from team where team_id = ?", teamId);
+            });
+
+            Move move = new Move(teamId, from.getIndex(), target, members.size());
+            log.info("팀 이동 완료 : {}", move);
+            return move;
+        });
+    }
+
+    private static int indexOfMax(long[] values) {
+        int index = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int indexOfMin(long[] values) {
+        int index = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] < values[index]) {
+                index = i;
+            }
+        }
+        return index;
+    }
+}
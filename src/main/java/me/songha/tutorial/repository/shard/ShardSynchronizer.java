@@ -0,0 +1,349 @@
+package me.songha.tutorial.repository.shard;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.config.ShardingProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ** shard 동기화 **
+ * shard 는 쓰기를 나누는 partitioning 이 아니라, primary 에서 파생된 읽기 전용 분할 사본(read-side partitioned copy)이다.
+ * Member / Team 의 원본과 모든 쓰기는 그대로 기본 DataSource(primary)에 있고, shard 에는 team_id 로 나눈 사본만 유지한다.
+ * 그래서 조회 부하는 나눠지지만 primary 의 저장 용량이나 쓰기 부하는 줄지 않으며, shard 는 언제든 primary 에서 다시 만들 수 있다.
+ *
+ * 애플리케이션이 뜨거나 벌크 변경(BulkChangeEvent)이 있으면 primary 를 forward-only 커서로 읽어 전체를 다시 나눠 넣고,
+ * 그 사이에는 커밋된 엔티티 변경 이벤트로 해당 행만 shard 에 반영한다.
+ * 이벤트는 커밋한 스레드에서 쓰지 않고 shard-writer 스레드 하나의 대기열에 넣어 도착한 순서대로 쓴다.
+ * 커밋한 쪽은 shard 를 기다리지 않으며, shard 에 쓰다 실패하거나 대기열이 가득 차도 이미 커밋된 트랜잭션이나 다른 listener 에 영향을 주지 않는다.
+ * 대신 shard 를 준비되지 않은 상태로 돌려 조회를 primary 로 보내고 전체 동기화를 예약한다. (member.shard.write.failures 카운터)
+ *
+ * 벌크 변경이 오면 바로 shard 를 준비되지 않은 상태로 돌려, 다시 나누기 전까지 조회가 벌크 변경 전의 값을 읽지 않고 primary 로 가게 한다.
+ * chunkedUpdate() 처럼 벌크 변경 이벤트가 연달아 오므로, 전체 동기화는 app.sharding.resync-delay 뒤에 별도 스레드에서 한 번만 실행한다.
+ * 동기화 중에 다시 벌크 변경이 오면 끝나도 준비된 상태로 돌리지 않고, 끝난 뒤에 한 번 더 실행한다.
+ *
+ * 다시 나눌 때는 이전 배치(rebalance 결과)를 shard 의 team 테이블에서 읽어 그대로 유지한다.
+ * 다시 나누는 동안 커밋된 변경은 모아두었다가 적재가 끝난 뒤 순서대로 반영하며, 그 동안의 조회는 primary 로 간다.
+ * JPA 를 거치지 않은 변경은 다음 전체 동기화 전까지 shard 에 반영되지 않는다.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ShardSynchronizer implements DisposableBean {
+
+    static final String MERGE_TEAM = "merge into team (team_id, name, member_id) key (team_id) values (?, ?, ?)";
+    static final String MERGE_MEMBER = "merge into member (member_id, username, age, team_id) key (member_id) values (?, ?, ?, ?)";
+
+    private final MemberShards shards;
+    private final ShardingProperties properties;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate primaryTransaction;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final ThreadPoolTaskExecutor writer;
+    private final AtomicBoolean resyncScheduled = new AtomicBoolean();
+    /** 벌크 변경 / 쓰기 실패 횟수. 동기화가 끝났을 때 시작할 때와 다르면 shard 를 준비된 상태로 돌리지 않는다. */
+    private final AtomicLong staleMarks = new AtomicLong();
+    private final Timer resyncTimer;
+    private final Counter writeFailures;
+
+    /** null 이 아니면 전체 동기화 중이며, 그동안의 변경 이벤트를 모은다. */
+    private List<EntityChangeEvent> pending;
+
+    public ShardSynchronizer(MemberShards shards, ShardingProperties properties, JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager, EntityManagerFactory entityManagerFactory,
+                             MeterRegistry meterRegistry) {
+        this.shards = shards;
+        this.properties = properties;
+        this.jdbcTemplate = jdbcTemplate;
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.primaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.primaryTransaction.setReadOnly(true);
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.resyncTimer = Timer.builder("member.shard.resync").register(meterRegistry);
+        this.writeFailures = meterRegistry.counter("member.shard.write.failures");
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("shard-resync-");
+        this.scheduler.initialize();
+
+        this.writer = new ThreadPoolTaskExecutor();
+        this.writer.setCorePoolSize(1);
+        this.writer.setMaxPoolSize(1);
+        this.writer.setQueueCapacity(properties.getWriteQueueCapacity());
+        this.writer.setThreadNamePrefix("shard-writer-");
+        this.writer.initialize();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        resync();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        if (event.isOf(Member.class) || event.isOf(Team.class)) {
+            markStale();
+        }
+    }
+
+    /**
+     * 지금까지 대기열에 들어간 변경 이벤트가 shard 에 반영될 때까지 기다린다.
+     *
+     * @return app.sharding.timeout 안에 반영되었으면 true
+     */
+    public boolean awaitWrites() {
+        try {
+            writer.submit(() -> { }).get(properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        writer.shutdown();
+        scheduler.shutdown();
+    }
+
+    /**
+     * shard 가 primary 와 달라졌을 수 있으므로 조회를 바로 primary 로 보내고, 전체 동기화를 한 번만 예약한다.
+     */
+    private void markStale() {
+        staleMarks.incrementAndGet();
+        shards.setReady(false);
+        if (resyncScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::deferredResync, Instant.now().plus(properties.getResyncDelay()));
+        }
+    }
+
+    /**
+     * 실행 전에 표시를 내려야 동기화 중에 온 벌크 변경이 다음 동기화를 예약할 수 있다.
+     */
+    private void deferredResync() {
+        resyncScheduled.set(false);
+        try {
+            resync();
+        } catch (RuntimeException e) {
+            log.error("shard 동기화에 실패했습니다. 다음 벌크 변경 때 다시 시도합니다.", e);
+        }
+    }
+
+    @EventListener
+    public void onEntityChange(EntityChangeEvent event) {
+        if (!event.isOf(Member.class) && !event.isOf(Team.class)) {
+            return;
+        }
+        try {
+            writer.execute(() -> write(event));
+        } catch (TaskRejectedException e) {
+            writeFailures.increment();
+            log.warn("shard 쓰기 대기열이 가득 차 {} 를 버리고 전체 동기화를 예약합니다.", event);
+            markStale();
+        }
+    }
+
+    /**
+     * shard-writer 스레드에서 실행된다. 전체 동기화 중이면 모아두고, 아니면 바로 쓴다.
+     * 동기화가 이벤트보다 나중 값을 읽은 뒤에 이전 이벤트를 쓰지 않도록, 모으든 쓰든 같은 monitor 안에서 처리한다.
+     */
+    private void write(EntityChangeEvent event) {
+        try {
+            synchronized (this) {
+                if (pending != null) {
+                    pending.add(event);
+                    return;
+                }
+                shards.write(() -> {
+                    apply(event);
+                    return null;
+                });
+            }
+        } catch (RuntimeException e) {
+            writeFailures.increment();
+            log.warn("shard 에 {} 를 반영하지 못해 전체 동기화를 예약합니다.", event, e);
+            markStale();
+        }
+    }
+
+    /**
+     * @return shard 별 회원 수
+     */
+    public long[] resync() {
+        synchronized (this) {
+            if (pending == null) {
+                pending = new ArrayList<>();
+            }
+        }
+        try {
+            return resyncTimer.record(this::redistribute);
+        } catch (RuntimeException e) {
+            // 모아둔 이벤트는 다음 동기화가 primary 에서 다시 읽으므로 버린다.
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+    }
+
+    private long[] redistribute() {
+        return shards.relocate(() -> {
+            long start = System.nanoTime();
+            long marks = staleMarks.get();
+            shards.setReady(false);
+            Map<Long, Integer> placement = shards.readPlacement();
+            for (MemberShards.Shard shard : shards.all()) {
+                shard.getJdbcTemplate().update("delete from member");
+                shard.getJdbcTemplate().update("delete from team");
+            }
+            shards.clearDirectory();
+
+            long[] members = new long[shards.size()];
+            primaryTransaction.executeWithoutResult(status -> {
+                try (ShardBatches teams = new ShardBatches(shards, "insert into team (team_id, name, member_id) values (?, ?, ?)", properties.getBatchSize())) {
+                    stream("select team_id, name, member_id from team", rs -> {
+                        long teamId = rs.getLong(1);
+                        int index = placement.getOrDefault(teamId, shards.indexOfTeam(teamId));
+                        shards.assign(teamId, index);
+                        teams.add(index, teamId, rs.getString(2), rs.getObject(3));
+                    });
+                }
+                try (ShardBatches rows = new ShardBatches(shards, "insert into member (member_id, username, age, team_id) values (?, ?, ?, ?)", properties.getBatchSize())) {
+                    stream("select member_id, username, age, team_id from member", rs -> {
+                        long memberId = rs.getLong(1);
+                        Long teamId = rs.getObject(4, Long.class);
+                        int index = shards.indexOfMember(memberId, teamId);
+                        members[index]++;
+                        rows.add(index, memberId, rs.getString(2), rs.getInt(3), teamId);
+                    });
+                }
+            });
+
+            applyPending();
+            // 동기화 중에 온 벌크 변경이나 쓰기 실패는 예약된 다음 동기화가 끝나야 반영된다.
+            shards.setReady(staleMarks.get() == marks);
+            log.info("shard 동기화 완료 : 회원 수 {} ({} ms)", Arrays.toString(members), (System.nanoTime() - start) / 1_000_000);
+            return members;
+        });
+    }
+
+    /**
+     * 모아둔 이벤트가 없을 때 pending 을 비워야 이후 이벤트가 바로 반영된다.
+     * (동시에 요청된 다른 동기화가 먼저 비웠다면 null 이다)
+     */
+    private void applyPending() {
+        while (true) {
+            List<EntityChangeEvent> events;
+            synchronized (this) {
+                if (pending == null || pending.isEmpty()) {
+                    pending = null;
+                    return;
+                }
+                events = pending;
+                pending = new ArrayList<>();
+            }
+            events.forEach(this::apply);
+        }
+    }
+
+    private void apply(EntityChangeEvent event) {
+        if (event.isOf(Team.class)) {
+            applyTeam(event);
+        } else {
+            applyMember(event);
+        }
+    }
+
+    private void applyTeam(EntityChangeEvent event) {
+        Long teamId = (Long) event.getId();
+        MemberShards.Shard shard = shards.ofTeam(teamId);
+        if (event.getType() == EntityChangeEvent.Type.DELETE) {
+            shard.getJdbcTemplate().update("delete from team where team_id = ?", teamId);
+            shards.unassign(teamId);
+            return;
+        }
+        shards.assign(teamId, shard.getIndex());
+        shard.getJdbcTemplate().update(MERGE_TEAM, teamId, event.get("name"), idOf(event.get("leader")));
+    }
+
+    private void applyMember(EntityChangeEvent event) {
+        Long memberId = (Long) event.getId();
+        if (event.getType() == EntityChangeEvent.Type.DELETE) {
+            deleteMember(memberId, event.getOldState() != null ? shards.indexOfMember(memberId, idOf(event.getOld("team"))) : -1, -1);
+            return;
+        }
+
+        Long teamId = idOf(event.get("team"));
+        int index = shards.indexOfMember(memberId, teamId);
+        shards.get(index).getJdbcTemplate().update(MERGE_MEMBER, memberId, event.get("username"), event.get("age"), teamId);
+
+        if (event.getType() == EntityChangeEvent.Type.UPDATE) {
+            // 팀이 바뀌어 shard 가 달라졌으면 이전 shard 의 행을 지운다. 변경 전 값을 모르면 다른 모든 shard 에서 지운다.
+            int previous = event.getOldState() != null ? shards.indexOfMember(memberId, idOf(event.getOld("team"))) : -1;
+            if (previous != index) {
+                deleteMember(memberId, previous, index);
+            }
+        }
+    }
+
+    /**
+     * @param index  -1 이면 except 를 제외한 모든 shard
+     */
+    private void deleteMember(Long memberId, int index, int except) {
+        for (MemberShards.Shard shard : shards.all()) {
+            if (index >= 0 ? shard.getIndex() == index : shard.getIndex() != except) {
+                shard.getJdbcTemplate().update("delete from member where member_id = ?", memberId);
+            }
+        }
+    }
+
+    private void stream(String sql, RowCallbackHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(properties.getBatchSize());
+            return ps;
+        }, handler);
+    }
+
+    private Long idOf(Object entity) {
+        return entity != null ? (Long) persistenceUnitUtil.getIdentifier(entity) : null;
+    }
+}
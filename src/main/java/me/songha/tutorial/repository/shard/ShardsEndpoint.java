@@ -0,0 +1,45 @@
+package me.songha.tutorial.repository.shard;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * shard 상태 확인 / 팀 이동 도구 (/actuator/shards)
+ * - GET : shard 별 회원 수와 rebalance 계획
+ * - POST {"teamId": 1, "shard": 2} : 팀 하나를 옮긴다. 본문이 없으면 rebalance 계획대로 옮긴다.
+ */
+@Component
+@Endpoint(id = "shards")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.sharding", name = "enabled", havingValue = "true")
+public class ShardsEndpoint {
+
+    private final MemberShards shards;
+    private final ShardRebalancer rebalancer;
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ready", shards.isReady());
+        status.put("members", rebalancer.distribution());
+        status.put("plan", rebalancer.plan());
+        return status;
+    }
+
+    @WriteOperation
+    public List<ShardRebalancer.Move> move(@Nullable Long teamId, @Nullable Integer shard) {
+        if (teamId == null || shard == null) {
+            return rebalancer.rebalance();
+        }
+        return List.of(rebalancer.move(teamId, shard));
+    }
+}
@@ -0,0 +1,95 @@
+package me.songha.tutorial.repository.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import me.songha.tutorial.config.CountCacheProperties;
+import me.songha.tutorial.domain.event.DataVersion;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.function.LongSupplier;
+
+/**
+ * ** 검색 조건별 전체 건수 캐시 **
+ * 페이지를 넘길 때마다 같은 조건으로 member left join team 전체를 count 하는 비용을 줄이기 위해,
+ * 정규화된 MemberSearchCondition 을 key 로 건수를 캐시한다.
+ *
+ * 캐시된 값은 계산할 당시의 DataVersion 을 함께 가지고 있어서, Member / Team 이 커밋되거나
+ * 벌크 update 가 발생하면(BulkChangeEvent) 다음 조회 때 다시 계산된다.
+ * 실행 계획 점검(QueryStatistics.captureWithoutRows())은 건수가 항상 0 이므로 캐시를 거치지 않고 countQuery 를 실행한다.
+ */
+@Component
+public class MemberCountCache {
+
+    private final CountCacheProperties properties;
+    private final DataVersion dataVersion;
+    private final JdbcTemplate jdbcTemplate;
+    private final QueryStatistics queryStatistics;
+    private final Cache<MemberSearchCondition, CachedCount> cache;
+
+    public MemberCountCache(CountCacheProperties properties, DataVersion dataVersion, JdbcTemplate jdbcTemplate,
+                            QueryStatistics queryStatistics) {
+        this.properties = properties;
+        this.dataVersion = dataVersion;
+        this.jdbcTemplate = jdbcTemplate;
+        this.queryStatistics = queryStatistics;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .build();
+    }
+
+    public long count(MemberSearchCondition condition, LongSupplier countQuery) {
+        if (queryStatistics.isCapturingWithoutRows()) {
+            return countQuery.getAsLong();
+        }
+        if (properties.getMode() == CountCacheProperties.Mode.ESTIMATED && condition.hasNoFilter()) {
+            return estimatedMemberCount();
+        }
+
+        MemberSearchCondition key = condition.normalized();
+        CachedCount cached = cache.getIfPresent(key);
+        if (cached != null && isUsable(cached)) {
+            return cached.count;
+        }
+
+        long version = dataVersion.current();
+        long count = countQuery.getAsLong();
+        cache.put(key, new CachedCount(version, count, System.nanoTime()));
+        return count;
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private boolean isUsable(CachedCount cached) {
+        if (cached.version == dataVersion.current()) {
+            return true;
+        }
+        return properties.getMode() == CountCacheProperties.Mode.ESTIMATED
+                && System.nanoTime() - cached.computedAt < properties.getMaxStaleness().toNanos();
+    }
+
+    /**
+     * 조건이 없으면 left join 이라 member 테이블의 건수와 같으므로 H2 가 관리하는 추정치를 사용한다.
+     */
+    private long estimatedMemberCount() {
+        Long estimate = jdbcTemplate.queryForObject(
+                "select row_count_estimate from information_schema.tables where table_name = 'MEMBER'", Long.class);
+        return estimate != null ? estimate : 0L;
+    }
+
+    private static class CachedCount {
+        private final long version;
+        private final long count;
+        private final long computedAt;
+
+        private CachedCount(long version, long count, long computedAt) {
+            this.version = version;
+            this.count = count;
+            this.computedAt = computedAt;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static me.songha.tutorial.domain.QMember.member;
+
+/**
+ * ** Member id 존재 여부 bitmap **
+ * 존재하지 않는 id 로 exist() 를 호출하는 경우가 대부분이라면, DB 에 가지 않고 메모리에서 "없다" 를 바로 답할 수 있도록 한다.
+ * Member id 는 시퀀스로 발급되어 빈틈이 적으므로 Bloom filter 대신 id 를 그대로 bit 위치로 쓰는 BitSet 을 사용한다.
+ * id 하나에 1 bit (최대 id / 8 byte) 이고, 해시 충돌이 없어 delete 도 그대로 반영할 수 있다.
+ *
+ * 애플리케이션이 뜨면 id 만 forward-only 커서로 읽어 만들고, 이후에는 커밋된 Member 의 insert / delete 이벤트로 갱신한다.
+ * 행이 추가 / 삭제되었을 수 있는 벌크 변경(BulkChangeEvent)이 있으면 bitmap 을 비우고 별도 스레드에서 다시 만든다.
+ * chunkedUpdate() 처럼 이벤트가 연달아 와도 다시 만드는 작업은 한 번만 대기열에 두며, 다시 만드는 중에 온 이벤트는 끝난 뒤 한 번 더 읽는다.
+ * 벌크 update(updateOnly)는 id 가 바뀌지 않으므로 무시한다.
+ * 다시 만드는 동안과 bitmap 으로 표현할 수 없는 id(음수, int 범위 초과)는 DB 에 확인한다.
+ * 쓰기 트랜잭션 안에서 호출되면 그 트랜잭션이 저장하고 아직 커밋하지 않은 행은 bitmap 에 없으므로, 이때도 DB 에 확인한다.
+ *
+ * bit 가 있으면 DB 에 다시 확인하므로 결과는 항상 DB 와 같다. 커밋 직후 이벤트가 오기 전에 조회하거나 JPA 를 거치지 않고 넣은 행은
+ * 잠시 없다고 답할 수 있다. 확인 결과는 member.id.filter 카운터(answer)와 false positive 비율, 메모리 사용량 gauge 로 남긴다.
+ * 다시 만든 횟수는 member.id.filter.rebuilds 카운터로 남긴다.
+ */
+@Slf4j
+@Component
+public class MemberIdFilter implements DisposableBean {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate primaryTransaction;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadPoolTaskExecutor rebuilder;
+    /** 마지막으로 읽기 시작한 뒤 다시 읽어야 하는 변경이 있었는지 */
+    private final AtomicBoolean stale = new AtomicBoolean();
+    /** 다시 만드는 작업이 대기열에 있거나 실행 중인지 */
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /** null 이면 아직 만들어지지 않았거나 다시 만드는 중이다. */
+    private BitSet ids;
+    /** 다시 만드는 동안 커밋된 insert. 읽어온 결과에 합친다. */
+    private BitSet pending;
+
+    private final Counter absent;
+    private final Counter present;
+    private final Counter falsePositive;
+    private final Counter unknown;
+    private final Counter rebuilds;
+
+    public MemberIdFilter(JPAQueryFactory queryFactory, PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry) {
+        this.queryFactory = queryFactory;
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.primaryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.primaryTransaction.setReadOnly(true);
+        this.rebuilder = new ThreadPoolTaskExecutor();
+        this.rebuilder.setCorePoolSize(1);
+        this.rebuilder.setMaxPoolSize(1);
+        this.rebuilder.setThreadNamePrefix("member-id-filter-");
+        this.rebuilder.initialize();
+
+        this.absent = meterRegistry.counter("member.id.filter", "answer", "absent");
+        this.present = meterRegistry.counter("member.id.filter", "answer", "present");
+        this.falsePositive = meterRegistry.counter("member.id.filter", "answer", "false-positive");
+        this.unknown = meterRegistry.counter("member.id.filter", "answer", "unknown");
+        this.rebuilds = meterRegistry.counter("member.id.filter.rebuilds");
+        Gauge.builder("member.id.filter.bytes", this, MemberIdFilter::bytes).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("member.id.filter.false.positive.rate", this, MemberIdFilter::falsePositiveRate).register(meterRegistry);
+    }
+
+    /**
+     * false 이면 해당 id 의 Member 는 없다. true 이면 있을 수 있으므로 DB 에 확인한 뒤 confirm() 으로 결과를 알려준다.
+     */
+    public boolean mightContain(Long id) {
+        lock.readLock().lock();
+        try {
+            if (!covers(id)) {
+                return true;
+            }
+            if (ids.get(id.intValue())) {
+                return true;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        absent.increment();
+        return false;
+    }
+
+    public void confirm(Long id, boolean exists) {
+        lock.readLock().lock();
+        try {
+            if (!covers(id)) {
+                unknown.increment();
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        (exists ? present : falsePositive).increment();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        stale.set(true);
+        rebuild();
+    }
+
+    @EventListener
+    public void onMemberChange(EntityChangeEvent event) {
+        if (!event.isOf(Member.class) || event.getType() == EntityChangeEvent.Type.UPDATE) {
+            return;
+        }
+        Long id = (Long) event.getId();
+        if (!representable(id)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            boolean inserted = event.getType() == EntityChangeEvent.Type.INSERT;
+            if (ids != null) {
+                ids.set(id.intValue(), inserted);
+            }
+            if (pending != null && inserted) {
+                pending.set(id.intValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        if (!event.isOf(Member.class) || event.isUpdateOnly()) {
+            return;
+        }
+        // 커밋한 스레드에서는 비우기만 하고, 읽는 작업은 rebuilder 에 맡긴다.
+        lock.writeLock().lock();
+        try {
+            ids = null;
+            stale.set(true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleRebuild();
+    }
+
+    @Override
+    public void destroy() {
+        rebuilder.shutdown();
+    }
+
+    private void scheduleRebuild() {
+        if (rebuilding.compareAndSet(false, true)) {
+            rebuilder.execute(this::rebuildWhileStale);
+        }
+    }
+
+    private void rebuildWhileStale() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.warn("member id filter 를 만들지 못했습니다. 다음 벌크 변경까지 DB 로 확인합니다.", e);
+        } finally {
+            rebuilding.set(false);
+        }
+        // rebuilding 을 내리기 직전에 도착한 이벤트가 대기열에 넣지 못했을 수 있다.
+        if (stale.get()) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * 읽는 동안에는 DB 로 확인하도록 비워두고, 그 사이 커밋된 insert 는 pending 에 모았다가 합친다.
+     * 읽는 동안 delete 된 id 가 남을 수 있지만 DB 에 다시 확인하므로 false positive 가 될 뿐이다.
+     * 읽는 동안 다시 벌크 변경이 있었다면 결과를 버리고 한 번 더 읽는다.
+     */
+    private synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            if (!stale.getAndSet(false)) {
+                return;
+            }
+            ids = null;
+            pending = new BitSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        BitSet loaded = new BitSet();
+        primaryTransaction.executeWithoutResult(status -> {
+            try (Stream<Long> stream = queryFactory
+                    .select(member.id)
+                    .from(member)
+                    .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                    .stream()) {
+                stream.filter(MemberIdFilter::representable).forEach(id -> loaded.set(id.intValue()));
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            if (stale.get()) {
+                return;
+            }
+            loaded.or(pending);
+            ids = loaded;
+            pending = null;
+            rebuilds.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("member id filter: {} ids, {} bytes", loaded.cardinality(), loaded.size() / 8);
+    }
+
+    private boolean covers(Long id) {
+        return ids != null && representable(id) && !inWriteTransaction();
+    }
+
+    private static boolean inWriteTransaction() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private static boolean representable(Long id) {
+        return id != null && id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    private double bytes() {
+        lock.readLock().lock();
+        try {
+            return ids == null ? 0 : ids.size() / 8.0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * bitmap 이 있다고 답한 것 중 DB 에 없었던 비율
+     */
+    private double falsePositiveRate() {
+        double positives = present.count() + falsePositive.count();
+        return positives == 0 ? 0 : falsePositive.count() / positives;
+    }
+}
@@ -0,0 +1,201 @@
+package me.songha.tutorial.repository.support;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.querydsl.core.types.*;
+import com.querydsl.core.types.dsl.ComparableExpressionBase;
+import com.querydsl.core.types.dsl.Expressions;
+import me.songha.tutorial.dto.MemberTeamDto;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static me.songha.tutorial.domain.QTeam.team;
+
+/**
+ * ** 임의의 정렬 키에 대한 No Offset(keyset) 조건 생성 **
+ * 정렬 키가 (age, id) 처럼 여러 개일 때 "마지막 행 다음" 은 아래와 같이 표현된다.
+ * (age > :age) or (age = :age and id > :id)
+ * 마지막 키로는 항상 member.id 를 붙여 정렬 순서가 유일하게 결정되도록 하고,
+ * null 이 가능한 컬럼(username, teamId, teamName)은 nulls last 로 정렬해 null 이후의 위치도 표현할 수 있도록 한다.
+ *
+ * cursor 토큰에는 정렬 정보와 마지막 행의 키 값을 담아 base64 로 내려주며,
+ * 정렬이 다른 요청에 토큰을 재사용하면 IllegalArgumentException 을 던진다.
+ */
+public class MemberKeyset {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public enum Key {
+        MEMBER_ID("memberId", member.id, Long.class, false, MemberTeamDto::getMemberId),
+        USERNAME("username", member.username, String.class, true, MemberTeamDto::getUsername),
+        AGE("age", member.age, Integer.class, false, MemberTeamDto::getAge),
+        TEAM_ID("teamId", team.id, Long.class, true, MemberTeamDto::getTeamId),
+        TEAM_NAME("teamName", team.name, String.class, true, MemberTeamDto::getTeamName);
+
+        private final String property;
+        private final ComparableExpressionBase<?> expression;
+        private final Class<?> type;
+        private final boolean nullable;
+        private final Function<MemberTeamDto, Object> extractor;
+
+        Key(String property, ComparableExpressionBase<?> expression, Class<?> type, boolean nullable,
+            Function<MemberTeamDto, Object> extractor) {
+            this.property = property;
+            this.expression = expression;
+            this.type = type;
+            this.nullable = nullable;
+            this.extractor = extractor;
+        }
+
+        static Key of(String property) {
+            return Arrays.stream(values())
+                    .filter(key -> key.property.equals(property))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("keyset 정렬을 지원하지 않는 속성입니다. property=" + property));
+        }
+    }
+
+    private final List<Key> keys = new ArrayList<>();
+    private final List<Order> orders = new ArrayList<>();
+
+    private MemberKeyset() {
+    }
+
+    /**
+     * 정렬 조건이 없으면 noOffset() 과 같이 member.id desc 로 정렬한다.
+     */
+    public static MemberKeyset of(Sort sort) {
+        MemberKeyset keyset = new MemberKeyset();
+        Order last = Order.DESC;
+
+        for (Sort.Order order : sort) {
+            Key key = Key.of(order.getProperty());
+            if (keyset.keys.contains(key)) {
+                continue;
+            }
+            last = order.isAscending() ? Order.ASC : Order.DESC;
+            keyset.keys.add(key);
+            keyset.orders.add(last);
+        }
+
+        if (!keyset.keys.contains(Key.MEMBER_ID)) {
+            keyset.keys.add(Key.MEMBER_ID);
+            keyset.orders.add(last);
+        }
+        return keyset;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public OrderSpecifier<?>[] orderSpecifiers() {
+        OrderSpecifier<?>[] specifiers = new OrderSpecifier[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            Key key = keys.get(i);
+            specifiers[i] = new OrderSpecifier(orders.get(i), key.expression,
+                    key.nullable ? OrderSpecifier.NullHandling.NullsLast : OrderSpecifier.NullHandling.Default);
+        }
+        return specifiers;
+    }
+
+    /**
+     * cursor 가 없으면 첫 페이지이므로 null 을 반환해 where 절에서 제외되도록 한다.
+     */
+    public Predicate after(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+
+        Object[] values = decode(cursor);
+        List<Predicate> terms = new ArrayList<>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            Predicate after = after(keys.get(i), orders.get(i), values[i]);
+            if (after == null) {
+                continue;
+            }
+
+            List<Predicate> term = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                term.add(equal(keys.get(j), values[j]));
+            }
+            term.add(after);
+            terms.add(ExpressionUtils.allOf(term));
+        }
+
+        return terms.isEmpty() ? Expressions.FALSE.isTrue() : ExpressionUtils.anyOf(terms);
+    }
+
+    public String cursorOf(MemberTeamDto last) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("s", signature());
+        ArrayNode values = node.putArray("v");
+        for (Key key : keys) {
+            values.addPOJO(key.extractor.apply(last));
+        }
+
+        try {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(objectMapper.writeValueAsBytes(node));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Object[] decode(String cursor) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            throw new IllegalArgumentException("올바르지 않은 cursor 입니다.", e);
+        }
+
+        JsonNode values = node.path("v");
+        if (!signature().equals(node.path("s").asText()) || values.size() != keys.size()) {
+            throw new IllegalArgumentException("cursor 의 정렬 조건이 요청과 다릅니다.");
+        }
+
+        Object[] result = new Object[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            JsonNode value = values.get(i);
+            result[i] = value.isNull() ? null : objectMapper.convertValue(value, keys.get(i).type);
+        }
+        return result;
+    }
+
+    private String signature() {
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            parts.add(keys.get(i).property + ":" + orders.get(i));
+        }
+        return String.join(",", parts);
+    }
+
+    /**
+     * nulls last 정렬이므로 null 다음에 오는 값은 없고, null 이 아닌 값 다음에는 더 큰(작은) 값과 null 이 온다.
+     */
+    private Predicate after(Key key, Order order, Object value) {
+        if (value == null) {
+            return null;
+        }
+
+        Predicate after = Expressions.predicate(order == Order.ASC ? Ops.GT : Ops.LT,
+                key.expression, Expressions.constant(value));
+
+        return key.nullable ? ExpressionUtils.or(after, Expressions.predicate(Ops.IS_NULL, key.expression)) : after;
+    }
+
+    private Predicate equal(Key key, Object value) {
+        return value == null
+                ? Expressions.predicate(Ops.IS_NULL, key.expression)
+                : Expressions.predicate(Ops.EQ, key.expression, Expressions.constant(value));
+    }
+}
@@ -0,0 +1,110 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.config.MemberLoaderProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ** 단건 조회 모으기 (DataLoader) **
+ * 여러 요청 스레드가 동시에 id 하나씩 조회하면 조회마다 쿼리가 나간다.
+ * load() 는 바로 조회하지 않고 window 동안 들어온 id 를 모았다가 findByIds() 한 번으로 조회해 각자의 future 를 완료한다.
+ * 같은 id 를 동시에 조회하면 하나의 future 를 같이 기다린다.
+ *
+ * 조회는 loader 스레드의 읽기 전용 트랜잭션에서 실행되므로 돌려받은 Member 는 준영속 상태이며 team 을 지연 로딩할 수 없다.
+ * member.loader.batch.size 의 count 가 실제 쿼리 수, member.loader.requests 가 요청 수이다.
+ */
+@Component
+public class MemberLoader implements DisposableBean {
+
+    private final FinalMemberRepository repository;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final Counter requests;
+    private final DistributionSummary batchSize;
+
+    private Map<Long, CompletableFuture<Optional<Member>>> pending = new HashMap<>();
+    private boolean scheduled;
+
+    public MemberLoader(FinalMemberRepository repository, MemberLoaderProperties properties, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(properties.getPoolSize());
+        this.scheduler.setThreadNamePrefix("member-loader-");
+        this.scheduler.initialize();
+
+        this.windowMillis = properties.getWindow().toMillis();
+        this.maxBatchSize = Math.min(properties.getMaxBatchSize(), FinalMemberRepository.ID_CHUNK_SIZE);
+        this.requests = meterRegistry.counter("member.loader.requests");
+        this.batchSize = DistributionSummary.builder("member.loader.batch.size").register(meterRegistry);
+    }
+
+    public CompletableFuture<Optional<Member>> load(Long memberId) {
+        if (memberId == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        requests.increment();
+
+        CompletableFuture<Optional<Member>> future;
+        boolean full;
+        synchronized (this) {
+            future = pending.computeIfAbsent(memberId, id -> new CompletableFuture<>());
+            full = pending.size() >= maxBatchSize;
+            if (!full && !scheduled) {
+                scheduled = true;
+                scheduler.schedule(this::dispatch, Instant.now().plusMillis(windowMillis));
+            }
+        }
+        if (full) {
+            scheduler.execute(this::dispatch);
+        }
+        return future;
+    }
+
+    /**
+     * load() 결과를 기다린다. 조회에 실패하면 CompletionException 으로 감싸서 던진다.
+     */
+    public Optional<Member> find(Long memberId) {
+        return load(memberId).join();
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdown();
+    }
+
+    private void dispatch() {
+        Map<Long, CompletableFuture<Optional<Member>>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new HashMap<>();
+            scheduled = false;
+        }
+        batchSize.record(batch.size());
+
+        try {
+            List<Member> members = repository.findByIds(batch.keySet());
+            Map<Long, Member> byId = new HashMap<>(members.size() * 2);
+            members.forEach(loaded -> byId.put(loaded.getId(), loaded));
+            batch.forEach((id, future) -> future.complete(Optional.ofNullable(byId.get(id))));
+        } catch (RuntimeException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Param;
+import com.querydsl.jpa.JPAQueryBase;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.impl.JPAProvider;
+import com.querydsl.jpa.impl.JPAQuery;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.QueryTimeout;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static me.songha.tutorial.domain.QTeam.team;
+
+/**
+ * ** 조건 형태(shape)별 쿼리 템플릿 캐시 **
+ * searchByWhere() 는 호출할 때마다 Querydsl 표현식을 새로 만들고 JPQL 문자열로 직렬화한다.
+ * 하지만 호출마다 달라지는 것은 MemberSearchCondition 중 어떤 필드가 채워져 있는지(최대 16가지)와 값뿐이므로,
+ * 채워진 필드 조합마다 파라미터가 들어갈 자리만 남긴 JPQL 을 한번만 만들어두고 이후에는 값만 바인딩한다.
+ *
+ * 캐시 적중 / 미스(템플릿을 컴파일한) 횟수는 member.search.template 메트릭(result=hit|miss)으로 확인할 수 있다.
+ */
+@Component
+public class MemberSearchTemplates {
+
+    private static final int USERNAME = 1;
+    private static final int TEAM_NAME = 1 << 1;
+    private static final int AGE_GOE = 1 << 2;
+    private static final int AGE_LOE = 1 << 3;
+
+    private final EntityManager entityManager;
+    private final Map<Integer, Template> templates = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+
+    public MemberSearchTemplates(EntityManager entityManager, MeterRegistry meterRegistry) {
+        this.entityManager = entityManager;
+        this.hits = meterRegistry.counter("member.search.template", "result", "hit");
+        this.misses = meterRegistry.counter("member.search.template", "result", "miss");
+        Gauge.builder("member.search.template.size", templates, Map::size).register(meterRegistry);
+    }
+
+    public List<MemberTeamDto> search(MemberSearchCondition condition) {
+        MemberSearchCondition normalized = condition.normalized();
+        Template template = templateOf(shapeOf(normalized));
+
+        Query query = QueryTimeout.apply(entityManager.createQuery(template.jpql));
+        for (int i = 0; i < template.params.size(); i++) {
+            query.setParameter(i + 1, valueOf(template.params.get(i), normalized));
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = query.getResultList();
+
+        List<MemberTeamDto> result = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            result.add(new MemberTeamDto((Long) row[0], (String) row[1], (Integer) row[2], (Long) row[3], (String) row[4]));
+        }
+        return result;
+    }
+
+    /**
+     * 같은 shape 를 동시에 처음 조회해도 한 번만 컴파일하므로, miss 는 컴파일한 스레드에서만 센다.
+     */
+    private Template templateOf(int shape) {
+        boolean[] compiled = new boolean[1];
+        Template template = templates.computeIfAbsent(shape, key -> {
+            compiled[0] = true;
+            return compile(key);
+        });
+        (compiled[0] ? misses : hits).increment();
+        return template;
+    }
+
+    private int shapeOf(MemberSearchCondition condition) {
+        int shape = 0;
+        if (condition.getUsername() != null) {
+            shape |= USERNAME;
+        }
+        if (condition.getTeamName() != null) {
+            shape |= TEAM_NAME;
+        }
+        if (condition.getAgeGoe() != null) {
+            shape |= AGE_GOE;
+        }
+        if (condition.getAgeLoe() != null) {
+            shape |= AGE_LOE;
+        }
+        return shape;
+    }
+
+    /**
+     * searchByWhere() 와 같은 쿼리를 값 대신 Param 으로 만들어 직렬화한다. 실행하지 않으므로 timeout 을 걸지 않는다.
+     */
+    private Template compile(int shape) {
+        JPAQueryBase<?, ?> query = new JPAQuery<>(entityManager)
+                .select(member.id, member.username, member.age, team.id, team.name)
+                .from(member)
+                .leftJoin(member.team, team)
+                .where(
+                        (shape & USERNAME) != 0 ? member.username.eq(new Param<>(String.class, "username")) : null,
+                        (shape & TEAM_NAME) != 0 ? team.name.eq(new Param<>(String.class, "teamName")) : null,
+                        (shape & AGE_GOE) != 0 ? ageParam("ageGoe", true) : null,
+                        (shape & AGE_LOE) != 0 ? ageParam("ageLoe", false) : null);
+
+        JPQLSerializer serializer = new JPQLSerializer(JPAProvider.getTemplates(entityManager), entityManager);
+        serializer.serialize(query.getMetadata(), false, null);
+
+        List<ParamExpression<?>> params = new ArrayList<>();
+        for (Object constant : serializer.getConstants()) {
+            params.add((ParamExpression<?>) constant);
+        }
+        return new Template(serializer.toString(), params);
+    }
+
+    private BooleanExpression ageParam(String name, boolean goe) {
+        Param<Integer> param = new Param<>(Integer.class, name);
+        return goe ? member.age.goe(param) : member.age.loe(param);
+    }
+
+    private Object valueOf(ParamExpression<?> param, MemberSearchCondition condition) {
+        switch (param.getName()) {
+            case "username":
+                return condition.getUsername();
+            case "teamName":
+                return condition.getTeamName();
+            case "ageGoe":
+                return condition.getAgeGoe();
+            case "ageLoe":
+                return condition.getAgeLoe();
+            default:
+                throw new IllegalStateException("알 수 없는 파라미터입니다. name=" + param.getName());
+        }
+    }
+
+    private static class Template {
+        private final String jpql;
+        private final List<ParamExpression<?>> params;
+
+        private Template(String jpql, List<ParamExpression<?>> params) {
+            this.jpql = jpql;
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.config.WriteBehindProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static me.songha.tutorial.domain.QMember.member;
+
+/**
+ * ** username / age 변경 모아서 쓰기 (write-behind) **
+ * dirtyChecking() 처럼 변경마다 트랜잭션을 커밋하면 같은 회원을 짧은 시간에 여러 번 바꿔도 매번 update 가 나간다.
+ * setUsername() / setAge() 는 바로 쓰지 않고 회원 id 별로 마지막 값만 남겨두었다가,
+ * flushInterval 마다 또는 maxBatchSize 명이 모이면 트랜잭션 하나에서 엔티티를 한 번에 조회해 값을 바꾼다.
+ * update 는 hibernate.jdbc.batch_size 만큼씩 JDBC batch 로 나가고, 커밋된 변경은 EntityChangeEvent 로 발행되므로
+ * 캐시와 read model(UsernameIndex, TeamAgeStatsView, SearchResultCache 등)은 그대로 따라온다.
+ *
+ * - 이 노드에서 쓴 값은 pending() / overlay() 로 커밋 전에도 읽을 수 있다. (검색 조건은 DB 의 값으로 비교한다)
+ *   FinalMemberRepository 의 MemberTeamDto 조회(searchByWhere, search 등)는 결과에 overlay() 를 적용하며,
+ *   엔티티를 돌려주는 조회(findByIds 등)는 영속성 컨택스트의 값을 바꾸지 않도록 적용하지 않는다.
+ * - 반영되지 않은 회원이 maxPending 명을 넘으면 새 회원의 변경은 반영될 때까지 기다리고, backpressureTimeout 을 넘으면 실패한다.
+ * - 반영에 실패하면 batch 를 반으로 나눠가며 다시 반영해 실패하는 변경만 골라낸다.
+ *   골라낸 변경은 그 사이 들어온 변경보다 앞선 값으로 다시 모아두고, maxAttempts 번 실패하면 버린다. (member.write-behind.dropped)
+ * - 종료할 때 남은 변경을 모두 반영한다. 그 전에 프로세스가 죽으면 반영되지 않은 변경은 사라진다.
+ * - 반영 시점에 없는 회원(삭제됨)의 변경은 버린다.
+ *
+ * member.write-behind.pending : 반영되지 않은 회원 수, member.write-behind.coalesced : 합쳐진 변경 수
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "app.write-behind", name = "enabled", havingValue = "true")
+public class MemberWriteBehind implements DisposableBean {
+
+    /**
+     * 회원 한 명의 반영되지 않은 변경. null 인 값은 바꾸지 않는다.
+     */
+    @Getter
+    @ToString
+    public static class Change {
+        private final String username;
+        private final Integer age;
+
+        private Change(String username, Integer age) {
+            this.username = username;
+            this.age = age;
+        }
+
+        private Change merge(Change newer) {
+            return new Change(newer.username != null ? newer.username : username, newer.age != null ? newer.age : age);
+        }
+
+        private void applyTo(Member target) {
+            if (username != null) {
+                target.setUsername(username);
+            }
+            if (age != null) {
+                target.setAge(age);
+            }
+        }
+    }
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final int maxAttempts;
+    private final long backpressureTimeoutNanos;
+
+    private final ConcurrentHashMap<Long, Change> pending = new ConcurrentHashMap<>();
+    /** 반영 중인 변경. 커밋될 때까지 pending() 에서 보이도록 pending 에서 꺼내기 전에 여기에 넣는다. */
+    private final ConcurrentHashMap<Long, Change> flushing = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Object capacity = new Object();
+    /** 반영에 실패한 회원별 횟수. 성공하거나 버리면 지운다. */
+    private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final Counter coalesced;
+    private final Counter rejected;
+    private final Counter failures;
+    private final Counter dropped;
+    private final DistributionSummary flushSize;
+
+    public MemberWriteBehind(JPAQueryFactory queryFactory, PlatformTransactionManager transactionManager,
+                             WriteBehindProperties properties, MeterRegistry meterRegistry) {
+        this.queryFactory = queryFactory;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.maxBatchSize = properties.getMaxBatchSize();
+        this.maxPending = properties.getMaxPending();
+        this.maxAttempts = Math.max(properties.getMaxAttempts(), 1);
+        this.backpressureTimeoutNanos = properties.getBackpressureTimeout().toNanos();
+
+        this.coalesced = meterRegistry.counter("member.write-behind.coalesced");
+        this.rejected = meterRegistry.counter("member.write-behind.rejected");
+        this.failures = meterRegistry.counter("member.write-behind.failures");
+        this.dropped = meterRegistry.counter("member.write-behind.dropped");
+        this.flushSize = DistributionSummary.builder("member.write-behind.flush.size").register(meterRegistry);
+        meterRegistry.gaugeMapSize("member.write-behind.pending", Tags.empty(), pending);
+
+        this.scheduler = new ThreadPoolTaskScheduler();
+        this.scheduler.setPoolSize(1);
+        this.scheduler.setThreadNamePrefix("member-write-behind-");
+        this.scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        this.scheduler.initialize();
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, properties.getFlushInterval());
+    }
+
+    public void setUsername(Long memberId, String username) {
+        buffer(memberId, new Change(Objects.requireNonNull(username, "username"), null));
+    }
+
+    public void setAge(Long memberId, int age) {
+        buffer(memberId, new Change(null, age));
+    }
+
+    /**
+     * 아직 커밋되지 않은 memberId 의 변경. 반영 중인 변경과 그 뒤에 들어온 변경을 합친 값이다.
+     */
+    public Optional<Change> pending(Long memberId) {
+        // pending 에서 꺼내기 전에 flushing 에 넣으므로, pending 을 먼저 봐야 둘 다 놓치는 순간이 없다.
+        Change buffered = pending.get(memberId);
+        Change inFlight = flushing.get(memberId);
+        if (inFlight == null) {
+            return Optional.ofNullable(buffered);
+        }
+        return Optional.of(buffered != null ? inFlight.merge(buffered) : inFlight);
+    }
+
+    /**
+     * 조회 결과에 이 노드의 반영되지 않은 변경을 덮어쓴 dto. 변경이 없으면 같은 인스턴스를 돌려준다.
+     * 캐시된 결과를 넘길 수 있도록 원래 dto 는 수정하지 않는다.
+     */
+    public MemberTeamDto overlay(MemberTeamDto row) {
+        Optional<Change> change = pending(row.getMemberId());
+        if (change.isEmpty()) {
+            return row;
+        }
+        String username = change.get().username != null ? change.get().username : row.getUsername();
+        int age = change.get().age != null ? change.get().age : row.getAge();
+        return new MemberTeamDto(row.getMemberId(), username, age, row.getTeamId(), row.getTeamName());
+    }
+
+    public List<MemberTeamDto> overlay(List<MemberTeamDto> rows) {
+        if (pending.isEmpty() && flushing.isEmpty()) {
+            return rows;
+        }
+        List<MemberTeamDto> result = new ArrayList<>(rows.size());
+        rows.forEach(row -> result.add(overlay(row)));
+        return result;
+    }
+
+    /**
+     * 지금까지 모인 변경을 모두 반영한다. 반영하는 동안 새로 들어온 변경은 다음 flush 로 넘길 수 있다.
+     *
+     * @return 반영한 회원 수
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            int written = 0;
+            int batches = pending.size() / maxBatchSize + 1;
+            for (int i = 0; i < batches && !pending.isEmpty(); i++) {
+                written += flushBatch();
+            }
+            return written;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            while (!pending.isEmpty()) {
+                flush();
+            }
+        } catch (RuntimeException e) {
+            log.error("종료 전에 반영하지 못한 회원 변경이 있습니다. 회원 수 : {}", pending.size(), e);
+        }
+    }
+
+    private void buffer(Long memberId, Change change) {
+        Objects.requireNonNull(memberId, "memberId");
+        if (closed) {
+            throw new IllegalStateException("MemberWriteBehind 가 종료되었습니다.");
+        }
+        if (!pending.containsKey(memberId) && pending.size() >= maxPending) {
+            awaitCapacity();
+        }
+
+        boolean[] merged = new boolean[1];
+        pending.merge(memberId, change, (buffered, newer) -> {
+            merged[0] = true;
+            return buffered.merge(newer);
+        });
+        if (merged[0]) {
+            coalesced.increment();
+        }
+        if (pending.size() >= maxBatchSize) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * 여러 스레드가 동시에 확인하고 넣을 수 있으므로 maxPending 은 대략적인 상한이다.
+     */
+    private void awaitCapacity() {
+        long deadline = System.nanoTime() + backpressureTimeoutNanos;
+        synchronized (capacity) {
+            while (pending.size() >= maxPending) {
+                requestFlush();
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected.increment();
+                    throw new IllegalStateException("반영되지 않은 회원 변경이 " + maxPending + " 명을 넘었습니다.");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(capacity, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private void requestFlush() {
+        if (!closed && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushRequested.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("회원 변경 반영에 실패했습니다. 다음 flush 에서 다시 시도합니다.", e);
+        }
+    }
+
+    private int flushBatch() {
+        Map<Long, Change> batch = new HashMap<>(maxBatchSize * 2);
+        for (Long memberId : pending.keySet()) {
+            if (batch.size() >= maxBatchSize) {
+                break;
+            }
+            pending.computeIfPresent(memberId, (id, change) -> {
+                flushing.put(id, change);
+                batch.put(id, change);
+                return null;
+            });
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, Change> failed = new HashMap<>();
+        try {
+            int written = writeIsolating(batch, failed);
+            flushSize.record(batch.size());
+            failed.forEach(this::retryOrDrop);
+            return written;
+        } finally {
+            batch.forEach(flushing::remove);
+            signalCapacity();
+        }
+    }
+
+    /**
+     * batch 를 트랜잭션 하나로 반영하고, 실패하면 반으로 나눠 각각 다시 반영한다.
+     * 값 하나(컬럼 길이를 넘는 username 등) 때문에 나머지 회원의 변경까지 계속 실패하지 않도록, 혼자서도 실패하는 변경만 failed 에 남긴다.
+     */
+    private int writeIsolating(Map<Long, Change> batch, Map<Long, Change> failed) {
+        try {
+            Integer written = transactionTemplate.execute(status -> write(batch));
+            attempts.keySet().removeAll(batch.keySet());
+            return written != null ? written : 0;
+        } catch (RuntimeException e) {
+            failures.increment();
+            if (batch.size() == 1) {
+                log.warn("회원 변경 반영에 실패했습니다. {}", batch, e);
+                failed.putAll(batch);
+                return 0;
+            }
+        }
+
+        Map<Long, Change> first = new HashMap<>();
+        Map<Long, Change> second = new HashMap<>();
+        batch.forEach((id, change) -> (first.size() < batch.size() / 2 ? first : second).put(id, change));
+        return writeIsolating(first, failed) + writeIsolating(second, failed);
+    }
+
+    /**
+     * 실패한 변경은 maxAttempts 번까지 다시 모아두고, 그래도 실패하면 버린다.
+     * 다시 모을 때는 실패한 값이 그 사이 들어온 값을 덮어쓰지 않도록 더 앞선 변경으로 합친다.
+     */
+    private void retryOrDrop(Long memberId, Change change) {
+        if (attempts.merge(memberId, 1, Integer::sum) < maxAttempts) {
+            pending.merge(memberId, change, (newer, old) -> old.merge(newer));
+            return;
+        }
+        attempts.remove(memberId);
+        dropped.increment();
+        log.error("회원 변경을 {} 번 반영하지 못해 버립니다. memberId={}, change={}", maxAttempts, memberId, change);
+    }
+
+    private int write(Map<Long, Change> batch) {
+        List<Long> ids = new ArrayList<>(batch.keySet());
+        int written = 0;
+        for (int from = 0; from < ids.size(); from += FinalMemberRepository.ID_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + FinalMemberRepository.ID_CHUNK_SIZE, ids.size()));
+            for (Member loaded : queryFactory.selectFrom(member).where(member.id.in(chunk)).fetch()) {
+                batch.get(loaded.getId()).applyTo(loaded);
+                written++;
+            }
+        }
+        if (written < batch.size()) {
+            log.debug("없는 회원의 변경 {} 건을 버립니다.", batch.size() - written);
+        }
+        return written;
+    }
+
+    private void signalCapacity() {
+        synchronized (capacity) {
+            capacity.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import me.songha.tutorial.config.AsyncSearchProperties;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * ** 페이지 content / count 병렬 실행 **
+ * content 쿼리와 count 쿼리를 각각 별도 스레드에서 동시에 실행해 페이지 응답 시간을 두 쿼리의 합이 아닌 느린 쪽에 맞춘다.
+ * 각 쿼리는 작업 스레드에서 별도의 읽기 전용 트랜잭션으로 실행되므로 서로 다른 EntityManager 와 커넥션(라우팅 시 replica)을 사용한다.
+ *
+ * 결과 future 가 timeout 되거나 취소되거나 한쪽 쿼리가 실패하면 나머지 작업도 interrupt 와 함께 취소하고,
+ * 아직 대기열에 있는 작업은 실행하지 않는다.
+ *
+ * - member.search.parallel : 페이지 전체 소요 시간 (outcome tag)
+ * - member.search.parallel.saved : 순차 실행(content + count) 대비 줄어든 시간
+ */
+@Component
+public class ParallelPageExecutor implements DisposableBean {
+
+    private final ThreadPoolTaskExecutor executor;
+    private final TransactionTemplate readOnlyTransaction;
+    private final long timeoutMillis;
+    private final MeterRegistry meterRegistry;
+    private final Timer saved;
+
+    public ParallelPageExecutor(AsyncSearchProperties properties, MeterRegistry meterRegistry,
+                                PlatformTransactionManager transactionManager) {
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(properties.getPoolSize());
+        this.executor.setMaxPoolSize(properties.getPoolSize());
+        this.executor.setQueueCapacity(properties.getQueueCapacity());
+        this.executor.setThreadNamePrefix("search-");
+        this.executor.initialize();
+
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+
+        this.timeoutMillis = properties.getTimeout().toMillis();
+        this.meterRegistry = meterRegistry;
+        this.saved = Timer.builder("member.search.parallel.saved").register(meterRegistry);
+    }
+
+    public int getTimeoutMillis() {
+        return (int) Math.min(timeoutMillis, Integer.MAX_VALUE);
+    }
+
+    public <T> CompletableFuture<Page<T>> page(Pageable pageable, Supplier<List<T>> content, LongSupplier count) {
+        long start = System.nanoTime();
+        Task<List<T>> contentTask = submit(() -> readOnlyTransaction.execute(status -> content.get()));
+        Task<Long> countTask = submit(() -> readOnlyTransaction.execute(status -> count.getAsLong()));
+
+        CompletableFuture<Page<T>> page = contentTask.future
+                .thenCombine(countTask.future, (rows, total) -> PageableExecutionUtils.getPage(rows, pageable, () -> total))
+                .orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+        page.whenComplete((result, error) -> {
+            long elapsed = System.nanoTime() - start;
+            if (error != null) {
+                contentTask.cancel();
+                countTask.cancel();
+            } else {
+                saved.record(Math.max(contentTask.elapsed + countTask.elapsed - elapsed, 0), TimeUnit.NANOSECONDS);
+            }
+            Timer.builder("member.search.parallel")
+                    .tag("outcome", outcomeOf(error))
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+        });
+        return page;
+    }
+
+    private <V> Task<V> submit(Callable<V> callable) {
+        Task<V> task = new Task<>();
+        try {
+            task.handle = executor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    V value = callable.call();
+                    task.elapsed = System.nanoTime() - start;
+                    task.future.complete(value);
+                } catch (Throwable e) {
+                    task.elapsed = System.nanoTime() - start;
+                    task.future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+        }
+        return task;
+    }
+
+    private static String outcomeOf(Throwable error) {
+        if (error == null) {
+            return "success";
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return "timeout";
+        }
+        if (cause instanceof CancellationException) {
+            return "cancelled";
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return "rejected";
+        }
+        return "error";
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private static class Task<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private volatile Future<?> handle;
+        private volatile long elapsed;
+
+        private void cancel() {
+            future.cancel(false);
+            if (handle != null) {
+                handle.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package me.songha.tutorial.repository.support;
+
+import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.monitoring.QueryTimeout;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ** 박싱 없는 단일 컬럼 조회 **
+ * Querydsl(JPQL) 로 id / 집계 컬럼만 조회해도 Hibernate 는 행마다 Long / Integer 를 만들어 ArrayList 에 담는다.
+ * 결과가 수천 ~ 수만 행이거나 자주 호출되면 이 박싱 객체와 리스트 확장이 할당의 대부분이 되므로,
+ * JdbcTemplate 으로 ResultSet 의 첫 컬럼을 primitive 배열에 바로 읽는다.
+ *
+ * JdbcTemplate 은 현재 트랜잭션의 커넥션을 그대로 사용하지만 영속성 컨택스트를 flush 하지 않으므로,
+ * 같은 트랜잭션에서 flush 되지 않은 변경은 보이지 않는다. 또한 Hibernate 를 거치지 않아 QueryStatistics 에는 집계되지 않는다.
+ * QueryTimeout 은 JPAQueryFactory 힌트로 걸리지 않으므로 statement 에 직접 건다.
+ */
+@Component
+@RequiredArgsConstructor
+public class PrimitiveColumns {
+
+    private static final int MIN_CAPACITY = 16;
+    /** expectedRows 가 커도 처음에는 이만큼만 잡고, 실제로 읽은 행이 많으면 두 배씩 늘린다. */
+    private static final int MAX_INITIAL_CAPACITY = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param expectedRows 예상 행 수 (limit). 배열을 처음부터 이 크기로 잡아 다시 복사하지 않도록 한다.
+     *                     limit 이 매우 커도 행을 읽기 전에 큰 배열을 잡지 않도록 MAX_INITIAL_CAPACITY 까지만 미리 잡는다.
+     */
+    public long[] longs(String sql, int expectedRows, Object... args) {
+        return jdbcTemplate.query(sql, ps -> {
+            QueryTimeout.apply(ps);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+        }, rs -> {
+            long[] values = new long[Math.min(Math.max(expectedRows, MIN_CAPACITY), MAX_INITIAL_CAPACITY)];
+            int size = 0;
+            while (rs.next()) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = rs.getLong(1);
+            }
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        });
+    }
+
+    /**
+     * sqlPrefix + "?, ?, ..." + sqlSuffix 로 ids 를 IN 절에 바인딩한다.
+     * findByIds() 와 같이 파라미터 수를 2의 거듭제곱으로 맞추고 나머지는 마지막 id 로 채운다.
+     */
+    public <T> List<T> queryIn(String sqlPrefix, long[] ids, String sqlSuffix, RowMapper<T> rowMapper) {
+        int parameters = ids.length == 1 ? 1 : Integer.highestOneBit(ids.length - 1) << 1;
+
+        StringBuilder sql = new StringBuilder(sqlPrefix.length() + sqlSuffix.length() + parameters * 3);
+        sql.append(sqlPrefix);
+        for (int i = 0; i < parameters; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(sqlSuffix);
+
+        return jdbcTemplate.query(sql.toString(), ps -> {
+            QueryTimeout.apply(ps);
+            for (int i = 0; i < parameters; i++) {
+                ps.setLong(i + 1, ids[Math.min(i, ids.length - 1)]);
+            }
+        }, rowMapper);
+    }
+}
@@ -0,0 +1,94 @@
+package me.songha.tutorial.repository.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ** read model 을 만드는 전용 스레드 **
+ * TeamCache / UsernameIndex / TeamAgeStatsView 를 조회하는 스레드에서 만들면, 호출한 쪽의 read-only 트랜잭션이 커넥션을 잡은 채로
+ * primary 커넥션을 하나 더 기다리게 되어 풀이 작을 때 서로 기다리다 멈출 수 있다.
+ * 그래서 read model 은 애플리케이션이 뜰 때 한번 만들고, 벌크 변경 등으로 버린 뒤에는 이 스레드에서만 다시 만든다.
+ * 만드는 동안 조회하는 쪽은 기다리지 않고 호출한 트랜잭션 안에서 DB 를 직접 조회한다.
+ *
+ * MemberIdFilter 와 같이 요청이 연달아 와도 대기열에는 한 번만 두고, 만드는 중에 다시 요청되면 끝난 뒤 한 번 더 만든다.
+ */
+@Slf4j
+@Component
+public class ReadModelRebuilder implements DisposableBean {
+
+    private final ThreadPoolTaskExecutor executor;
+
+    public ReadModelRebuilder() {
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(1);
+        this.executor.setMaxPoolSize(1);
+        this.executor.setThreadNamePrefix("read-model-");
+        this.executor.initialize();
+    }
+
+    public Task register(String name, Runnable build) {
+        return new Task(name, build);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    public class Task {
+        private final String name;
+        private final Runnable build;
+        /** 마지막으로 만들기 시작한 뒤 다시 만들어 달라는 요청이 있었는지 */
+        private final AtomicBoolean stale = new AtomicBoolean();
+        /** 만드는 작업이 대기열에 있거나 실행 중인지 */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Task(String name, Runnable build) {
+            this.name = name;
+            this.build = build;
+        }
+
+        /**
+         * 호출한 스레드에서 바로 만든다. 애플리케이션이 뜰 때처럼 호출한 쪽에 트랜잭션이 없을 때만 사용한다.
+         */
+        public void buildNow() {
+            stale.set(true);
+            buildWhileStale();
+        }
+
+        /**
+         * 다시 만들도록 표시하고 read model 스레드에 맡긴다.
+         */
+        public void rebuild() {
+            stale.set(true);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(() -> {
+                    try {
+                        buildWhileStale();
+                    } finally {
+                        scheduled.set(false);
+                    }
+                    // scheduled 를 내리기 직전에 도착한 요청이 대기열에 넣지 못했을 수 있다.
+                    if (stale.get()) {
+                        rebuild();
+                    }
+                });
+            }
+        }
+
+        private synchronized void buildWhileStale() {
+            while (stale.getAndSet(false)) {
+                try {
+                    build.run();
+                } catch (RuntimeException e) {
+                    log.warn("{} 를 만들지 못했습니다. 다음 요청까지 DB 를 직접 조회합니다.", name, e);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package me.songha.tutorial.repository.support;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import me.songha.tutorial.config.SearchCacheProperties;
+import me.songha.tutorial.config.datasource.ReplicaRoutingDataSource;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * ** searchByWhere() 결과 캐시 **
+ * 같은 조건으로 자주 호출되는 검색의 결과를 정규화된 MemberSearchCondition 을 key 로 캐시한다.
+ * 같은 key 를 동시에 조회하면 한 스레드만 쿼리를 실행하고 나머지는 그 결과를 기다린다.
+ *
+ * MemberCountCache 처럼 DataVersion 으로 전체를 무효화하면 아무 회원이 바뀌어도 모든 결과를 다시 조회해야 하므로,
+ * 커밋된 변경이 조건에 맞는 행이었는지(변경 전 / 후 모두) 확인해서 해당 key 만 무효화한다.
+ *  - Member : username / age / 팀 이름(TeamCache)이 조건에 맞으면 무효화한다. 변경 전 값을 모르는 update 는 전체를 무효화한다.
+ *  - Team : 조건의 팀 이름이 변경 전 / 후 이름과 같거나, 결과에 해당 팀이 포함되어 있으면 무효화한다.
+ *  - 벌크 update / 적재(BulkChangeEvent) : 어떤 행이 바뀌었는지 알 수 없으므로 전체를 무효화한다.
+ * 조회하는 동안(캐시에 들어가기 전) 도착한 변경이 그 key 에 해당하면, 결과는 돌려주되 캐시에는 남기지 않는다.
+ * 다음 경우는 캐시를 거치지 않고 쿼리를 실행한다.
+ *  - 실행 계획 점검(QueryStatistics.captureWithoutRows()) : 행을 읽지 않는다.
+ *  - 읽기 / 쓰기 트랜잭션 안 : 아직 커밋되지 않은 자신의 변경이 보이므로, 캐시된 결과를 주거나 남기면 안 된다.
+ * replica 에서 읽은 결과(ReplicaRoutingDataSource.isReadingFromReplica())는 돌려주기만 하고 캐시에 남기지 않는다.
+ * 복제 지연만큼 오래된 결과가 ttl 동안 primary 에서 읽은 결과처럼 남게 되기 때문이다.
+ *
+ * 결과 리스트는 여러 호출에서 공유하므로 수정할 수 없으며, 안의 dto 도 수정하면 안 된다.
+ */
+@Component
+public class SearchResultCache {
+
+    private final SearchCacheProperties properties;
+    private final TeamCache teamCache;
+    private final QueryStatistics queryStatistics;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final Cache<MemberSearchCondition, Entry> cache;
+
+    /** 조회 중이거나 막 조회를 끝낸 key 의 stale 표시. 캐시에 들어가기 전까지 도착한 변경은 여기에 남긴다. */
+    private final ConcurrentHashMap<MemberSearchCondition, AtomicBoolean> loading = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SearchResultCache(SearchCacheProperties properties, TeamCache teamCache, QueryStatistics queryStatistics,
+                             EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry) {
+        this(properties, teamCache, queryStatistics, entityManagerFactory, meterRegistry, Ticker.systemTicker());
+    }
+
+    /**
+     * ttl 을 ticker 의 시계로 잰다. (테스트에서 시간을 직접 움직이기 위함)
+     */
+    SearchResultCache(SearchCacheProperties properties, TeamCache teamCache, QueryStatistics queryStatistics,
+                      EntityManagerFactory entityManagerFactory, MeterRegistry meterRegistry, Ticker ticker) {
+        this.properties = properties;
+        this.teamCache = teamCache;
+        this.queryStatistics = queryStatistics;
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaximumRows())
+                .weigher((MemberSearchCondition key, Entry entry) -> entry.rows.size() + 1)
+                .expireAfterWrite(properties.getTtl())
+                .ticker(ticker)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "member.search.result");
+    }
+
+    public List<MemberTeamDto> get(MemberSearchCondition condition, Supplier<List<MemberTeamDto>> query) {
+        if (!properties.isEnabled() || queryStatistics.isCapturingWithoutRows() || inWriteTransaction()) {
+            return query.get();
+        }
+
+        MemberSearchCondition key = condition.normalized();
+        Entry entry = cache.get(key, k -> load(k, query));
+        loading.remove(key, entry.stale);
+        if (entry.stale.get()) {
+            cache.asMap().remove(key, entry);
+        }
+        return entry.rows;
+    }
+
+    @EventListener
+    public void onChange(EntityChangeEvent event) {
+        if (event.isOf(Member.class)) {
+            invalidateIf(key -> memberMatches(key, event));
+        } else if (event.isOf(Team.class)) {
+            invalidateIf(key -> teamMatches(key, event));
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        if (event.isOf(Member.class) || event.isOf(Team.class)) {
+            invalidateIf(key -> true);
+        }
+    }
+
+    private Entry load(MemberSearchCondition key, Supplier<List<MemberTeamDto>> query) {
+        AtomicBoolean stale = new AtomicBoolean();
+        loading.put(key, stale);
+        try {
+            List<MemberTeamDto> rows = query.get();
+            if (ReplicaRoutingDataSource.isReadingFromReplica()) {
+                stale.set(true);
+            }
+            return new Entry(Collections.unmodifiableList(rows), stale);
+        } catch (RuntimeException e) {
+            loading.remove(key, stale);
+            throw e;
+        }
+    }
+
+    private static boolean inWriteTransaction() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private void invalidateIf(Predicate<MemberSearchCondition> affected) {
+        loading.forEach((key, stale) -> {
+            if (affected.test(key)) {
+                stale.set(true);
+            }
+        });
+        cache.asMap().keySet().removeIf(affected);
+    }
+
+    /**
+     * insert 는 변경 후, delete 는 변경 전, update 는 둘 중 하나라도 조건에 맞으면 결과가 바뀐다.
+     * detach 된 엔티티를 update() 하면 변경 전 값을 알 수 없으므로, 이전 값으로 맞았을 수 있는 모든 key 를 무효화한다.
+     */
+    private boolean memberMatches(MemberSearchCondition key, EntityChangeEvent event) {
+        if (event.getType() == EntityChangeEvent.Type.UPDATE && event.getOldState() == null) {
+            return true;
+        }
+        if (event.getType() != EntityChangeEvent.Type.INSERT
+                && matches(key, (String) event.getOld("username"), (Integer) event.getOld("age"), event.getOld("team"))) {
+            return true;
+        }
+        return event.getType() != EntityChangeEvent.Type.DELETE
+                && matches(key, (String) event.get("username"), (Integer) event.get("age"), event.get("team"));
+    }
+
+    private boolean matches(MemberSearchCondition key, String username, Integer age, Object team) {
+        if (key.getUsername() != null && !key.getUsername().equals(username)) {
+            return false;
+        }
+        if (key.getAgeGoe() != null && (age == null || age < key.getAgeGoe())) {
+            return false;
+        }
+        if (key.getAgeLoe() != null && (age == null || age > key.getAgeLoe())) {
+            return false;
+        }
+        if (key.getTeamName() == null) {
+            return true;
+        }
+        if (team == null) {
+            return false;
+        }
+        // 팀 수가 많아 TeamCache 를 사용할 수 없으면 팀 이름을 알 수 없으므로 맞는 것으로 본다.
+        return !teamCache.isComplete()
+                || key.getTeamName().equals(teamCache.nameOf((Long) persistenceUnitUtil.getIdentifier(team)));
+    }
+
+    private boolean teamMatches(MemberSearchCondition key, EntityChangeEvent event) {
+        if (key.getTeamName() != null
+                && (key.getTeamName().equals(event.getOld("name")) || key.getTeamName().equals(event.get("name")))) {
+            return true;
+        }
+        // 아직 조회 중인 key 는 결과를 알 수 없으므로 무효화한다.
+        Entry entry = cache.getIfPresent(key);
+        return entry == null || entry.rows.stream().anyMatch(row -> Objects.equals(row.getTeamId(), event.getId()));
+    }
+
+    private static class Entry {
+        private final List<MemberTeamDto> rows;
+        private final AtomicBoolean stale;
+
+        private Entry(List<MemberTeamDto> rows, AtomicBoolean stale) {
+            this.rows = rows;
+            this.stale = stale;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import me.songha.tutorial.dto.TeamAgeStats;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static me.songha.tutorial.domain.QMember.member;
+
+/**
+ * ** 팀별 나이 집계 read model **
+ * useOrderByNull() 처럼 member 전체를 group by 하는 대신, 팀마다 나이별 회원 수(히스토그램)를 메모리에 유지하고
+ * 커밋된 Member 의 insert / update / delete 이벤트로 해당 팀의 값만 갱신한다.
+ * 건수와 합계는 바로 더하고 빼면 되지만 최소 / 최대는 빼는 것만으로 다시 구할 수 없으므로 나이별 건수를 TreeMap 으로 가지고 있는다.
+ * 조회 비용은 회원 수와 관계없이 팀 수에 비례한다.
+ *
+ * 히스토그램과 함께 회원별로 집계에 들어간 (팀, 나이)를 가지고 있어서, 이벤트는 "이 회원은 이제 (팀, 나이)이다" 로 덮어쓴다.
+ * 다시 만드는 쿼리가 이미 읽은 커밋의 이벤트가 끝난 뒤에 도착해도 같은 값으로 덮어쓸 뿐 두 번 더해지지 않고,
+ * 변경 전 값을 모르는 update(detach 된 엔티티의 update())도 그대로 반영할 수 있다. 대신 팀이 있는 회원 수만큼 메모리를 쓴다.
+ *
+ * 애플리케이션이 뜰 때 primary 에서 만들고, 벌크 update / 적재(BulkChangeEvent)는 어떤 행이 바뀌었는지 알 수 없으므로
+ * 버리고 ReadModelRebuilder 스레드에서 다시 만든다. 만들거나 갱신하는 중에는 기다리지 않고 호출한 트랜잭션 안에서 group by 로 조회한다.
+ * 같은 회원의 커밋 두 개가 다시 만드는 동안 끝나 이벤트가 커밋 순서와 다르게 도착하면 이전 값이 남을 수 있는데,
+ * verify() 가 주기적으로 DB 와 비교해 차이가 있는 팀을 바로잡고 team.age.stats.drift 카운터에 남긴다.
+ *
+ * 팀이 없는 회원은 집계하지 않으며, 회원이 없는 팀은 결과에 포함되지 않는다. (inner join + group by 와 같다)
+ */
+@Slf4j
+@Component
+public class TeamAgeStatsView {
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate primaryTransaction;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final Counter drift;
+    private final Lock lock = new ReentrantLock();
+    private final ReadModelRebuilder.Task builder;
+
+    /** null 이면 아직 만들어지지 않았거나 다시 만드는 중이다. */
+    private Aggregate aggregate;
+
+    public TeamAgeStatsView(JPAQueryFactory queryFactory, EntityManagerFactory entityManagerFactory,
+                            PlatformTransactionManager transactionManager, ReadModelRebuilder rebuilder,
+                            MeterRegistry meterRegistry) {
+        this.queryFactory = queryFactory;
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.drift = meterRegistry.counter("team.age.stats.drift");
+        this.builder = rebuilder.register("TeamAgeStatsView", this::load);
+    }
+
+    public List<TeamAgeStats> findAll() {
+        return read(histograms -> {
+            List<TeamAgeStats> result = new ArrayList<>(histograms.size());
+            histograms.forEach((teamId, histogram) -> result.add(histogram.toStats(teamId)));
+            result.sort(Comparator.comparing(TeamAgeStats::getTeamId));
+            return result;
+        });
+    }
+
+    public Optional<TeamAgeStats> findByTeamId(Long teamId) {
+        return read(histograms -> Optional.ofNullable(histograms.get(teamId)).map(histogram -> histogram.toStats(teamId)));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        builder.buildNow();
+    }
+
+    @EventListener
+    public void onMemberChange(EntityChangeEvent event) {
+        if (!event.isOf(Member.class)) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (aggregate == null) {
+                return;
+            }
+            Long memberId = (Long) event.getId();
+            if (event.getType() == EntityChangeEvent.Type.DELETE) {
+                aggregate.place(memberId, null, 0);
+            } else {
+                aggregate.place(memberId, idOf(event.get("team")), (Integer) event.get("age"));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        if (!event.isOf(Member.class) && !event.isOf(Team.class)) {
+            return;
+        }
+        lock.lock();
+        try {
+            aggregate = null;
+        } finally {
+            lock.unlock();
+        }
+        builder.rebuild();
+    }
+
+    /**
+     * DB 에서 다시 읽은 값과 비교해 다른 팀의 수를 반환하고, 메모리의 값을 DB 기준으로 바꾼다.
+     */
+    @Scheduled(fixedDelayString = "${app.team-stats.verify-interval:PT10M}",
+            initialDelayString = "${app.team-stats.verify-interval:PT10M}")
+    public int verify() {
+        lock.lock();
+        try {
+            Aggregate loaded = primaryTransaction.execute(status -> readMembers());
+            if (aggregate == null) {
+                aggregate = loaded;
+                return 0;
+            }
+
+            Set<Long> teamIds = new HashSet<>(loaded.histograms.keySet());
+            teamIds.addAll(aggregate.histograms.keySet());
+            int drifted = 0;
+            for (Long teamId : teamIds) {
+                if (!Objects.equals(loaded.histograms.get(teamId), aggregate.histograms.get(teamId))) {
+                    drifted++;
+                }
+            }
+
+            aggregate = loaded;
+            if (drifted > 0) {
+                drift.increment(drifted);
+                log.warn("팀별 나이 집계가 DB 와 {} 개 팀에서 달라 다시 맞췄습니다.", drifted);
+            }
+            return drifted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 읽는 동안 lock 을 잡고 있으므로, 그 사이 커밋된 Member 이벤트는 끝날 때까지 기다렸다가 덮어쓴다.
+     */
+    private void load() {
+        lock.lock();
+        try {
+            aggregate = primaryTransaction.execute(status -> readMembers());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 읽는 동안 lock 을 잡고 있는 쪽(만들기 / verify / 이벤트 반영)이 있거나 아직 없으면 호출한 트랜잭션 안에서 DB 로 계산한다.
+     */
+    private <T> T read(Function<Map<Long, AgeHistogram>, T> reader) {
+        if (lock.tryLock()) {
+            try {
+                if (aggregate != null) {
+                    return reader.apply(aggregate.histograms);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return reader.apply(groupByTeamAndAge());
+    }
+
+    /**
+     * 이벤트를 덮어쓸 수 있도록 팀이 있는 회원의 id / 팀 / 나이를 forward-only 커서로 읽는다.
+     * 이후 변경은 이벤트로 반영하므로 replica 가 아닌 primary 트랜잭션에서 호출한다.
+     */
+    private Aggregate readMembers() {
+        Aggregate loaded = new Aggregate();
+        try (Stream<Tuple> rows = queryFactory
+                .select(member.id, member.team.id, member.age)
+                .from(member)
+                .where(member.team.id.isNotNull())
+                .setHint(QueryHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .stream()) {
+            rows.forEach(row -> loaded.place(row.get(member.id), row.get(member.team.id), row.get(member.age)));
+        }
+        return loaded;
+    }
+
+    /**
+     * 조회하는 쪽에 답할 때는 회원별 값이 필요 없으므로 팀 / 나이별 건수만 가져온다.
+     */
+    private Map<Long, AgeHistogram> groupByTeamAndAge() {
+        List<Tuple> rows = queryFactory
+                .select(member.team.id, member.age, member.count())
+                .from(member)
+                .where(member.team.id.isNotNull())
+                .groupBy(member.team.id, member.age)
+                .fetch();
+
+        Map<Long, AgeHistogram> histograms = new HashMap<>();
+        for (Tuple row : rows) {
+            histograms.computeIfAbsent(row.get(member.team.id), teamId -> new AgeHistogram())
+                    .add(row.get(member.age), row.get(member.count()));
+        }
+        return histograms;
+    }
+
+    private Long idOf(Object entity) {
+        return entity != null ? (Long) persistenceUnitUtil.getIdentifier(entity) : null;
+    }
+
+    /**
+     * 회원별로 집계에 들어간 (팀, 나이)와 그 합인 팀별 히스토그램.
+     */
+    private static class Aggregate {
+        private final Map<Long, Placement> members = new HashMap<>();
+        private final Map<Long, AgeHistogram> histograms = new HashMap<>();
+
+        /**
+         * 회원을 (teamId, age) 로 옮긴다. teamId 가 null 이면 집계에서 뺀다. 이미 같은 값이면 아무것도 하지 않는다.
+         */
+        private void place(Long memberId, Long teamId, int age) {
+            Placement placement = teamId != null ? new Placement(teamId, age) : null;
+            Placement previous = placement != null ? members.put(memberId, placement) : members.remove(memberId);
+            if (Objects.equals(previous, placement)) {
+                return;
+            }
+            if (previous != null) {
+                AgeHistogram histogram = histograms.get(previous.teamId);
+                histogram.add(previous.age, -1);
+                if (histogram.count == 0) {
+                    histograms.remove(previous.teamId);
+                }
+            }
+            if (placement != null) {
+                histograms.computeIfAbsent(teamId, id -> new AgeHistogram()).add(age, 1);
+            }
+        }
+    }
+
+    private static class Placement {
+        private final long teamId;
+        private final int age;
+
+        private Placement(long teamId, int age) {
+            this.teamId = teamId;
+            this.age = age;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Placement && teamId == ((Placement) o).teamId && age == ((Placement) o).age;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(teamId, age);
+        }
+    }
+
+    private static class AgeHistogram {
+        private final TreeMap<Integer, Long> countByAge = new TreeMap<>();
+        private long count;
+        private long sum;
+
+        /**
+         * members 가 음수이면 뺀다. 해당 나이의 회원이 없어지면 나이도 지운다.
+         */
+        private void add(int age, long members) {
+            if (countByAge.merge(age, members, Long::sum) == 0) {
+                countByAge.remove(age);
+            }
+            count += members;
+            sum += age * members;
+        }
+
+        private TeamAgeStats toStats(Long teamId) {
+            return new TeamAgeStats(teamId, count, sum, countByAge.firstKey(), countByAge.lastKey());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AgeHistogram && countByAge.equals(((AgeHistogram) o).countByAge);
+        }
+
+        @Override
+        public int hashCode() {
+            return countByAge.hashCode();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.RequiredArgsConstructor;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberTeamDto2;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+import static me.songha.tutorial.domain.QTeam.team;
+
+/**
+ * ** Team 일괄 로딩 **
+ * select 절에 member.team 을 넣으면 행마다 Team 의 모든 컬럼을 가져오고, 같은 팀이 행 수만큼 반복해서 전송된다.
+ * team_id 만 조회한 뒤 중복을 제거한 id 를 Team.BATCH_SIZE 개씩 IN 쿼리로 한 번에 읽어서 붙여주면
+ * 팀 수 / Team.BATCH_SIZE 번의 쿼리로 끝난다.
+ * Team.leader 는 EAGER 이므로 fetch join 하지 않으면 leader 마다 select 가 한 번씩 더 나간다.
+ *
+ * chunk 크기는 Team, Team.members 의 @BatchSize 와 같은 Team.BATCH_SIZE 를 사용해서
+ * 트랜잭션 안에서 lazy 로딩되는 Member.team / Team.members 도 같은 크기의 IN 쿼리로 묶이도록 맞춘다.
+ */
+@Component
+@RequiredArgsConstructor
+public class TeamBatchLoader {
+
+    private final JPAQueryFactory queryFactory;
+
+    /**
+     * null 과 중복 id 는 제외하고 조회하며, 존재하지 않는 id 는 결과 Map 에 포함되지 않는다.
+     */
+    public Map<Long, Team> loadAll(Collection<Long> teamIds) {
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(teamIds));
+        distinctIds.removeIf(Objects::isNull);
+
+        Map<Long, Team> teams = new HashMap<>(distinctIds.size() * 2);
+        for (int from = 0; from < distinctIds.size(); from += Team.BATCH_SIZE) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + Team.BATCH_SIZE, distinctIds.size()));
+            for (Team loaded : queryFactory
+                    .selectFrom(team)
+                    .leftJoin(team.leader).fetchJoin()
+                    .where(team.id.in(chunk))
+                    .fetch()) {
+                teams.put(loaded.getId(), loaded);
+            }
+        }
+        return teams;
+    }
+
+    /**
+     * MemberTeamDto2(Long, String, int, Long) 생성자는 id 만 채운 Team 을 만들어두므로, 이를 실제 Team 으로 교체한다.
+     * 같은 팀을 참조하는 행들은 같은 Team 인스턴스를 공유한다.
+     */
+    public <T extends Collection<MemberTeamDto2>> T attachTeams(T rows) {
+        List<Long> teamIds = new ArrayList<>(rows.size());
+        for (MemberTeamDto2 row : rows) {
+            if (row.getTeam() != null) {
+                teamIds.add(row.getTeam().getId());
+            }
+        }
+
+        Map<Long, Team> teams = loadAll(teamIds);
+        for (MemberTeamDto2 row : rows) {
+            if (row.getTeam() != null) {
+                row.setTeam(teams.get(row.getTeam().getId()));
+            }
+        }
+        return rows;
+    }
+}
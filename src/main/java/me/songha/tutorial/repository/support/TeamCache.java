@@ -0,0 +1,180 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import java.util.*;
+
+import static me.songha.tutorial.domain.QTeam.team;
+
+/**
+ * ** Team 참조 캐시 **
+ * 팀은 수가 적고 거의 바뀌지 않는데, 대부분의 조회가 team.name 으로 필터링하거나 team.name 을 가져오기 위해서만 조인한다.
+ * 전체 팀의 id / name / leader id 를 메모리에 올려두고 teamName -> team_id 변환과 team_id -> teamName 채우기에 사용한다.
+ *
+ * 조회는 불변 snapshot 을 읽기만 하고, 변경은 커밋된 Team 이벤트를 받아 snapshot 을 새로 만들어 교체한다.
+ * 팀 수가 maximumSize 를 넘으면 캐시를 사용하지 않으며(isComplete() == false) 조회하는 쪽은 조인으로 처리해야 한다.
+ *
+ * 이후 변경은 이벤트로 반영하므로, 만들 때는 복제 지연이 있는 replica 가 아닌 primary 에서 읽는다.
+ * 애플리케이션이 뜰 때 만들고, 팀 벌크 변경 뒤에는 ReadModelRebuilder 스레드에서 다시 만든다.
+ * 만드는 동안에는 isComplete() 가 false 이므로 조회하는 쪽은 호출한 트랜잭션 안에서 조인으로 처리한다.
+ */
+@Slf4j
+@Component
+public class TeamCache {
+
+    @Getter
+    @ToString
+    public static class TeamRef {
+        private final Long id;
+        private final String name;
+        private final Long leaderId;
+
+        public TeamRef(Long id, String name, Long leaderId) {
+            this.id = id;
+            this.name = name;
+            this.leaderId = leaderId;
+        }
+    }
+
+    private static class Snapshot {
+        private static final Snapshot UNAVAILABLE = new Snapshot(Collections.emptyMap(), false);
+
+        private final Map<Long, TeamRef> byId;
+        private final Map<String, List<Long>> idsByName;
+        private final boolean complete;
+
+        private Snapshot(Map<Long, TeamRef> byId, boolean complete) {
+            Map<String, List<Long>> idsByName = new HashMap<>();
+            for (TeamRef ref : byId.values()) {
+                idsByName.computeIfAbsent(ref.getName(), name -> new ArrayList<>()).add(ref.getId());
+            }
+            this.byId = byId;
+            this.idsByName = idsByName;
+            this.complete = complete;
+        }
+    }
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate primaryTransaction;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final int maximumSize;
+    private final ReadModelRebuilder.Task builder;
+    /** null 이면 아직 만들어지지 않았거나 다시 만드는 중이다. */
+    private volatile Snapshot snapshot;
+
+    public TeamCache(JPAQueryFactory queryFactory, EntityManagerFactory entityManagerFactory,
+                     PlatformTransactionManager transactionManager, ReadModelRebuilder rebuilder,
+                     @Value("${app.team-cache.maximum-size:10000}") int maximumSize) {
+        this.queryFactory = queryFactory;
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.maximumSize = maximumSize;
+        this.builder = rebuilder.register("TeamCache", this::load);
+    }
+
+    public boolean isComplete() {
+        return snapshot().complete;
+    }
+
+    public Optional<TeamRef> get(Long teamId) {
+        return teamId == null ? Optional.empty() : Optional.ofNullable(snapshot().byId.get(teamId));
+    }
+
+    /**
+     * 팀 이름은 unique 가 아니므로 같은 이름의 팀 id 를 모두 반환한다.
+     */
+    public List<Long> idsOf(String teamName) {
+        return snapshot().idsByName.getOrDefault(teamName, Collections.emptyList());
+    }
+
+    /**
+     * idsOf() 와 같지만 캐시를 사용할 수 없으면(isComplete() == false) empty 를 반환한다.
+     * isComplete() 와 idsOf() 를 따로 호출하면 그 사이에 다시 만들기 시작해 빈 목록을 받을 수 있으므로 한 snapshot 에서 확인한다.
+     */
+    public Optional<List<Long>> findIdsOf(String teamName) {
+        Snapshot current = snapshot();
+        return current.complete
+                ? Optional.of(current.idsByName.getOrDefault(teamName, Collections.emptyList()))
+                : Optional.empty();
+    }
+
+    public String nameOf(Long teamId) {
+        return get(teamId).map(TeamRef::getName).orElse(null);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        builder.buildNow();
+    }
+
+    @EventListener
+    public synchronized void onTeamChange(EntityChangeEvent event) {
+        if (!event.isOf(Team.class) || snapshot == null || !snapshot.complete) {
+            return;
+        }
+
+        Map<Long, TeamRef> byId = new HashMap<>(snapshot.byId);
+        if (event.getType() == EntityChangeEvent.Type.DELETE) {
+            byId.remove((Long) event.getId());
+        } else {
+            byId.put((Long) event.getId(), new TeamRef((Long) event.getId(),
+                    (String) event.get("name"), idOf(event.get("leader"))));
+        }
+        snapshot = new Snapshot(byId, byId.size() <= maximumSize);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onBulkChange(BulkChangeEvent event) {
+        if (event.isOf(Team.class)) {
+            snapshot = null;
+            builder.rebuild();
+        }
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        return current != null ? current : Snapshot.UNAVAILABLE;
+    }
+
+    /**
+     * 읽는 동안 커밋된 Team 이벤트는 끝날 때까지 기다렸다가 만들어진 snapshot 에 반영된다.
+     */
+    private synchronized void load() {
+        List<Tuple> rows = primaryTransaction.execute(status -> queryFactory
+                .select(team.id, team.name, team.leader.id)
+                .from(team)
+                .limit(maximumSize + 1)
+                .fetch());
+
+        Map<Long, TeamRef> byId = new HashMap<>();
+        if (rows.size() <= maximumSize) {
+            for (Tuple row : rows) {
+                byId.put(row.get(team.id), new TeamRef(row.get(team.id), row.get(team.name), row.get(team.leader.id)));
+            }
+        } else {
+            log.warn("팀이 {} 개를 넘어 TeamCache 를 사용하지 않습니다.", maximumSize);
+        }
+
+        snapshot = new Snapshot(byId, rows.size() <= maximumSize);
+    }
+
+    private Long idOf(Object entity) {
+        return entity != null ? (Long) persistenceUnitUtil.getIdentifier(entity) : null;
+    }
+}
@@ -0,0 +1,300 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * ** username 검색 인덱스 **
+ * like '%keyword%' 는 B-tree 인덱스를 사용할 수 없고, H2 는 파라미터로 바인딩된 like 'prefix%' 도 인덱스로 처리하지 못해 매번 전체를 읽는다.
+ * username 을 3글자씩 자른 trigram 별로 member id 목록(posting)을 메모리에 두고,
+ * contains / prefix 검색은 keyword 의 trigram 중 posting 이 가장 짧은 것의 id 만 확인한다.
+ * username 원문으로 한번 더 확인하므로 결과는 like 와 같다. (대소문자 구분)
+ *
+ * 결과는 no offset 방식과 같은 id 내림차순 한 페이지 분량의 id 이며, 조회하는 쪽은 id in (...) 으로 필요한 컬럼만 가져온다.
+ * 애플리케이션이 뜰 때 primary 에서 만들고, 이후 커밋된 Member 이벤트로 갱신한다.
+ * 벌크 변경(BulkChangeEvent)이 있으면 버리고 ReadModelRebuilder 스레드에서 다시 만든다.
+ * 만들거나 이벤트를 반영하는 중에는 기다리지 않고 호출한 트랜잭션 안에서 같은 조건의 like 로 조회한다.
+ * keyword 가 null 이거나 공백뿐이면 검색 조건(hasText)과 같이 조건이 없는 것으로 보고 pk 순으로 DB 에서 바로 읽는다.
+ */
+@Component
+public class UsernameIndex {
+
+    private static final int GRAM = 3;
+
+    private final JPAQueryFactory queryFactory;
+    private final TransactionTemplate primaryTransaction;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReadModelRebuilder.Task builder;
+
+    /** null 이면 아직 만들어지지 않았거나 다시 만드는 중이다. */
+    private Map<Long, String> usernames;
+    private Map<String, Postings> postingsByGram;
+    private Postings allIds;
+
+    public UsernameIndex(JPAQueryFactory queryFactory, PlatformTransactionManager transactionManager,
+                         ReadModelRebuilder rebuilder, MeterRegistry meterRegistry) {
+        this.queryFactory = queryFactory;
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+        this.builder = rebuilder.register("UsernameIndex", this::load);
+        Gauge.builder("member.username.index.size", this, UsernameIndex::size).register(meterRegistry);
+    }
+
+    /**
+     * username 에 keyword 가 포함된 member id 중 beforeId 보다 작은 것을 큰 것부터 offset 만큼 건너뛰고 limit 개 반환한다. (order by id desc)
+     */
+    public List<Long> containing(String keyword, Long beforeId, long offset, int limit) {
+        if (!hasText(keyword)) {
+            return query(null, beforeId, offset, limit);
+        }
+        return page(keyword, username -> username.contains(keyword), member.username.contains(keyword),
+                beforeId, offset, limit);
+    }
+
+    /**
+     * username 이 prefix 로 시작하는 member id 중 beforeId 보다 작은 것을 큰 것부터 offset 만큼 건너뛰고 limit 개 반환한다. (order by id desc)
+     */
+    public List<Long> startingWith(String prefix, Long beforeId, long offset, int limit) {
+        if (!hasText(prefix)) {
+            return query(null, beforeId, offset, limit);
+        }
+        return page(prefix, username -> username.startsWith(prefix), member.username.startsWith(prefix),
+                beforeId, offset, limit);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        builder.buildNow();
+    }
+
+    @EventListener
+    public void onMemberChange(EntityChangeEvent event) {
+        if (!event.isOf(Member.class)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (usernames == null) {
+                return;
+            }
+            Long id = (Long) event.getId();
+            if (event.getType() != EntityChangeEvent.Type.INSERT) {
+                remove(id);
+            }
+            if (event.getType() != EntityChangeEvent.Type.DELETE) {
+                add(id, (String) event.get("username"));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBulkChange(BulkChangeEvent event) {
+        if (!event.isOf(Member.class)) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            usernames = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        builder.rebuild();
+    }
+
+    /**
+     * 인덱스가 없거나 만들고 있거나 이벤트를 반영하는 중이면 기다리지 않고 like 조건(fallback)으로 DB 에서 같은 페이지를 가져온다.
+     */
+    private List<Long> page(String keyword, Predicate<String> matches, BooleanExpression fallback,
+                            Long beforeId, long offset, int limit) {
+        if (lock.readLock().tryLock()) {
+            try {
+                if (usernames != null) {
+                    return search(keyword, matches, beforeId, offset, limit);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return query(fallback, beforeId, offset, limit);
+    }
+
+    /**
+     * keyword 의 trigram 을 모두 가진 id 만 후보가 될 수 있으므로 그 중 가장 짧은 posting 을 id 내림차순으로 따라가며 username 을 확인한다.
+     * keyword 가 trigram 보다 짧으면 전체 id 를 따라간다. 어느 쪽이든 한 페이지를 채우면 바로 멈춘다.
+     */
+    private List<Long> search(String keyword, Predicate<String> matches, Long beforeId, long offset, int limit) {
+        Postings candidates = allIds;
+        for (String gram : gramsOf(keyword)) {
+            Postings postings = postingsByGram.get(gram);
+            if (postings == null) {
+                return new ArrayList<>();
+            }
+            if (postings.size < candidates.size) {
+                candidates = postings;
+            }
+        }
+
+        List<Long> page = new ArrayList<>(limit);
+        long skipped = 0;
+        for (int i = candidates.indexBefore(beforeId); i >= 0 && page.size() < limit; i--) {
+            long id = candidates.ids[i];
+            if (!matches.test(usernames.get(id))) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                page.add(id);
+            }
+        }
+        return page;
+    }
+
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return usernames == null ? 0 : usernames.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Long> query(BooleanExpression matches, Long beforeId, long offset, int limit) {
+        return queryFactory
+                .select(member.id)
+                .from(member)
+                .where(matches, beforeId != null ? member.id.lt(beforeId) : null)
+                .orderBy(member.id.desc())
+                .offset(offset)
+                .limit(limit)
+                .fetch();
+    }
+
+    /**
+     * 읽는 동안 write lock 을 잡고 있으므로, 그 사이 커밋된 Member 이벤트는 끝날 때까지 기다렸다가 반영된다.
+     */
+    private void load() {
+        lock.writeLock().lock();
+        try {
+            List<Tuple> rows = primaryTransaction.execute(status -> queryFactory
+                    .select(member.id, member.username)
+                    .from(member)
+                    .orderBy(member.id.asc())
+                    .fetch());
+            usernames = new HashMap<>();
+            postingsByGram = new HashMap<>();
+            allIds = new Postings();
+            for (Tuple row : rows) {
+                add(row.get(member.id), row.get(member.username));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(Long id, String username) {
+        if (username == null) {
+            return;
+        }
+        usernames.put(id, username);
+        allIds.add(id);
+        for (String gram : gramsOf(username)) {
+            postingsByGram.computeIfAbsent(gram, key -> new Postings()).add(id);
+        }
+    }
+
+    private void remove(Long id) {
+        String username = usernames.remove(id);
+        if (username == null) {
+            return;
+        }
+        allIds.remove(id);
+        for (String gram : gramsOf(username)) {
+            Postings postings = postingsByGram.get(gram);
+            if (postings != null && postings.remove(id) && postings.size == 0) {
+                postingsByGram.remove(gram);
+            }
+        }
+    }
+
+    private static Set<String> gramsOf(String value) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    /**
+     * 오름차순으로 정렬된 id 목록. id 는 시퀀스로 증가하므로 대부분 끝에 추가된다.
+     */
+    private static class Postings {
+        private long[] ids = new long[4];
+        private int size;
+
+        private void add(long id) {
+            if (size == 0 || ids[size - 1] < id) {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            int insertAt = -index - 1;
+            ensureCapacity();
+            System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+            ids[insertAt] = id;
+            size++;
+        }
+
+        private boolean remove(long id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        /**
+         * beforeId 보다 작은 마지막 id 의 위치. beforeId 가 null 이면 마지막 위치.
+         */
+        private int indexBefore(Long beforeId) {
+            if (beforeId == null) {
+                return size - 1;
+            }
+            int index = Arrays.binarySearch(ids, 0, size, beforeId);
+            return (index >= 0 ? index : -index - 1) - 1;
+        }
+
+        private void ensureCapacity() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package me.songha.tutorial.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * ** 대량 export **
+ * 결과를 List 로 모으지 않고 커서에서 한 행씩 읽어 바로 OutputStream 에 쓴다.
+ * 엔티티는 쓰고 난 직후 detach 하고, 읽기 전용 트랜잭션이라 스냅샷도 만들지 않으므로 건수와 상관없이 힙 사용량이 일정하다.
+ * JSON 은 배열의 여는 괄호부터 바로 내보내므로 첫 행이 읽히는 즉시 응답이 시작된다.
+ * 닫는 괄호는 모든 행을 쓴 뒤에만 쓰므로, 중간에 실패한 응답은 잘린 JSON 이 되어 받는 쪽이 완료된 결과로 오해하지 않는다.
+ */
+@Service
+public class MemberExportService {
+
+    public enum Format {
+        NDJSON, CSV, JSON
+    }
+
+    private static final String[] MEMBER_COLUMNS = {"id", "username", "age", "teamId"};
+    private static final String[] MEMBER_TEAM_COLUMNS = {"memberId", "username", "age", "teamId", "teamName"};
+
+    private final FinalMemberRepository memberRepository;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+
+    public MemberExportService(FinalMemberRepository memberRepository, EntityManager entityManager, ObjectMapper objectMapper,
+                               @Value("${app.export.fetch-size:1000}") int fetchSize) {
+        this.memberRepository = memberRepository;
+        this.entityManager = entityManager;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+    }
+
+    @Transactional(readOnly = true)
+    public long exportMembers(OutputStream out, Format format) throws IOException {
+        try (Stream<Member> members = memberRepository.streamMembers(fetchSize);
+             RowWriter writer = rowWriter(out, format, MEMBER_COLUMNS)) {
+
+            long rows = 0;
+            for (Iterator<Member> it = members.iterator(); it.hasNext(); rows++) {
+                Member member = it.next();
+                writer.write(member.getId(), member.getUsername(), member.getAge(), teamIdOf(member));
+                entityManager.detach(member);
+            }
+            writer.finish();
+            return rows;
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public long exportSearch(MemberSearchCondition condition, OutputStream out, Format format) throws IOException {
+        try (Stream<MemberTeamDto> result = memberRepository.streamByWhere(condition, fetchSize);
+             RowWriter writer = rowWriter(out, format, MEMBER_TEAM_COLUMNS)) {
+
+            long rows = 0;
+            for (Iterator<MemberTeamDto> it = result.iterator(); it.hasNext(); rows++) {
+                MemberTeamDto dto = it.next();
+                writer.write(dto.getMemberId(), dto.getUsername(), dto.getAge(), dto.getTeamId(), dto.getTeamName());
+            }
+            writer.finish();
+            return rows;
+        }
+    }
+
+    /**
+     * team 은 LAZY 라 프록시이므로 초기화하지 않고 식별자만 꺼낸다.
+     */
+    private Object teamIdOf(Member member) {
+        return member.getTeam() != null
+                ? entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(member.getTeam())
+                : null;
+    }
+
+    private RowWriter rowWriter(OutputStream out, Format format, String[] columns) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(nonClosing(out), StandardCharsets.UTF_8));
+        switch (format) {
+            case CSV:
+                return new CsvRowWriter(writer, columns);
+            case JSON:
+                return new JsonArrayRowWriter(writer, columns);
+            default:
+                return new NdjsonRowWriter(writer, columns);
+        }
+    }
+
+    /**
+     * 응답 스트림처럼 호출한 쪽이 관리하는 스트림은 닫지 않고 flush 만 한다.
+     */
+    private static OutputStream nonClosing(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    private interface RowWriter extends Closeable {
+        void write(Object... values) throws IOException;
+
+        /**
+         * 모든 행을 쓴 뒤에만 호출한다. 실패해서 호출되지 않으면 close() 는 쓴 데이터를 flush 만 한다.
+         */
+        default void finish() throws IOException {
+        }
+    }
+
+    private class NdjsonRowWriter implements RowWriter {
+        private final JsonGenerator generator;
+        private final String[] columns;
+
+        private NdjsonRowWriter(Writer writer, String[] columns) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(writer);
+            this.generator.setRootValueSeparator(null);
+            this.columns = columns;
+        }
+
+        @Override
+        public void write(Object... values) throws IOException {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                row.put(columns[i], values[i]);
+            }
+            generator.writeObject(row);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    /**
+     * [{...},{...}] 형태로 쓰되 행마다 Map 을 만들지 않고 필드를 바로 쓴다.
+     * close() 에서 열린 배열을 자동으로 닫지 않도록 AUTO_CLOSE_JSON_CONTENT 를 끄고, finish() 에서만 닫는다.
+     */
+    private class JsonArrayRowWriter implements RowWriter {
+        private final JsonGenerator generator;
+        private final String[] columns;
+
+        private JsonArrayRowWriter(Writer writer, String[] columns) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(writer);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            this.generator.writeStartArray();
+            this.columns = columns;
+        }
+
+        @Override
+        public void write(Object... values) throws IOException {
+            generator.writeStartObject();
+            for (int i = 0; i < columns.length; i++) {
+                generator.writeObjectField(columns[i], values[i]);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.writeEndArray();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        private CsvRowWriter(Writer writer, String[] columns) throws IOException {
+            this.writer = writer;
+            write((Object[]) columns);
+        }
+
+        @Override
+        public void write(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(escape(values[i]));
+            }
+            writer.write('\n');
+        }
+
+        private String escape(Object value) {
+            if (value == null) {
+                return "";
+            }
+            String text = value.toString();
+            if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+                return text;
+            }
+            return '"' + text.replace("\"", "\"\"") + '"';
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package me.songha.tutorial.config.datasource;
+
+import me.songha.tutorial.config.SearchCacheProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 두 개의 H2 메모리 DB 를 primary / replica 로 사용한다. 복제는 primary 의 SCRIPT 를 replica 에 실행하는 것으로 대신한다.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.search-cache.enabled=false",
+        "app.datasource.routing.enabled=true",
+        "app.datasource.routing.replicas[0].url=jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1",
+        "app.datasource.routing.replicas[0].username=sa",
+        "app.datasource.routing.lag-query=select lag_seconds from replication_lag",
+        "app.datasource.routing.max-lag=5s",
+        "app.datasource.routing.read-your-writes-window=300ms",
+        "app.datasource.routing.check-interval=PT1H"})
+class ReplicaRoutingDataSourceTest {
+
+    static final JdbcTemplate PRIMARY = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:routing-primary", "sa", ""));
+    static final JdbcTemplate REPLICA = new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:routing-replica", "sa", ""));
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    SearchCacheProperties searchCacheProperties;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @BeforeEach
+    void replicate() {
+        REPLICA.execute("drop all objects");
+        for (String statement : PRIMARY.queryForList("script", String.class)) {
+            if (!statement.startsWith("--")) {
+                REPLICA.execute(statement);
+            }
+        }
+        REPLICA.execute("create table replication_lag (lag_seconds int)");
+        REPLICA.update("insert into replication_lag values (0)");
+        routingDataSource.checkReplicas();
+    }
+
+    @Test
+    void readsGoToReplicaAndWritesToPrimary() {
+        AtomicLong now = new AtomicLong();
+        routingDataSource.setNanoClock(now::get);
+
+        REPLICA.update("insert into member (member_id, username, age) values (-1, 'replica-only', 1)");
+        assertThat(repository.searchByWhere(username("replica-only"))).hasSize(1);
+
+        transactionTemplate.executeWithoutResult(status -> em.persist(new Member("written", 1, null)));
+        assertThat(PRIMARY.queryForObject("select count(*) from member where username = 'written'", Long.class)).isOne();
+        assertThat(REPLICA.queryForObject("select count(*) from member where username = 'written'", Long.class)).isZero();
+
+        // 쓰기 직후에는 replica 가 따라오지 못했을 수 있으므로 primary 에서 읽는다.
+        assertThat(repository.searchByWhere(username("written"))).hasSize(1);
+
+        now.addAndGet(Duration.ofMillis(299).toNanos());
+        assertThat(repository.searchByWhere(username("written"))).hasSize(1);
+
+        now.addAndGet(Duration.ofMillis(1).toNanos());
+        assertThat(repository.searchByWhere(username("written"))).isEmpty();
+    }
+
+    @Test
+    void staleReplicaFallsBackToPrimary() {
+        REPLICA.update("insert into member (member_id, username, age) values (-2, 'replica-only', 1)");
+        REPLICA.update("update replication_lag set lag_seconds = 60");
+        routingDataSource.checkReplicas();
+
+        assertThat(routingDataSource.stateOf("replica-0")).isEqualTo(ReplicaRoutingDataSource.State.STALE);
+        assertThat(repository.searchByWhere(username("replica-only"))).isEmpty();
+    }
+
+    @Test
+    void replicaReadsAreNotCached() {
+        REPLICA.update("insert into member (member_id, username, age) values (-3, 'replica-cached', 1)");
+        searchCacheProperties.setEnabled(true);
+        try {
+            assertThat(repository.searchByWhere(username("replica-cached"))).hasSize(1);
+            assertThat(ReplicaRoutingDataSource.isReadingFromReplica()).isFalse();
+
+            // 이벤트 없이 replica 에서만 바뀐 값도 다음 조회에 보인다.
+            REPLICA.update("delete from member where member_id = -3");
+            assertThat(repository.searchByWhere(username("replica-cached"))).isEmpty();
+        } finally {
+            searchCacheProperties.setEnabled(false);
+        }
+    }
+
+    private MemberSearchCondition username(String username) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        return condition;
+    }
+}
@@ -0,0 +1,140 @@
+package me.songha.tutorial.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@AutoConfigureMockMvc
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-api;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class MemberApiControllerTest {
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void answersNotModifiedWithoutQueryingUntilDataChanges() throws Exception {
+        Team team = saveTeam("etagTeam", 3);
+
+        HttpResponse<String> first = send("/api/members/search?teamName=etagTeam", null);
+        assertThat(first.statusCode()).isEqualTo(200);
+        assertThat(objectMapper.readTree(first.body())).hasSize(3);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        assertThat(etag).startsWith("W/");
+
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+        mockMvc.perform(get("/api/members/search").param("teamName", "etagTeam").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        assertThat(queryStatistics.snapshot().statementsSince(before)).isZero();
+
+        transactionTemplate.executeWithoutResult(status -> em.persist(new Member("etagNew", 50, em.find(Team.class, team.getId()))));
+
+        HttpResponse<String> changed = send("/api/members/search?teamName=etagTeam", etag);
+        assertThat(changed.statusCode()).isEqualTo(200);
+        assertThat(changed.headers().firstValue("ETag")).get().isNotEqualTo(etag);
+        assertThat(objectMapper.readTree(changed.body())).extracting(row -> row.get("username").asText()).contains("etagNew");
+    }
+
+    @Test
+    void exportsCompressedStream() throws Exception {
+        saveTeam("exportTeam", 300);
+
+        HttpResponse<byte[]> response = httpClient.send(HttpRequest.newBuilder(uri("/api/members/export?teamName=exportTeam&format=CSV"))
+                .header("Accept-Encoding", "gzip")
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Encoding")).hasValue("gzip");
+        assertThat(response.headers().firstValue("Content-Type")).get().asString().startsWith("text/csv");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(response.body())), StandardCharsets.UTF_8))) {
+            List<String> lines = reader.lines().collect(Collectors.toList());
+            assertThat(lines).hasSize(301);
+            assertThat(lines.get(0)).isEqualTo("memberId,username,age,teamId,teamName");
+        }
+    }
+
+    @Test
+    void chainsKeysetPages() throws Exception {
+        saveTeam("cursorTeam", 5);
+
+        JsonNode first = objectMapper.readTree(send("/api/members/cursor?teamName=cursorTeam&sort=age,asc&limit=3", null).body());
+        assertThat(first.get("content")).extracting(row -> row.get("age").asInt()).containsExactly(0, 1, 2);
+
+        String next = first.get("nextCursor").asText();
+        JsonNode second = objectMapper.readTree(send("/api/members/cursor?teamName=cursorTeam&sort=age,asc&limit=3&cursor=" + next, null).body());
+        assertThat(second.get("content")).extracting(row -> row.get("age").asInt()).containsExactly(3, 4);
+        assertThat(second.get("nextCursor").isNull()).isTrue();
+
+        // 정렬이 다른 요청에 cursor 를 재사용
+        HttpResponse<String> mismatched = send("/api/members/cursor?teamName=cursorTeam&sort=username,asc&limit=3&cursor=" + next, null);
+        assertThat(mismatched.statusCode()).isEqualTo(400);
+    }
+
+    private Team saveTeam(String name, int members) {
+        return transactionTemplate.execute(status -> {
+            Team team = new Team(null, name);
+            em.persist(team);
+            for (int i = 0; i < members; i++) {
+                em.persist(new Member(name + "-member" + i, i, team));
+            }
+            return team;
+        });
+    }
+
+    private HttpResponse<String> send(String path, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
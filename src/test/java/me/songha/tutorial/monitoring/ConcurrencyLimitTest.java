@@ -0,0 +1,122 @@
+package me.songha.tutorial.monitoring;
+
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.songha.tutorial.config.ConcurrencyLimitProperties;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.hibernate.jpa.QueryHints;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:concurrency-limit;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.concurrency-limit.enabled=true",
+        "app.concurrency-limit.max-queue=0",
+        "app.concurrency-limit.methods.chunkedUpdate.initial-limit=1",
+        "app.concurrency-limit.methods.chunkedUpdate.max-limit=1",
+        "app.concurrency-limit.methods.chunkedUpdate.statement-timeout=2s"})
+class ConcurrencyLimitTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    JPAQueryFactory queryFactory;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void rejectsCallsOverLimitAndAppliesStatementTimeout() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Map<String, Object> hints = new ConcurrentHashMap<>();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+
+        try {
+            // chunkedUpdate 의 listener 는 메서드 안에서 호출되므로, 기다리게 해두면 자리를 계속 차지한다.
+            Future<?> first = caller.submit(() -> repository.chunkedUpdate(100, progress -> {
+                hints.putAll(queryFactory.selectFrom(member).createQuery().getHints());
+                running.countDown();
+                try {
+                    finish.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+
+            assertThatThrownBy(() -> repository.chunkedUpdate(100, progress -> {
+            }))
+                    .isInstanceOf(ConcurrencyLimitExceededException.class)
+                    .hasMessageContaining("FinalMemberRepository.chunkedUpdate");
+            // 다른 메서드의 한도와는 상관이 없다.
+            assertThat(repository.exist(Long.MAX_VALUE)).isFalse();
+
+            finish.countDown();
+            first.get(5, TimeUnit.SECONDS);
+        } finally {
+            finish.countDown();
+            caller.shutdownNow();
+        }
+
+        assertThat(hints).containsEntry(QueryHints.SPEC_HINT_TIMEOUT, 2000);
+        assertThat(QueryTimeout.currentMillis()).isNull();
+        assertThat(meterRegistry.get("repository.concurrency.rejected").tag("method", "chunkedUpdate").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("repository.concurrency.inflight").tag("method", "chunkedUpdate").gauge().value())
+                .isZero();
+        repository.chunkedUpdate(100, progress -> {
+        });
+    }
+
+    @Test
+    void rejectsSubSecondStatementTimeout() {
+        // JDBC timeout 은 초 단위라 1초 미만은 timeout 이 없는 것과 같다.
+        ConcurrencyLimitProperties properties = new ConcurrencyLimitProperties();
+        ConcurrencyLimitProperties.Method method = new ConcurrencyLimitProperties.Method();
+        method.setStatementTimeout(Duration.ofMillis(500));
+        properties.getMethods().put("search", method);
+
+        assertThatThrownBy(() -> new ConcurrencyLimitAspect(properties, new SimpleMeterRegistry()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("methods.search.statement-timeout");
+    }
+
+    @Test
+    void vegasLimitFollowsLatency() {
+        VegasLimit limit = new VegasLimit(10, 1, 20, 0.5, 1000);
+        limit.onSample(10_000_000, 10, false);
+
+        // 응답 시간이 부하가 없을 때와 같고 한도를 다 쓰고 있으면 늘린다.
+        for (int i = 0; i < 3; i++) {
+            limit.onSample(10_000_000, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(15);
+
+        // 한도의 절반도 쓰지 않으면 늘리지 않는다.
+        limit.onSample(10_000_000, 2, false);
+        assertThat(limit.getLimit()).isEqualTo(15);
+
+        // 응답 시간이 길어지면 대기열이 쌓였다고 보고 줄인다.
+        for (int i = 0; i < 4; i++) {
+            limit.onSample(100_000_000, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(8);
+
+        // timeout 이면 backoffRatio 만큼 줄인다.
+        limit.onSample(0, 8, true);
+        assertThat(limit.getLimit()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,112 @@
+package me.songha.tutorial.monitoring;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberDto;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.dto.TeamAgeStats;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-plan;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class QueryPlanAdvisorTest {
+
+    @Autowired
+    QueryPlanAdvisor advisor;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void flagsImplicitCrossJoin() {
+        List<QueryPlan> plans = advisor.analyze();
+
+        assertThat(plansOf(plans, "crossJoin"))
+                .anySatisfy(plan -> assertThat(plan.getIssues()).contains(QueryPlan.Issue.CROSS_JOIN));
+        assertThat(plansOf(plans, "crossJoinToInnerJoin"))
+                .allSatisfy(plan -> assertThat(plan.getIssues()).doesNotContain(QueryPlan.Issue.CROSS_JOIN));
+    }
+
+    @Test
+    void indexedLookupsHaveNoIssues() {
+        List<QueryPlan> plans = advisor.analyze();
+
+        assertThat(plansOf(plans, "exist")).isNotEmpty().noneMatch(QueryPlan::hasIssues);
+        assertThat(plansOf(plans, "entityInSelectBatched")).isNotEmpty().noneMatch(QueryPlan::hasIssues);
+    }
+
+    @Test
+    void probesCaptureSqlWithoutReadingRows() {
+        transactionTemplate.executeWithoutResult(status -> em.persist(new Member("probe", 10, null)));
+
+        List<String> statements = queryStatistics.captureWithoutRows(() -> assertThat(repository.getMembers()).isEmpty());
+        assertThat(statements).hasSize(1);
+        assertThat(statements.get(0)).doesNotContain("1 = 0");
+
+        // analyze() 를 실행해도 데이터는 바뀌지 않는다.
+        advisor.analyze();
+        assertThat(repository.getMembers()).extracting(Member::getUsername).containsExactly("probe");
+    }
+
+    @Test
+    void keepsCachesAndReadModelsConsistentWithDb() {
+        Long[] ids = transactionTemplate.execute(status -> {
+            Team team = new Team(null, "teamA");
+            em.persist(team);
+            Member member = new Member("member1", 20, team);
+            em.persist(member);
+            return new Long[]{team.getId(), member.getId()};
+        });
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("member1");
+        condition.setTeamName("teamA");
+        condition.setAgeGoe(10);
+        condition.setAgeLoe(40);
+
+        try {
+            // 점검은 행을 읽지 않으므로, 그 결과가 캐시나 read model 에 남으면 아래 조회가 비어 있게 된다.
+            advisor.analyze();
+
+            assertThat(repository.searchByWhere(condition)).extracting(MemberTeamDto::getMemberId).containsExactly(ids[1]);
+            assertThat(repository.searchWithoutJoin(condition)).extracting(MemberTeamDto::getTeamName).containsExactly("teamA");
+            assertThat(repository.search(condition, PageRequest.of(0, 20)).getTotalElements()).isOne();
+            assertThat(repository.teamAgeStats()).contains(new TeamAgeStats(ids[0], 1, 20, 20, 20));
+            assertThat(repository.noOffsetByUsernameIndex("member", null, 20)).extracting(MemberDto::getUsername).contains("member1");
+            assertThat(repository.exist(ids[1])).isTrue();
+        } finally {
+            transactionTemplate.executeWithoutResult(status -> {
+                em.remove(em.find(Member.class, ids[1]));
+                em.remove(em.find(Team.class, ids[0]));
+            });
+        }
+    }
+
+    private List<QueryPlan> plansOf(List<QueryPlan> plans, String method) {
+        return plans.stream()
+                .filter(plan -> plan.getMethod().equals(method))
+                .collect(Collectors.toList());
+    }
+}
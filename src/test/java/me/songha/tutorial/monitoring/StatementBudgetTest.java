@@ -0,0 +1,144 @@
+package me.songha.tutorial.monitoring;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberTeamDto2;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import me.songha.tutorial.repository.support.TeamBatchLoader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:statement-budget;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.query-metrics.fail-on-budget-exceeded=true"})
+class StatementBudgetTest {
+
+    @TestConfiguration
+    static class Config {
+        @Bean
+        MemberLookup memberLookup(EntityManager em) {
+            return new MemberLookup(em);
+        }
+    }
+
+    static class MemberLookup {
+        private final EntityManager em;
+
+        MemberLookup(EntityManager em) {
+            this.em = em;
+        }
+
+        @StatementBudget(1)
+        public List<String> usernamesOneByOne(List<Long> memberIds) {
+            List<String> usernames = new ArrayList<>();
+            for (Long memberId : memberIds) {
+                usernames.add(em.find(Member.class, memberId).getUsername());
+            }
+            return usernames;
+        }
+    }
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    MemberLookup memberLookup;
+
+    @Autowired
+    TeamBatchLoader teamBatchLoader;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    Long teamId;
+    List<Long> memberIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team team = new Team(null, "team");
+            em.persist(team);
+            for (int i = 0; i < 3; i++) {
+                Member member = new Member("member" + i, i, team);
+                em.persist(member);
+                memberIds.add(member.getId());
+            }
+            teamId = team.getId();
+        });
+    }
+
+    @Test
+    void recordsStatementsPerRepositoryMethod() {
+        List<MemberTeamDto2> result = repository.entityInSelectBatched(teamId);
+
+        assertThat(result).hasSize(3).allSatisfy(row -> assertThat(row.getTeam().getName()).isEqualTo("team"));
+        assertThat(meterRegistry.get("repository.query.statements")
+                .tag("method", "entityInSelectBatched")
+                .summary()
+                .max()).isEqualTo(2);
+        assertThat(meterRegistry.get("repository.query.rows")
+                .tag("method", "entityInSelectBatched")
+                .summary()
+                .max()).isEqualTo(3);
+    }
+
+    @Test
+    void loadsTeamsWithLeadersInOneStatement() {
+        List<Long> teamIds = transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Team team = new Team(null, "led" + i);
+                em.persist(team);
+                Member leader = new Member("leader" + i, 30, team);
+                em.persist(leader);
+                ReflectionTestUtils.setField(team, "leader", leader);
+                ids.add(team.getId());
+            }
+            return ids;
+        });
+
+        // leader 가 EAGER 이므로 fetch join 하지 않으면 leader 마다 select 가 더 나간다.
+        List<String> statements = queryStatistics.capture(() -> {
+            Map<Long, Team> teams = teamBatchLoader.loadAll(teamIds);
+            assertThat(teams).hasSize(3);
+            assertThat(teams.values()).allSatisfy(team -> assertThat(team.getLeader().getUsername()).startsWith("leader"));
+        });
+        assertThat(statements).hasSize(1);
+
+        List<MemberTeamDto2> rows = repository.entityInSelectBatched(teamIds.get(0));
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).getTeam().getLeader().getUsername()).isEqualTo("leader0");
+    }
+
+    @Test
+    void failsWhenStatementsGrowWithRows() {
+        assertThatThrownBy(() -> memberLookup.usernamesOneByOne(memberIds))
+                .isInstanceOf(StatementBudgetExceededException.class)
+                .hasMessageContaining("executed 3 statements, budget is 1");
+    }
+}
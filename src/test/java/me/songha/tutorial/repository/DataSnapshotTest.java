@@ -0,0 +1,149 @@
+package me.songha.tutorial.repository;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:data-snapshot;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.snapshot.batch-size=7"})
+class DataSnapshotTest {
+
+    @Autowired
+    DataSnapshot snapshot;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresDumpedRowsAndContinuesSequences() throws Exception {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team teamA = new Team(null, "teamA");
+            Team teamB = new Team(null, "팀B");
+            em.persist(teamA);
+            em.persist(teamB);
+            Member leader = new Member("leader", 40, teamA);
+            em.persist(leader);
+            ReflectionTestUtils.setField(teamA, "leader", leader);
+            for (int i = 0; i < 20; i++) {
+                em.persist(new Member(i % 5 == 0 ? null : "member" + i, i, i % 3 == 0 ? null : teamB));
+            }
+        });
+        List<Map<String, Object>> teams = rows("select * from team order by team_id");
+        List<Map<String, Object>> members = rows("select * from member order by member_id");
+
+        Path file = dir.resolve("snapshot.bin");
+        DataSnapshot.Result dumped = snapshot.dump(file);
+        assertThat(dumped.getTeams()).isEqualTo(2);
+        assertThat(dumped.getMembers()).isEqualTo(21);
+
+        assertThatThrownBy(() -> snapshot.restore(file)).isInstanceOf(IllegalStateException.class);
+
+        clear();
+        snapshot.restore(file);
+        assertThat(rows("select * from team order by team_id")).isEqualTo(teams);
+        assertThat(rows("select * from member order by member_id")).isEqualTo(members);
+        // BulkChangeEvent 로 메모리의 id 목록도 다시 만들어진다.
+        assertThat(repository.exist((Long) members.get(0).get("MEMBER_ID"))).isTrue();
+
+        Long maxId = (Long) members.get(members.size() - 1).get("MEMBER_ID");
+        Long newId = transactionTemplate.execute(status -> {
+            Member member = new Member("after-restore", 1, null);
+            em.persist(member);
+            return member.getId();
+        });
+        assertThat(newId).isGreaterThan(maxId);
+    }
+
+    @Test
+    void rejectsSnapshotOfAnotherSchema() throws Exception {
+        Path file = dir.resolve("stale.bin");
+        snapshot.dump(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(8);
+            long fingerprint = raw.readLong();
+            raw.seek(8);
+            raw.writeLong(fingerprint ^ 1);
+        }
+        clear();
+
+        assertThatThrownBy(() -> snapshot.restore(file))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("스키마");
+    }
+
+    @Test
+    void rollsBackPartialRestoreOfTruncatedSnapshot() throws Exception {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team team = new Team(null, "truncated");
+            em.persist(team);
+            for (int i = 0; i < 20; i++) {
+                em.persist(new Member("truncated" + i, i, team));
+            }
+        });
+        Path file = dir.resolve("truncated.bin");
+        snapshot.dump(file);
+        clear();
+
+        // header 건수는 맞지만 마지막 member 가 잘린 파일은 batch 몇 개를 커밋한 뒤에 실패한다.
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(raw.length() - 10);
+        }
+        assertThatThrownBy(() -> snapshot.restore(file))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("잘렸");
+        assertThat(count("member")).isZero();
+        assertThat(count("team")).isZero();
+
+        // header 건수만큼의 데이터도 없으면 적재를 시작하지 않는다.
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(64);
+        }
+        assertThatThrownBy(() -> snapshot.restore(file))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("header");
+        assertThat(count("member")).isZero();
+    }
+
+    private long count(String table) {
+        return jdbcTemplate.queryForObject("select count(*) from " + table, Long.class);
+    }
+
+    private List<Map<String, Object>> rows(String sql) {
+        return jdbcTemplate.queryForList(sql);
+    }
+
+    private void clear() {
+        jdbcTemplate.update("update team set member_id = null");
+        jdbcTemplate.update("delete from member");
+        jdbcTemplate.update("delete from team");
+    }
+}
@@ -0,0 +1,94 @@
+package me.songha.tutorial.repository;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.MemberLoadRow;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-bulk-loader;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class MemberBulkLoaderTest {
+
+    @Autowired
+    MemberBulkLoader loader;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void loadsMembersAcrossCommitIntervals() {
+        Map<String, Long> teamIds = loader.loadTeams(List.of("loadA", "loadB", "loadA"));
+        assertThat(teamIds).containsOnlyKeys("loadA", "loadB");
+
+        List<MemberLoadRow> rows = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            rows.add(new MemberLoadRow("load" + i, i, i % 3 == 0 ? null : i % 3 == 1 ? "loadA" : "loadB"));
+        }
+
+        assertThat(loader.loadMembers(rows.iterator(), teamIds, 10)).isEqualTo(25);
+
+        List<Map<String, Object>> loaded = jdbcTemplate.queryForList(
+                "select member_id, username, age, team_id from member where username like 'load%' order by member_id");
+        assertThat(loaded).hasSize(25);
+        for (int i = 0; i < loaded.size(); i++) {
+            Map<String, Object> row = loaded.get(i);
+            MemberLoadRow expected = rows.get(i);
+            assertThat(row.get("USERNAME")).isEqualTo(expected.getUsername());
+            assertThat(row.get("AGE")).isEqualTo(expected.getAge());
+            assertThat(row.get("TEAM_ID")).isEqualTo(expected.getTeamName() == null ? null : teamIds.get(expected.getTeamName()));
+        }
+
+        // id 는 EntityManager 와 같은 pooled 시퀀스에서 꺼내므로, 적재 순서대로 증가하고 이후 persist 와 겹치지 않는다.
+        long lastLoaded = ((Number) loaded.get(loaded.size() - 1).get("MEMBER_ID")).longValue();
+        Long persisted = transactionTemplate.execute(status -> {
+            Member member = new Member("afterLoad", 1, null);
+            em.persist(member);
+            return member.getId();
+        });
+        assertThat(persisted).isGreaterThan(lastLoaded);
+    }
+
+    @Test
+    void rollsBackOnlyUncommittedIntervalWhenRowFails() {
+        List<MemberLoadRow> rows = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            rows.add(new MemberLoadRow("partial" + i, i, i == 6 ? "missing" : null));
+        }
+
+        assertThatThrownBy(() -> loader.loadMembers(rows.iterator(), Collections.emptyMap(), 5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from member where username like 'partial%'", Long.class))
+                .isEqualTo(5);
+    }
+
+    @Test
+    void rejectsNonPositiveCommitInterval() {
+        List<MemberLoadRow> rows = List.of(new MemberLoadRow("never", 1, null));
+
+        assertThatThrownBy(() -> loader.loadMembers(rows.iterator(), Collections.emptyMap(), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> loader.loadMembers(rows.iterator(), Collections.emptyMap(), -1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from member where username = 'never'", Long.class))
+                .isZero();
+    }
+}
@@ -0,0 +1,98 @@
+package me.songha.tutorial.repository;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.BulkModifyProgress;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-bulk-modifier;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class MemberBulkModifierTest {
+
+    @Autowired
+    MemberBulkModifier bulkModifier;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void reportsProgressPerChunk() {
+        Long lastId = transactionTemplate.execute(status -> {
+            Member last = null;
+            for (int i = 0; i < 25; i++) {
+                last = new Member("chunk" + i, i, null);
+                em.persist(last);
+            }
+            return last.getId();
+        });
+
+        List<BulkModifyProgress> progress = new ArrayList<>();
+        BulkModifyProgress result = bulkModifier.modify(member.username.startsWith("chunk"),
+                update -> update.set(member.username, member.username.concat("+")), 10, progress::add);
+
+        assertThat(progress).extracting(BulkModifyProgress::getCompletedChunks).containsExactly(1L, 2L, 3L);
+        assertThat(progress).extracting(BulkModifyProgress::getTotalChunks).containsExactly(3L, 3L, 3L);
+        assertThat(progress).extracting(BulkModifyProgress::getModifiedRows).containsExactly(10L, 20L, 25L);
+        assertThat(result.isDone()).isTrue();
+        assertThat(result.getLastId()).isEqualTo(lastId);
+        assertThat(jdbcTemplate.queryForObject(
+                "select count(*) from member where username like 'chunk%+'", Long.class)).isEqualTo(25);
+    }
+
+    @Test
+    void walksSparseAndWideIdRangesByRows() {
+        long[] ids = {1_000L, 1L << 40, Long.MAX_VALUE - 1};
+        for (long id : ids) {
+            jdbcTemplate.update("insert into member (member_id, username, age) values (?, 'sparse', 1)", id);
+        }
+
+        List<BulkModifyProgress> progress = new ArrayList<>();
+        BulkModifyProgress result = bulkModifier.modify(member.username.startsWith("sparse"),
+                update -> update.set(member.age, member.age.add(1)), 1, progress::add);
+
+        // 빈 id 구간을 돌지 않고 행마다 한 구간이다.
+        assertThat(progress).extracting(BulkModifyProgress::getLastId).containsExactly(ids[0], ids[1], ids[2]);
+        assertThat(progress).extracting(BulkModifyProgress::getTotalChunks).containsOnly(3L);
+        assertThat(result.getModifiedRows()).isEqualTo(3);
+        assertThat(result.isDone()).isTrue();
+        assertThat(jdbcTemplate.queryForList("select age from member where username = 'sparse'", Integer.class))
+                .containsOnly(2);
+    }
+
+    @Test
+    void reportsDoneWhenNothingMatches() {
+        List<BulkModifyProgress> progress = new ArrayList<>();
+        BulkModifyProgress result = bulkModifier.modify(member.username.eq("nobody"),
+                update -> update.set(member.age, 0), 10, progress::add);
+
+        assertThat(progress).containsExactly(result);
+        assertThat(result.getModifiedRows()).isZero();
+        assertThat(result.isDone()).isTrue();
+    }
+
+    @Test
+    void rejectsInvalidChunkSize() {
+        assertThatThrownBy(() -> bulkModifier.modify(null, update -> update.set(member.age, 0), 0, progress -> {
+        })).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bulkModifier.modify(null, update -> update.set(member.age, 0), Long.MAX_VALUE, progress -> {
+        })).isInstanceOf(IllegalArgumentException.class);
+    }
+}
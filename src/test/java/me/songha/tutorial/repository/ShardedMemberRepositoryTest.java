@@ -0,0 +1,236 @@
+package me.songha.tutorial.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import me.songha.tutorial.repository.shard.MemberShards;
+import me.songha.tutorial.repository.shard.ShardRebalancer;
+import me.songha.tutorial.repository.shard.ShardSynchronizer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:sharded-member;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.sharding.enabled=true",
+        "app.sharding.resync-delay=100ms",
+        "app.sharding.shards[0].url=jdbc:h2:mem:sharded-member-0;DB_CLOSE_DELAY=-1",
+        "app.sharding.shards[1].url=jdbc:h2:mem:sharded-member-1;DB_CLOSE_DELAY=-1",
+        "app.sharding.shards[2].url=jdbc:h2:mem:sharded-member-2;DB_CLOSE_DELAY=-1"})
+class ShardedMemberRepositoryTest {
+
+    @Autowired
+    ShardedMemberRepository sharded;
+
+    @Autowired
+    FinalMemberRepository primary;
+
+    @Autowired
+    MemberShards shards;
+
+    @Autowired
+    ShardRebalancer rebalancer;
+
+    @Autowired
+    ShardSynchronizer synchronizer;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void clear() throws InterruptedException {
+        jdbcTemplate.update("update team set member_id = null");
+        jdbcTemplate.update("delete from member");
+        jdbcTemplate.update("delete from team");
+        awaitResync(() -> eventPublisher.publishEvent(new BulkChangeEvent(Member.class)));
+    }
+
+    @Test
+    void coalescesBulkChangesIntoOneDeferredResync() throws InterruptedException {
+        saveTeams(2, 3);
+        long resyncs = awaitResync(() -> {
+            for (int i = 0; i < 10; i++) {
+                eventPublisher.publishEvent(new BulkChangeEvent(Member.class));
+            }
+            // 커밋한 스레드에서는 다시 나누지 않고, 다시 나눌 때까지 조회를 primary 로 보낸다.
+            assertThat(shards.isReady()).isFalse();
+        });
+        assertThat(resyncs).isOne();
+        assertThat(shards.isReady()).isTrue();
+        assertThat(LongStream.of(rebalancer.distribution()).sum()).isEqualTo(6);
+    }
+
+    @Test
+    void mergesShardResultsLikePrimary() {
+        List<Long> teamIds = saveTeams(4, 5);
+        transactionTemplate.executeWithoutResult(status -> {
+            em.persist(new Member("noTeam1", 7, null));
+            em.persist(new Member("noTeam2", 42, null));
+        });
+        assertThat(synchronizer.awaitWrites()).isTrue();
+        assertThat(rebalancer.distribution()).doesNotContain(0L);
+
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setAgeGoe(2);
+        PageRequest page = PageRequest.of(1, 4, Sort.by(Sort.Order.desc("age"), Sort.Order.asc("teamName")));
+
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+        List<MemberTeamDto> byWhere = sharded.searchByWhere(condition);
+        Page<MemberTeamDto> searched = sharded.search(condition, page);
+        List<MemberTeamDto> sameTeam = sharded.findSameTeamMember(teamIds.get(1));
+        List<Integer> sums = sharded.useOrderByNull();
+        // shard 는 JDBC 로만 읽으므로 primary(Hibernate)로 나간 쿼리가 없다.
+        assertThat(queryStatistics.snapshot().statementsSince(before)).isZero();
+
+        List<MemberTeamDto> expected = new ArrayList<>(primary.searchByWhere(condition));
+        expected.sort(Comparator.comparing(MemberTeamDto::getMemberId));
+        assertThat(byWhere).isEqualTo(expected);
+
+        expected.sort(Comparator.comparing(MemberTeamDto::getAge).reversed()
+                .thenComparing(MemberTeamDto::getTeamName, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(MemberTeamDto::getMemberId));
+        assertThat(searched.getTotalElements()).isEqualTo(expected.size());
+        assertThat(searched.getContent()).isEqualTo(expected.subList(4, 8));
+
+        assertThat(sameTeam).containsExactlyInAnyOrderElementsOf(primary.findSameTeamMember(teamIds.get(1)));
+        assertThat(sums).containsExactlyInAnyOrderElementsOf(primary.useOrderByNull());
+    }
+
+    @Test
+    void followsCommittedChangesAndMovedTeams() throws InterruptedException {
+        List<Long> teamIds = saveTeams(6, 10);
+        for (Long teamId : teamIds) {
+            rebalancer.move(teamId, 0);
+        }
+        assertThat(rebalancer.distribution()).containsExactly(60, 0, 0);
+        assertThat(sharded.findSameTeamMember(teamIds.get(2))).hasSize(10);
+
+        List<ShardRebalancer.Move> moves = rebalancer.rebalance();
+        assertThat(moves).hasSize(4);
+        assertThat(rebalancer.distribution()).containsExactly(20, 20, 20);
+        for (Long teamId : teamIds) {
+            assertThat(sharded.findSameTeamMember(teamId)).hasSize(10);
+        }
+
+        // 다른 shard 의 팀으로 옮긴 회원은 이전 shard 에서 지워진다.
+        Long from = teamIds.stream().filter(id -> shards.indexOfTeam(id) == 0).findFirst().orElseThrow();
+        Long to = teamIds.stream().filter(id -> shards.indexOfTeam(id) == 1).findFirst().orElseThrow();
+        transactionTemplate.executeWithoutResult(status -> {
+            Member moved = em.createQuery("select m from Member m where m.team.id = :teamId", Member.class)
+                    .setParameter("teamId", from)
+                    .setMaxResults(1)
+                    .getSingleResult();
+            ReflectionTestUtils.setField(moved, "team", em.find(Team.class, to));
+        });
+        assertThat(synchronizer.awaitWrites()).isTrue();
+        assertThat(rebalancer.distribution()).containsExactly(19, 21, 20);
+        assertThat(sharded.findSameTeamMember(to)).hasSize(11);
+
+        // 다시 동기화해도 옮겨둔 배치는 유지된다.
+        awaitResync(() -> eventPublisher.publishEvent(new BulkChangeEvent(Member.class)));
+        assertThat(rebalancer.distribution()).containsExactly(19, 21, 20);
+        assertThat(teamIds.stream().map(shards::indexOfTeam).collect(Collectors.toList()))
+                .containsExactlyInAnyOrderElementsOf(List.of(0, 0, 1, 1, 2, 2));
+    }
+
+    @Test
+    void isolatesShardWriteFailureFromCommitAndReadsPrimaryUntilResync() throws InterruptedException {
+        Long teamId = saveTeams(1, 1).get(0);
+        MemberShards.Shard shard = shards.ofTeam(teamId);
+        double failures = meterRegistry.counter("member.shard.write.failures").count();
+        long resyncs = meterRegistry.timer("member.shard.resync").count();
+
+        shard.getJdbcTemplate().execute("alter table member rename to member_off");
+        try {
+            // shard 에 쓰지 못해도 이미 커밋된 트랜잭션은 예외 없이 끝난다.
+            transactionTemplate.executeWithoutResult(status ->
+                    em.persist(new Member("afterFailure", 1, em.find(Team.class, teamId))));
+            assertThat(synchronizer.awaitWrites()).isTrue();
+            assertThat(meterRegistry.counter("member.shard.write.failures").count() - failures).isOne();
+            assertThat(shards.isReady()).isFalse();
+            assertThat(sharded.findSameTeamMember(teamId)).extracting(MemberTeamDto::getUsername).contains("afterFailure");
+
+            // 예약된 동기화는 테이블이 없으므로 실패하고, shard 는 준비되지 않은 상태로 남는다.
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (meterRegistry.timer("member.shard.resync").count() == resyncs) {
+                assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                Thread.sleep(10);
+            }
+            assertThat(shards.isReady()).isFalse();
+        } finally {
+            shard.getJdbcTemplate().execute("alter table member_off rename to member");
+        }
+
+        awaitResync(() -> eventPublisher.publishEvent(new BulkChangeEvent(Member.class)));
+        assertThat(shards.isReady()).isTrue();
+        assertThat(LongStream.of(rebalancer.distribution()).sum()).isEqualTo(2);
+    }
+
+    /**
+     * @return trigger 이후 실행된 전체 동기화 수
+     */
+    private long awaitResync(Runnable trigger) throws InterruptedException {
+        long before = meterRegistry.timer("member.shard.resync").count();
+        trigger.run();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (meterRegistry.timer("member.shard.resync").count() == before) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        return meterRegistry.timer("member.shard.resync").count() - before;
+    }
+
+    private List<Long> saveTeams(int teams, int membersPerTeam) {
+        List<Long> teamIds = transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (int t = 0; t < teams; t++) {
+                Team team = new Team(null, "shardTeam" + t);
+                em.persist(team);
+                for (int m = 0; m < membersPerTeam; m++) {
+                    em.persist(new Member("shard" + t + "-" + m, m, team));
+                }
+                ids.add(team.getId());
+            }
+            return ids;
+        });
+        assertThat(synchronizer.awaitWrites()).isTrue();
+        return teamIds;
+    }
+}
@@ -0,0 +1,170 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-count-cache;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.search-cache.enabled=false"})
+class MemberCountCacheTest {
+
+    @Autowired
+    MemberCountCache countCache;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void recountsAfterCommittedMemberChange() {
+        Long memberId = transactionTemplate.execute(status -> {
+            Member saving = new Member("countMember", 10, null);
+            em.persist(saving);
+            return saving.getId();
+        });
+        CountingQuery query = new CountingQuery(3);
+        MemberSearchCondition condition = condition("countMember");
+
+        assertThat(countCache.count(condition, query)).isEqualTo(3);
+        assertThat(countCache.count(condition, query)).isEqualTo(3);
+        assertThat(query.calls()).isOne();
+
+        // rollback 된 변경은 커밋되지 않았으므로 캐시를 그대로 사용한다.
+        transactionTemplate.executeWithoutResult(status -> {
+            em.find(Member.class, memberId).setUsername("rolledBack");
+            em.flush();
+            status.setRollbackOnly();
+        });
+        assertThat(countCache.count(condition, query)).isEqualTo(3);
+        assertThat(query.calls()).isOne();
+
+        transactionTemplate.executeWithoutResult(status -> em.find(Member.class, memberId).setUsername("changed"));
+        query.returns(4);
+        assertThat(countCache.count(condition, query)).isEqualTo(4);
+        assertThat(query.calls()).isEqualTo(2);
+    }
+
+    @Test
+    void recountsAfterCommittedTeamChange() {
+        Long teamId = transactionTemplate.execute(status -> {
+            Team team = new Team(null, "countTeam");
+            em.persist(team);
+            return team.getId();
+        });
+        CountingQuery query = new CountingQuery(1);
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName("countTeam");
+
+        countCache.count(condition, query);
+        countCache.count(condition, query);
+        assertThat(query.calls()).isOne();
+
+        transactionTemplate.executeWithoutResult(status ->
+                ReflectionTestUtils.setField(em.find(Team.class, teamId), "name", "countTeamRenamed"));
+        query.returns(0);
+        assertThat(countCache.count(condition, query)).isZero();
+        assertThat(query.calls()).isEqualTo(2);
+    }
+
+    @Test
+    void recountsAfterCommittedBulkChangeOnly() {
+        CountingQuery query = new CountingQuery(5);
+        MemberSearchCondition condition = condition("countBulk");
+
+        countCache.count(condition, query);
+        assertThat(query.calls()).isOne();
+
+        // 벌크 변경 이벤트는 커밋된 뒤에만 반영된다.
+        transactionTemplate.executeWithoutResult(status -> {
+            eventPublisher.publishEvent(new BulkChangeEvent(Member.class, true));
+            status.setRollbackOnly();
+        });
+        countCache.count(condition, query);
+        assertThat(query.calls()).isOne();
+
+        transactionTemplate.executeWithoutResult(status -> eventPublisher.publishEvent(new BulkChangeEvent(Member.class, true)));
+        countCache.count(condition, query);
+        assertThat(query.calls()).isEqualTo(2);
+
+        // 트랜잭션 밖에서 발행된 이벤트는 바로 반영된다.
+        eventPublisher.publishEvent(new BulkChangeEvent(Team.class));
+        countCache.count(condition, query);
+        assertThat(query.calls()).isEqualTo(3);
+    }
+
+    @Test
+    void searchTotalFollowsBulkUpdate() {
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < 3; i++) {
+                em.persist(new Member("countSearch", i, null));
+            }
+        });
+        MemberSearchCondition condition = condition("countSearch");
+        assertThat(repository.search(condition, PageRequest.of(0, 1)).getTotalElements()).isEqualTo(3);
+
+        // 엔티티 이벤트가 없는 벌크 update 도 BulkChangeEvent 로 건수를 다시 계산한다.
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.update("update member set username = 'moved' where username = 'countSearch' and age = 0");
+            eventPublisher.publishEvent(new BulkChangeEvent(Member.class, true));
+        });
+        assertThat(repository.search(condition, PageRequest.of(0, 1)).getTotalElements()).isEqualTo(2);
+    }
+
+    private MemberSearchCondition condition(String username) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        return condition;
+    }
+
+    private static class CountingQuery implements LongSupplier {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile long count;
+
+        private CountingQuery(long count) {
+            this.count = count;
+        }
+
+        void returns(long count) {
+            this.count = count;
+        }
+
+        int calls() {
+            return calls.get();
+        }
+
+        @Override
+        public long getAsLong() {
+            calls.incrementAndGet();
+            return count;
+        }
+    }
+}
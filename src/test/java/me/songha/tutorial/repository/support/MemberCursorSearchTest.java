@@ -0,0 +1,88 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.CursorSlice;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * MemberKeysetTest 가 만드는 seek 조건을 실제 searchByCursor() 로 실행해본다.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-cursor-search;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.search-cache.enabled=false"})
+class MemberCursorSearchTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void walksAllPagesInSortOrder() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team team = new Team(null, "cursorTeam");
+            em.persist(team);
+            for (int i = 0; i < 7; i++) {
+                em.persist(new Member("cursor" + i, i % 3, i % 2 == 0 ? team : null));
+            }
+        });
+        MemberSearchCondition condition = new MemberSearchCondition();
+
+        List<MemberTeamDto> expected = repository.searchByWhere(condition).stream()
+                .sorted(Comparator.comparing(MemberTeamDto::getAge).thenComparing(MemberTeamDto::getMemberId))
+                .collect(Collectors.toList());
+
+        List<MemberTeamDto> walked = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorSlice<MemberTeamDto> slice = repository.searchByCursor(condition, Sort.by("age"), cursor, 3);
+            assertThat(slice.getContent()).hasSizeLessThanOrEqualTo(3);
+            walked.addAll(slice.getContent());
+            cursor = slice.getNextCursor();
+        } while (cursor != null);
+
+        assertThat(walked).isEqualTo(expected);
+    }
+
+    @Test
+    void rejectsNonPositiveCursorLimitWithoutQuerying() {
+        transactionTemplate.executeWithoutResult(status -> em.persist(new Member("cursorLimit", 1, null)));
+        MemberSearchCondition condition = new MemberSearchCondition();
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+
+        assertThatThrownBy(() -> repository.searchByCursor(condition, Sort.by("age"), null, 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("limit");
+        assertThatThrownBy(() -> repository.searchByCursor(condition, Sort.by("age"), null, -1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(queryStatistics.snapshot().statementsSince(before)).isZero();
+
+        assertThat(repository.searchByCursor(condition, Sort.by("age"), null, 1).getContent()).hasSize(1);
+    }
+}
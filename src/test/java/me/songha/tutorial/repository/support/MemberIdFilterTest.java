@@ -0,0 +1,116 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.event.BulkChangeEvent;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-id-filter;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class MemberIdFilterTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    MemberIdFilter memberIdFilter;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void answersMissingIdsWithoutQueryAndFollowsInsertDelete() {
+        Long id = transactionTemplate.execute(status -> {
+            Member member = new Member("filtered", 10, null);
+            em.persist(member);
+            return member.getId();
+        });
+
+        QueryStatistics.Snapshot missing = queryStatistics.snapshot();
+        assertThat(repository.exist(id + 1_000_000)).isFalse();
+        assertThat(statementsSince(missing)).isZero();
+
+        QueryStatistics.Snapshot found = queryStatistics.snapshot();
+        assertThat(repository.exist(id)).isTrue();
+        assertThat(statementsSince(found)).isOne();
+
+        transactionTemplate.executeWithoutResult(status -> em.remove(em.find(Member.class, id)));
+        QueryStatistics.Snapshot deleted = queryStatistics.snapshot();
+        assertThat(repository.exist(id)).isFalse();
+        assertThat(statementsSince(deleted)).isZero();
+    }
+
+    @Test
+    void checksDbForIdsWrittenInCurrentTransaction() {
+        Boolean exists = transactionTemplate.execute(status -> {
+            Member member = new Member("uncommitted", 10, null);
+            em.persist(member);
+            em.flush();
+            return repository.exist(member.getId());
+        });
+        assertThat(exists).isTrue();
+    }
+
+    @Test
+    void keepsBitmapOnBulkUpdateAndRebuildsOnceInBackground() throws InterruptedException {
+        Long id = transactionTemplate.execute(status -> {
+            Member member = new Member("bulk", 10, null);
+            em.persist(member);
+            return member.getId();
+        });
+
+        // 벌크 update 는 id 를 바꾸지 않으므로 bitmap 이 그대로 남는다.
+        repository.batchUpdate();
+        QueryStatistics.Snapshot afterUpdate = queryStatistics.snapshot();
+        assertThat(repository.exist(id + 1_000_000)).isFalse();
+        assertThat(statementsSince(afterUpdate)).isZero();
+
+        // 행이 추가 / 삭제되었을 수 있는 벌크 변경은 커밋한 스레드에서 다시 읽지 않고 비우기만 한다.
+        // rebuild() 는 filter 에 synchronized 이므로, 잡아두면 이벤트가 모두 도착하기 전에 읽기 시작하지 못한다.
+        double rebuildsBefore = meterRegistry.counter("member.id.filter.rebuilds").count();
+        synchronized (memberIdFilter) {
+            for (int i = 0; i < 10; i++) {
+                eventPublisher.publishEvent(new BulkChangeEvent(Member.class));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            QueryStatistics.Snapshot before = queryStatistics.snapshot();
+            assertThat(repository.exist(id + 1_000_000)).isFalse();
+            if (statementsSince(before) == 0) {
+                break;
+            }
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        assertThat(repository.exist(id)).isTrue();
+        assertThat(meterRegistry.counter("member.id.filter.rebuilds").count() - rebuildsBefore).isOne();
+    }
+
+    private long statementsSince(QueryStatistics.Snapshot before) {
+        return queryStatistics.snapshot().statementsSince(before);
+    }
+}
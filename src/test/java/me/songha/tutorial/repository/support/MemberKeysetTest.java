@@ -0,0 +1,49 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.dto.MemberTeamDto;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemberKeysetTest {
+
+    @Test
+    void memberIdIsAppendedAsTieBreaker() {
+        MemberKeyset keyset = MemberKeyset.of(Sort.by("age"));
+
+        assertThat(keyset.orderSpecifiers())
+                .extracting(Object::toString)
+                .containsExactly("member1.age ASC", "member1.id ASC");
+    }
+
+    @Test
+    void cursorRestoresCompoundSeekPredicate() {
+        MemberKeyset keyset = MemberKeyset.of(Sort.by(Sort.Order.desc("teamName"), Sort.Order.desc("memberId")));
+        String cursor = keyset.cursorOf(new MemberTeamDto(10L, "member10", 20, 1L, "teamA"));
+
+        assertThat(keyset.after(cursor).toString())
+                .isEqualTo("team.name < teamA || team.name is null || team.name = teamA && member1.id < 10");
+    }
+
+    @Test
+    void nullSortValueOnlyMatchesRemainingNulls() {
+        MemberKeyset keyset = MemberKeyset.of(Sort.by("teamName"));
+        String cursor = keyset.cursorOf(new MemberTeamDto(10L, "member10", 20, null, null));
+
+        assertThat(keyset.after(cursor).toString())
+                .isEqualTo("team.name is null && member1.id > 10");
+    }
+
+    @Test
+    void cursorFromAnotherSortIsRejected() {
+        String cursor = MemberKeyset.of(Sort.by("age"))
+                .cursorOf(new MemberTeamDto(10L, "member10", 20, 1L, "teamA"));
+
+        assertThatThrownBy(() -> MemberKeyset.of(Sort.by("username")).after(cursor))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> MemberKeyset.of(Sort.by("age")).after("not-a-cursor"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
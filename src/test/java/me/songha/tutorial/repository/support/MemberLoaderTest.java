@@ -0,0 +1,104 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-loader;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.member-loader.window=200ms"})
+class MemberLoaderTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    MemberLoader loader;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void findByIdsKeepsInputOrderAndPadsInList() {
+        List<Long> ids = saveMembers(4);
+        Long missing = ids.get(3) + 1_000;
+
+        List<Long> found = new ArrayList<>();
+        List<String> statements = queryStatistics.capture(() -> repository
+                .findByIds(Arrays.asList(ids.get(2), missing, null, ids.get(0), ids.get(3), ids.get(1), ids.get(0)))
+                .forEach(loaded -> found.add(loaded.getId())));
+
+        assertThat(found).containsExactly(ids.get(2), ids.get(0), ids.get(3), ids.get(1));
+        assertThat(statements).hasSize(1);
+        // 중복과 null 을 뺀 id 5 개가 8 개로 채워진다.
+        assertThat(statements.get(0).chars().filter(c -> c == '?').count()).isEqualTo(8);
+    }
+
+    @Test
+    void coalescesConcurrentSingleLookups() throws Exception {
+        List<Long> ids = saveMembers(10);
+        int threads = 20;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        double batchesBefore = meterRegistry.summary("member.loader.batch.size").count();
+
+        try {
+            List<Future<Optional<Member>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Long id = i < ids.size() ? ids.get(i) : ids.get(ids.size() - 1) + i;
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return loader.find(id);
+                }));
+            }
+            start.countDown();
+
+            List<Long> loaded = new ArrayList<>();
+            for (Future<Optional<Member>> result : results) {
+                result.get(5, TimeUnit.SECONDS).ifPresent(member -> loaded.add(member.getId()));
+            }
+            assertThat(loaded).containsExactlyElementsOf(ids);
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(meterRegistry.summary("member.loader.batch.size").count() - batchesBefore).isLessThanOrEqualTo(2);
+    }
+
+    private List<Long> saveMembers(int count) {
+        return transactionTemplate.execute(status -> {
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Member member = new Member("loader" + i, i, null);
+                em.persist(member);
+                members.add(member);
+            }
+            return members.stream().map(Member::getId).collect(Collectors.toList());
+        });
+    }
+}
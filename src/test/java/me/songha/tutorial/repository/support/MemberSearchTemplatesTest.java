@@ -0,0 +1,121 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-search-templates;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.search-cache.enabled=false"})
+class MemberSearchTemplatesTest {
+
+    @Autowired
+    MemberSearchTemplates searchTemplates;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void everyShapeMatchesSearchByWhere() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team teamA = new Team(null, "tplA");
+            Team teamB = new Team(null, "tplB");
+            em.persist(teamA);
+            em.persist(teamB);
+            for (int i = 0; i < 12; i++) {
+                em.persist(new Member("tpl" + i % 4, i * 5, i % 3 == 0 ? null : i % 3 == 1 ? teamA : teamB));
+            }
+        });
+
+        // 채워진 필드 조합 16가지에 대해, 값이 맞는 경우와 맞지 않는 경우 모두 비교한다.
+        for (int shape = 0; shape < 16; shape++) {
+            for (boolean matching : new boolean[]{true, false}) {
+                MemberSearchCondition condition = new MemberSearchCondition();
+                if ((shape & 1) != 0) {
+                    condition.setUsername(matching ? "tpl1" : "nobody");
+                }
+                if ((shape & 2) != 0) {
+                    condition.setTeamName(matching ? "tplA" : "noTeam");
+                }
+                if ((shape & 4) != 0) {
+                    condition.setAgeGoe(matching ? 10 : 100);
+                }
+                if ((shape & 8) != 0) {
+                    condition.setAgeLoe(matching ? 40 : 0);
+                }
+
+                assertThat(repository.searchByTemplate(condition))
+                        .as("shape=%s, matching=%s", shape, matching)
+                        .containsExactlyInAnyOrderElementsOf(repository.searchByWhere(condition));
+            }
+        }
+
+        // 빈 문자열은 조건이 없는 것과 같다.
+        MemberSearchCondition blank = new MemberSearchCondition();
+        blank.setUsername("");
+        blank.setTeamName(" ");
+        assertThat(repository.searchByTemplate(blank)).containsExactlyInAnyOrderElementsOf(repository.searchByWhere(blank));
+    }
+
+    @Test
+    void concurrentFirstCallsCountOneMiss() throws Exception {
+        // 다른 테스트가 이미 컴파일한 템플릿이 없도록 새 인스턴스와 레지스트리로 확인한다.
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MemberSearchTemplates fresh = new MemberSearchTemplates(em, registry);
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("concurrent");
+        condition.setAgeGoe(1);
+
+        int threads = 8;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return fresh.search(condition);
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(counter(registry, "miss")).isOne();
+        assertThat(counter(registry, "hit")).isEqualTo(threads - 1);
+        assertThat(registry.get("member.search.template.size").gauge().value()).isOne();
+    }
+
+    private double counter(MeterRegistry registry, String result) {
+        return registry.get("member.search.template").tag("result", result).counter().count();
+    }
+}
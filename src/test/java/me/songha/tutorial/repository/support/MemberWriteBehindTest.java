@@ -0,0 +1,157 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-write-behind;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.write-behind.enabled=true",
+        "app.write-behind.flush-interval=1h",
+        "app.write-behind.max-batch-size=100",
+        "app.write-behind.max-pending=4",
+        "app.write-behind.max-attempts=2",
+        "app.write-behind.backpressure-timeout=5s"})
+class MemberWriteBehindTest {
+
+    @Autowired
+    MemberWriteBehind writeBehind;
+
+    @Autowired
+    UsernameIndex usernameIndex;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @AfterEach
+    void flush() {
+        writeBehind.flush();
+    }
+
+    @Test
+    void repositoryReadsSeePendingChanges() {
+        List<Long> ids = saveMembers("overlay", 1);
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername("overlay0");
+        repository.searchByWhere(condition);
+
+        writeBehind.setAge(ids.get(0), 77);
+
+        // 검색 조건은 DB 의 값으로 비교하고, 결과에는 반영되지 않은 값을 덮어쓴다. 캐시된 결과도 마찬가지이다.
+        assertThat(repository.searchByWhere(condition)).extracting(MemberTeamDto::getAge).containsExactly(77);
+        assertThat(repository.searchByBuilder(condition)).extracting(MemberTeamDto::getAge).containsExactly(77);
+        assertThat(repository.search(condition, PageRequest.of(0, 10)).getContent())
+                .extracting(MemberTeamDto::getAge).containsExactly(77);
+        assertThat(jdbcTemplate.queryForObject("select age from member where member_id = ?", Integer.class, ids.get(0)))
+                .isZero();
+    }
+
+    @Test
+    void coalescesChangesUntilFlush() {
+        List<Long> ids = saveMembers("coalesce", 2);
+        double coalescedBefore = meterRegistry.counter("member.write-behind.coalesced").count();
+
+        for (int i = 0; i < 5; i++) {
+            writeBehind.setUsername(ids.get(0), "renamed" + i);
+        }
+        writeBehind.setAge(ids.get(0), 30);
+        writeBehind.setAge(ids.get(1), 40);
+
+        // 커밋 전에도 이 노드에서는 바뀐 값이 보이고, DB 는 그대로이다.
+        MemberTeamDto row = new MemberTeamDto(ids.get(0), "coalesce0", 0, null, null);
+        assertThat(writeBehind.overlay(row).getUsername()).isEqualTo("renamed4");
+        assertThat(writeBehind.overlay(row).getAge()).isEqualTo(30);
+        assertThat(row.getUsername()).isEqualTo("coalesce0");
+        assertThat(usernameOf(ids.get(0))).isEqualTo("coalesce0");
+        assertThat(meterRegistry.counter("member.write-behind.coalesced").count() - coalescedBefore).isEqualTo(5);
+
+        assertThat(writeBehind.flush()).isEqualTo(2);
+        assertThat(writeBehind.pending(ids.get(0))).isEmpty();
+        assertThat(usernameOf(ids.get(0))).isEqualTo("renamed4");
+        assertThat(jdbcTemplate.queryForList("select age from member where member_id in (?, ?) order by member_id",
+                Integer.class, ids.get(0), ids.get(1))).containsExactly(30, 40);
+        // 커밋된 변경은 엔티티 이벤트로 발행되므로 read model 도 따라온다.
+        assertThat(usernameIndex.startingWith("renamed4", null, 0, 10)).contains(ids.get(0));
+    }
+
+    @Test
+    void waitsForFlushWhenBufferIsFull() {
+        List<Long> ids = saveMembers("full", 5);
+        for (int i = 0; i < 4; i++) {
+            writeBehind.setAge(ids.get(i), 50 + i);
+        }
+        assertThat(jdbcTemplate.queryForObject("select count(*) from member where age >= 50", Long.class)).isZero();
+
+        // 다섯 번째 회원은 앞의 변경이 반영되어 자리가 날 때까지 기다린다.
+        writeBehind.setAge(ids.get(4), 54);
+        assertThat(jdbcTemplate.queryForObject("select count(*) from member where age >= 50", Long.class)).isEqualTo(4);
+        assertThat(writeBehind.pending(ids.get(4)).map(MemberWriteBehind.Change::getAge)).contains(54);
+    }
+
+    @Test
+    void isolatesFailingChangeAndDropsItAfterMaxAttempts() {
+        List<Long> ids = saveMembers("poison", 3);
+        double droppedBefore = meterRegistry.counter("member.write-behind.dropped").count();
+
+        // username 컬럼 길이를 넘는 변경 하나 때문에 다른 회원의 변경까지 실패하면 안 된다.
+        writeBehind.setUsername(ids.get(0), "x".repeat(300));
+        writeBehind.setAge(ids.get(1), 60);
+        writeBehind.setAge(ids.get(2), 61);
+
+        assertThat(writeBehind.flush()).isEqualTo(2);
+        assertThat(jdbcTemplate.queryForList("select age from member where member_id in (?, ?) order by member_id",
+                Integer.class, ids.get(1), ids.get(2))).containsExactly(60, 61);
+        assertThat(writeBehind.pending(ids.get(0))).isPresent();
+
+        // max-attempts 번째 실패에서 버린다.
+        assertThat(writeBehind.flush()).isZero();
+        assertThat(writeBehind.pending(ids.get(0))).isEmpty();
+        assertThat(usernameOf(ids.get(0))).isEqualTo("poison0");
+        assertThat(meterRegistry.counter("member.write-behind.dropped").count() - droppedBefore).isEqualTo(1);
+    }
+
+    private String usernameOf(Long memberId) {
+        return jdbcTemplate.queryForObject("select username from member where member_id = ?", String.class, memberId);
+    }
+
+    private List<Long> saveMembers(String prefix, int count) {
+        return transactionTemplate.execute(status -> {
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Member member = new Member(prefix + i, i, null);
+                em.persist(member);
+                members.add(member);
+            }
+            return members.stream().map(Member::getId).collect(Collectors.toList());
+        });
+    }
+}
@@ -0,0 +1,171 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.songha.tutorial.config.AsyncSearchProperties;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:parallel-page-executor;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class ParallelPageExecutorTest {
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void combinesContentAndCount() throws Exception {
+        ParallelPageExecutor executor = executor(2, 10, Duration.ofSeconds(5));
+        try {
+            Page<String> page = executor.page(PageRequest.of(1, 2), () -> List.of("c", "d"), () -> 5)
+                    .get(5, TimeUnit.SECONDS);
+
+            assertThat(page.getContent()).containsExactly("c", "d");
+            assertThat(page.getTotalElements()).isEqualTo(5);
+            assertThat(awaitOutcome("success")).isOne();
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void timesOutAndInterruptsBothQueries() throws Exception {
+        ParallelPageExecutor executor = executor(2, 10, Duration.ofMillis(200));
+        CountDownLatch interrupted = new CountDownLatch(2);
+        try {
+            CompletableFuture<Page<String>> page = executor.page(PageRequest.of(0, 10),
+                    blocking(new CountDownLatch(1), interrupted), () -> blocking(new CountDownLatch(1), interrupted).get().size());
+
+            assertThatThrownBy(() -> page.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(TimeoutException.class);
+            assertThat(await(interrupted)).isTrue();
+            assertThat(awaitOutcome("timeout")).isOne();
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void cancelsOtherQueryWhenOneFails() throws Exception {
+        ParallelPageExecutor executor = executor(2, 10, Duration.ofSeconds(5));
+        CountDownLatch countStarted = new CountDownLatch(1);
+        CountDownLatch countInterrupted = new CountDownLatch(1);
+        try {
+            Supplier<List<String>> count = blocking(new CountDownLatch(1), countInterrupted);
+            CompletableFuture<Page<String>> page = executor.page(PageRequest.of(0, 10),
+                    () -> {
+                        await(countStarted);
+                        throw new IllegalStateException("content failed");
+                    },
+                    () -> {
+                        countStarted.countDown();
+                        return count.get().size();
+                    });
+
+            assertThatThrownBy(() -> page.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+            assertThat(await(countInterrupted)).isTrue();
+            assertThat(awaitOutcome("error")).isOne();
+        } finally {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    void rejectsWhenPoolAndQueueAreFull() throws Exception {
+        ParallelPageExecutor executor = executor(2, 0, Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        try {
+            Supplier<List<String>> content = () -> {
+                started.countDown();
+                await(release);
+                return List.of("a");
+            };
+            CompletableFuture<Page<String>> first = executor.page(PageRequest.of(0, 10), content,
+                    () -> content.get().size());
+            assertThat(await(started)).isTrue();
+
+            CompletableFuture<Page<String>> second = executor.page(PageRequest.of(0, 10), Collections::emptyList, () -> 0);
+            assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+            assertThat(awaitOutcome("rejected")).isOne();
+
+            // 거절된 검색은 실행 중인 검색에 영향을 주지 않는다.
+            release.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS).getContent()).containsExactly("a");
+        } finally {
+            release.countDown();
+            executor.destroy();
+        }
+    }
+
+    private ParallelPageExecutor executor(int poolSize, int queueCapacity, Duration timeout) {
+        AsyncSearchProperties properties = new AsyncSearchProperties();
+        properties.setPoolSize(poolSize);
+        properties.setQueueCapacity(queueCapacity);
+        properties.setTimeout(timeout);
+        return new ParallelPageExecutor(properties, meterRegistry, transactionManager);
+    }
+
+    /**
+     * 메트릭은 결과 future 가 끝난 뒤 그 future 의 콜백에서 기록되므로 get() 이 돌아온 직후에는 아직 없을 수 있다.
+     */
+    private long awaitOutcome(String outcome) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.find("member.search.parallel").tag("outcome", outcome).timer() == null
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return meterRegistry.get("member.search.parallel").tag("outcome", outcome).timer().count();
+    }
+
+    /**
+     * release 될 때까지 기다리고, 그 전에 interrupt 되면 interrupted 를 센다.
+     */
+    private static Supplier<List<String>> blocking(CountDownLatch release, CountDownLatch interrupted) {
+        return () -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+                return List.of("released");
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
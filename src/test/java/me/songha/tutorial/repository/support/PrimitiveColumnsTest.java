@@ -0,0 +1,73 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primitive-columns;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class PrimitiveColumnsTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    PrimitiveColumns primitiveColumns;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void primitiveVariantsMatchBoxedOnes() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Team teamA = new Team(null, "teamA");
+            Team teamB = new Team(null, "teamB");
+            em.persist(teamA);
+            em.persist(teamB);
+            for (int i = 0; i < 30; i++) {
+                em.persist(new Member("member" + i, i, i % 2 == 0 ? teamA : teamB));
+            }
+            em.persist(new Member("other", 99, teamA));
+        });
+
+        for (int[] page : new int[][]{{0, 1}, {0, 3}, {5, 10}, {25, 20}, {40, 10}, {0, Integer.MAX_VALUE}}) {
+            assertThat(repository.useCoveringIndexPrimitive(page[0], page[1]))
+                    .isEqualTo(repository.useCoveringIndex(page[0], page[1]));
+        }
+
+        assertThat(Arrays.stream(repository.useOrderByNullPrimitive()).boxed().collect(Collectors.toList()))
+                .containsExactlyInAnyOrderElementsOf(repository.useOrderByNull().stream()
+                        .map(sum -> ((Number) sum).longValue())
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void growsBeyondInitialCapacityWithoutPresizingToLimit() {
+        long[] values = primitiveColumns.longs("select x from system_range(1, 3000)", Integer.MAX_VALUE);
+
+        assertThat(values).hasSize(3000);
+        assertThat(values[0]).isEqualTo(1);
+        assertThat(values[2999]).isEqualTo(3000);
+    }
+
+    @Test
+    void rejectsNonPositiveLimit() {
+        assertThatThrownBy(() -> repository.useCoveringIndexPrimitive(0, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,223 @@
+package me.songha.tutorial.repository.support;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import me.songha.tutorial.config.SearchCacheProperties;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.monitoring.QueryStatistics;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:search-result-cache;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class SearchResultCacheTest {
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    SearchResultCache searchResultCache;
+
+    @Autowired
+    QueryStatistics queryStatistics;
+
+    @Autowired
+    SearchCacheProperties searchCacheProperties;
+
+    @Autowired
+    TeamCache teamCache;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void invalidatesOnlyConditionsTouchedByChanges() {
+        Long[] ids = transactionTemplate.execute(status -> {
+            Team cacheA = new Team(null, "cacheA");
+            Team cacheB = new Team(null, "cacheB");
+            em.persist(cacheA);
+            em.persist(cacheB);
+            em.persist(new Member("cached", 10, cacheA));
+            Member inB = new Member("other", 20, cacheB);
+            em.persist(inB);
+            return new Long[]{cacheB.getId(), inB.getId()};
+        });
+        Long teamB = ids[0];
+        Long memberInB = ids[1];
+
+        MemberSearchCondition byUsername = condition("cached", null);
+        MemberSearchCondition byTeam = condition(null, "cacheB");
+
+        assertThat(statements(byUsername)).isOne();
+        assertThat(statements(byTeam)).isOne();
+        MemberSearchCondition blankTeamName = condition("cached", "");
+        assertThat(statements(blankTeamName)).isZero();
+
+        // 두 조건 모두에 맞지 않는 회원
+        transactionTemplate.executeWithoutResult(status -> em.persist(new Member("unrelated", 30, null)));
+        assertThat(statements(byUsername)).isZero();
+        assertThat(statements(byTeam)).isZero();
+
+        // cacheB 의 회원이 바뀌면 팀 이름 조건만 다시 조회한다.
+        transactionTemplate.executeWithoutResult(status -> em.find(Member.class, memberInB).setUsername("changed"));
+        assertThat(statements(byUsername)).isZero();
+        assertThat(statements(byTeam)).isOne();
+        assertThat(repository.searchByWhere(byTeam)).extracting(MemberTeamDto::getUsername).containsExactly("changed");
+
+        // 팀 이름이 바뀌면 이전 이름으로 조회한 결과도 바뀐다.
+        transactionTemplate.executeWithoutResult(status -> ReflectionTestUtils.setField(em.find(Team.class, teamB), "name", "renamed"));
+        assertThat(statements(byUsername)).isZero();
+        assertThat(repository.searchByWhere(byTeam)).isEmpty();
+
+        // 벌크 update 는 어떤 행이 바뀌었는지 알 수 없으므로 전부 다시 조회한다.
+        transactionTemplate.executeWithoutResult(status -> repository.batchUpdate());
+        assertThat(statements(byUsername)).isOne();
+    }
+
+    @Test
+    void invalidatesEveryConditionWhenOldStateIsUnknown() {
+        Long memberId = transactionTemplate.execute(status -> {
+            Member member = new Member("unknownOld", 10, null);
+            em.persist(member);
+            return member.getId();
+        });
+        MemberSearchCondition byUsername = condition("unknownOld", null);
+        assertThat(statements(byUsername)).isOne();
+        assertThat(statements(byUsername)).isZero();
+
+        // 변경 후 값은 조건에 맞지 않지만, 변경 전 값을 모르므로 무효화해야 한다.
+        String[] properties = {"age", "team", "username"};
+        searchResultCache.onChange(new EntityChangeEvent(Member.class, memberId, EntityChangeEvent.Type.UPDATE,
+                properties, null, new Object[]{10, null, "renamedWithoutOld"}));
+        assertThat(statements(byUsername)).isOne();
+    }
+
+    @Test
+    void expiresAfterTtl() {
+        AtomicLong now = new AtomicLong();
+        SearchResultCache searchResultCache = new SearchResultCache(searchCacheProperties, teamCache, queryStatistics,
+                entityManagerFactory, new SimpleMeterRegistry(), now::get);
+        MemberSearchCondition condition = condition("ttl", null);
+        AtomicInteger queries = new AtomicInteger();
+        Supplier<List<MemberTeamDto>> query = () -> {
+            queries.incrementAndGet();
+            return Collections.emptyList();
+        };
+
+        searchResultCache.get(condition, query);
+        now.addAndGet(Duration.ofSeconds(59).toNanos());
+        searchResultCache.get(condition, query);
+        assertThat(queries).hasValue(1);
+
+        // 이벤트 없이 바뀐 데이터도 ttl(1m) 이 지나면 다시 조회한다.
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        searchResultCache.get(condition, query);
+        assertThat(queries).hasValue(2);
+    }
+
+    @Test
+    void bypassesCacheInsideReadWriteTransaction() {
+        MemberSearchCondition condition = condition("in-transaction", null);
+        AtomicInteger queries = new AtomicInteger();
+        Supplier<List<MemberTeamDto>> query = () -> {
+            queries.incrementAndGet();
+            return Collections.emptyList();
+        };
+
+        searchResultCache.get(condition, query);
+        // 자신의 커밋되지 않은 변경이 보여야 하므로 캐시된 결과를 쓰지 않는다.
+        transactionTemplate.executeWithoutResult(status -> searchResultCache.get(condition, query));
+        assertThat(queries).hasValue(2);
+
+        // 트랜잭션 안에서 읽은 결과는 캐시에 남지 않는다.
+        MemberSearchCondition uncommitted = condition("uncommitted", null);
+        transactionTemplate.executeWithoutResult(status -> {
+            em.persist(new Member("uncommitted", 10, null));
+            assertThat(repository.searchByWhere(uncommitted)).hasSize(1);
+            status.setRollbackOnly();
+        });
+        assertThat(repository.searchByWhere(uncommitted)).isEmpty();
+    }
+
+    @Test
+    void concurrentMissesRunOneQuery() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        MemberSearchCondition condition = condition("stampede", null);
+        int threads = 10;
+        ExecutorService callers = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch arrived = new CountDownLatch(threads);
+
+        try {
+            List<Future<List<MemberTeamDto>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    arrived.countDown();
+                    return searchResultCache.get(condition, () -> {
+                        queries.incrementAndGet();
+                        // 모든 호출이 get() 직전까지 온 뒤에 끝낸다. 그 뒤에 도착한 호출은 캐시된 결과를 받는다.
+                        await(arrived);
+                        return Collections.emptyList();
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<List<MemberTeamDto>> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEmpty();
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(queries).hasValue(1);
+    }
+
+    private long statements(MemberSearchCondition condition) {
+        QueryStatistics.Snapshot before = queryStatistics.snapshot();
+        repository.searchByWhere(condition);
+        return queryStatistics.snapshot().statementsSince(before);
+    }
+
+    private MemberSearchCondition condition(String username, String teamName) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setUsername(username);
+        condition.setTeamName(teamName);
+        return condition;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
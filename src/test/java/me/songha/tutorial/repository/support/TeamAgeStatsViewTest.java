@@ -0,0 +1,195 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.domain.event.EntityChangeEvent;
+import me.songha.tutorial.dto.TeamAgeStats;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:team-age-stats;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class TeamAgeStatsViewTest {
+
+    private static final String[] PROPERTIES = {"age", "team", "username"};
+
+    @Autowired
+    TeamAgeStatsView view;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void loadView() {
+        // 앞선 테스트의 벌크 변경으로 비워졌더라도 메모리의 값으로 답하도록 DB 기준으로 맞춰둔다.
+        view.verify();
+    }
+
+    @Test
+    void followsInsert() {
+        Long teamId = saveTeam("insertTeam");
+        saveMember("insert1", 10, teamId);
+        saveMember("insert2", 30, teamId);
+
+        assertThat(view.findByTeamId(teamId)).contains(new TeamAgeStats(teamId, 2, 40, 10, 30));
+        assertThat(view.verify()).isZero();
+    }
+
+    @Test
+    void followsAgeUpdate() {
+        Long teamId = saveTeam("updateTeam");
+        Long memberId = saveMember("update1", 10, teamId);
+        saveMember("update2", 20, teamId);
+
+        transactionTemplate.executeWithoutResult(status -> em.find(Member.class, memberId).setAge(50));
+
+        assertThat(view.findByTeamId(teamId)).contains(new TeamAgeStats(teamId, 2, 70, 20, 50));
+        assertThat(view.verify()).isZero();
+    }
+
+    @Test
+    void followsReassignToAnotherTeam() {
+        Long from = saveTeam("reassignFrom");
+        Long to = saveTeam("reassignTo");
+        Long memberId = saveMember("reassign1", 10, from);
+        saveMember("reassign2", 20, from);
+
+        transactionTemplate.executeWithoutResult(status -> em.createQuery("update Member m set m.team = :team where m.id = :id")
+                .setParameter("team", em.getReference(Team.class, to))
+                .setParameter("id", memberId)
+                .executeUpdate());
+        // JPQL update 는 엔티티 이벤트가 없으므로, 같은 변경의 이벤트를 엔티티로 옮길 때와 같은 모양으로 보낸다.
+        view.onMemberChange(update(memberId, null, 10, teamReference(to)));
+
+        assertThat(view.findByTeamId(from)).contains(new TeamAgeStats(from, 1, 20, 20, 20));
+        assertThat(view.findByTeamId(to)).contains(new TeamAgeStats(to, 1, 10, 10, 10));
+        assertThat(view.verify()).isZero();
+    }
+
+    @Test
+    void followsDelete() {
+        Long teamId = saveTeam("deleteTeam");
+        Long memberId = saveMember("delete1", 10, teamId);
+
+        transactionTemplate.executeWithoutResult(status -> em.remove(em.find(Member.class, memberId)));
+
+        assertThat(view.findByTeamId(teamId)).isEmpty();
+        assertThat(view.verify()).isZero();
+    }
+
+    @Test
+    void ignoresEventsAlreadyReflectedInRebuild() {
+        Long teamId = saveTeam("replayTeam");
+        Long memberId = saveMember("replay1", 10, teamId);
+        transactionTemplate.executeWithoutResult(status -> em.find(Member.class, memberId).setAge(40));
+
+        // 다시 만드는 쿼리가 이미 읽은 커밋의 이벤트가 뒤늦게 도착한 경우
+        view.verify();
+        Team team = teamReference(teamId);
+        view.onMemberChange(insert(memberId, 10, team));
+        view.onMemberChange(update(memberId, 10, 40, team));
+        view.onMemberChange(update(memberId, 10, 40, team));
+
+        assertThat(view.findByTeamId(teamId)).contains(new TeamAgeStats(teamId, 1, 40, 40, 40));
+        assertThat(view.verify()).isZero();
+    }
+
+    @Test
+    void followsInsertUpdateReassignDeleteAndBulkChanges() {
+        Long[] ids = transactionTemplate.execute(status -> {
+            Team teamA = new Team(null, "teamA");
+            Team teamB = new Team(null, "teamB");
+            em.persist(teamA);
+            em.persist(teamB);
+            em.persist(new Member("member1", 10, teamA));
+            em.persist(new Member("member2", 20, teamA));
+            Member moving = new Member("member3", 30, teamA);
+            em.persist(moving);
+            return new Long[]{teamA.getId(), teamB.getId(), moving.getId()};
+        });
+        Long teamA = ids[0];
+        Long teamB = ids[1];
+        Long moving = ids[2];
+
+        assertThat(view.findByTeamId(teamA)).contains(new TeamAgeStats(teamA, 3, 60, 10, 30));
+
+        // 벌크 update 는 엔티티 이벤트가 없고, 같은 트랜잭션의 batchUpdate() 가 발행하는 BulkChangeEvent 로 다시 만든다.
+        transactionTemplate.executeWithoutResult(status -> {
+            em.createQuery("update Member m set m.team = :team, m.age = 35 where m.id = :id")
+                    .setParameter("team", em.getReference(Team.class, teamB))
+                    .setParameter("id", moving)
+                    .executeUpdate();
+            repository.batchUpdate();
+        });
+        assertThat(view.findByTeamId(teamA)).contains(new TeamAgeStats(teamA, 2, 30, 10, 20));
+        assertThat(view.findByTeamId(teamB)).contains(new TeamAgeStats(teamB, 1, 35, 35, 35));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            em.persist(new Member("member4", 5, em.find(Team.class, teamB)));
+            em.remove(memberOf(teamA, 10));
+        });
+        assertThat(view.findByTeamId(teamA)).contains(new TeamAgeStats(teamA, 1, 20, 20, 20));
+        assertThat(view.findByTeamId(teamB)).contains(new TeamAgeStats(teamB, 2, 40, 5, 35));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            em.remove(memberOf(teamA, 20));
+        });
+        assertThat(view.findByTeamId(teamA)).isEmpty();
+        assertThat(view.verify()).isZero();
+    }
+
+    private Long saveTeam(String name) {
+        return transactionTemplate.execute(status -> {
+            Team team = new Team(null, name);
+            em.persist(team);
+            return team.getId();
+        });
+    }
+
+    private Long saveMember(String username, int age, Long teamId) {
+        return transactionTemplate.execute(status -> {
+            Member member = new Member(username, age, em.getReference(Team.class, teamId));
+            em.persist(member);
+            return member.getId();
+        });
+    }
+
+    private Member memberOf(Long teamId, int age) {
+        return em.createQuery("select m from Member m where m.team.id = :teamId and m.age = :age", Member.class)
+                .setParameter("teamId", teamId)
+                .setParameter("age", age)
+                .getSingleResult();
+    }
+
+    private Team teamReference(Long teamId) {
+        return transactionTemplate.execute(status -> em.find(Team.class, teamId));
+    }
+
+    private static EntityChangeEvent insert(Long memberId, int age, Team team) {
+        return new EntityChangeEvent(Member.class, memberId, EntityChangeEvent.Type.INSERT,
+                PROPERTIES, null, new Object[]{age, team, "replayed"});
+    }
+
+    /**
+     * oldAge 가 null 이면 detach 된 엔티티의 update() 처럼 변경 전 값을 모르는 이벤트이다.
+     */
+    private static EntityChangeEvent update(Long memberId, Integer oldAge, int age, Team team) {
+        return new EntityChangeEvent(Member.class, memberId, EntityChangeEvent.Type.UPDATE,
+                PROPERTIES, oldAge == null ? null : new Object[]{oldAge, team, "replayed"}, new Object[]{age, team, "replayed"});
+    }
+}
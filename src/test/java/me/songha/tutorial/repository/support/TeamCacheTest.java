@@ -0,0 +1,116 @@
+package me.songha.tutorial.repository.support;
+
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import me.songha.tutorial.dto.MemberTeamDto;
+import me.songha.tutorial.repository.FinalMemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * searchByBuilder() 는 TeamCache 를 거치지 않고 team 조인으로만 비교하므로 기준 결과로 사용한다.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:team-cache;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.search-cache.enabled=false"})
+class TeamCacheTest {
+
+    private static final List<String> TEAM_NAMES = Arrays.asList(null, "", "alpha", "beta", "empty", "none", "renamed");
+
+    @Autowired
+    TeamCache teamCache;
+
+    @Autowired
+    FinalMemberRepository repository;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void teamNameSearchesMatchJoinedSearch() {
+        Long beta = transactionTemplate.execute(status -> {
+            Team alpha1 = new Team(null, "alpha");
+            Team alpha2 = new Team(null, "alpha");
+            Team betaTeam = new Team(null, "beta");
+            em.persist(alpha1);
+            em.persist(alpha2);
+            em.persist(betaTeam);
+            em.persist(new Team(null, "empty"));
+            for (int i = 0; i < 12; i++) {
+                Team team = i % 4 == 0 ? alpha1 : i % 4 == 1 ? alpha2 : i % 4 == 2 ? betaTeam : null;
+                em.persist(new Member("cached" + i, i * 5, team));
+            }
+            return betaTeam.getId();
+        });
+        assertThat(teamCache.isComplete()).isTrue();
+        assertSameAsJoin();
+
+        // 커밋된 팀 이름 변경은 이벤트로 캐시에 반영된다.
+        transactionTemplate.executeWithoutResult(status -> ReflectionTestUtils.setField(em.find(Team.class, beta), "name", "renamed"));
+        assertThat(teamCache.idsOf("renamed")).containsExactly(beta);
+        assertSameAsJoin();
+    }
+
+    @Test
+    void writeTransactionSeesItsOwnTeamChanges() {
+        Long teamId = transactionTemplate.execute(status -> {
+            Team team = new Team(null, "before");
+            em.persist(team);
+            em.persist(new Member("uncommittedTeam", 1, team));
+            return team.getId();
+        });
+
+        transactionTemplate.executeWithoutResult(status -> {
+            ReflectionTestUtils.setField(em.find(Team.class, teamId), "name", "after");
+            em.flush();
+            assertThat(repository.searchByWhere(condition("after", null)))
+                    .extracting(MemberTeamDto::getUsername).containsExactly("uncommittedTeam");
+            assertThat(repository.searchByWhere(condition("before", null))).isEmpty();
+            status.setRollbackOnly();
+        });
+        assertThat(teamCache.idsOf("before")).containsExactly(teamId);
+    }
+
+    private void assertSameAsJoin() {
+        for (String teamName : TEAM_NAMES) {
+            for (Integer ageGoe : new Integer[]{null, 20}) {
+                MemberSearchCondition condition = condition(teamName, ageGoe);
+                List<MemberTeamDto> expected = repository.searchByBuilder(condition);
+
+                assertThat(repository.searchByWhere(condition))
+                        .as("searchByWhere teamName=%s, ageGoe=%s", teamName, ageGoe)
+                        .containsExactlyInAnyOrderElementsOf(expected);
+                assertThat(repository.searchWithoutJoin(condition))
+                        .as("searchWithoutJoin teamName=%s, ageGoe=%s", teamName, ageGoe)
+                        .containsExactlyInAnyOrderElementsOf(expected);
+
+                Page<MemberTeamDto> page = repository.search(condition, PageRequest.of(0, 100));
+                assertThat(page.getContent()).containsExactlyInAnyOrderElementsOf(expected);
+                assertThat(page.getTotalElements()).isEqualTo(expected.size());
+            }
+        }
+    }
+
+    private MemberSearchCondition condition(String teamName, Integer ageGoe) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName(teamName);
+        condition.setAgeGoe(ageGoe);
+        return condition;
+    }
+}
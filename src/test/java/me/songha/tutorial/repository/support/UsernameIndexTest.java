@@ -0,0 +1,114 @@
+package me.songha.tutorial.repository.support;
+
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.jpa.impl.JPAQueryFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import me.songha.tutorial.domain.Member;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static me.songha.tutorial.domain.QMember.member;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.util.StringUtils.hasText;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:username-index;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false"})
+class UsernameIndexTest {
+
+    private static final List<String> KEYWORDS = Arrays.asList(
+            null, "", " ", "a", "ab", "abc", "bcd", "abcd", "cab", "zz", "zzz", "Abc", "member", "mem", "ber1");
+
+    @Autowired
+    UsernameIndex usernameIndex;
+
+    @Autowired
+    JPAQueryFactory queryFactory;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void matchesLikeQueriesThroughInsertRenameAndDelete() {
+        List<Long> ids = transactionTemplate.execute(status -> {
+            List<Long> saved = new ArrayList<>();
+            for (String username : new String[]{"abc", "abcd", "xabcx", "cabcab", "ab", "ABC", "member1", "member10",
+                    "zzzz", "bcda", null}) {
+                Member saving = new Member(username, 1, null);
+                em.persist(saving);
+                saved.add(saving.getId());
+            }
+            return saved;
+        });
+        assertMatchesLike();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            em.find(Member.class, ids.get(0)).setUsername("zzabc");
+            em.find(Member.class, ids.get(6)).setUsername("renamed");
+            em.find(Member.class, ids.get(10)).setUsername("member2");
+        });
+        assertMatchesLike();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            em.remove(em.find(Member.class, ids.get(1)));
+            em.remove(em.find(Member.class, ids.get(8)));
+            em.persist(new Member("abcabc", 2, null));
+        });
+        assertMatchesLike();
+    }
+
+    /**
+     * 인덱스에서 답했는지 확인하기 위해 username 이 있는 회원 수와 인덱스 크기를 먼저 비교한다.
+     */
+    private void assertMatchesLike() {
+        Long indexed = queryFactory.select(member.count()).from(member).where(member.username.isNotNull()).fetchOne();
+        assertThat(meterRegistry.get("member.username.index.size").gauge().value()).isEqualTo(indexed.doubleValue());
+
+        List<Long> all = queryFactory.select(member.id).from(member).orderBy(member.id.desc()).fetch();
+        Long middle = all.get(all.size() / 2);
+
+        for (String keyword : KEYWORDS) {
+            assertSamePages(keyword, member.username::contains,
+                    (beforeId, offset) -> usernameIndex.containing(keyword, beforeId, offset, 3), middle);
+            assertSamePages(keyword, member.username::startsWith,
+                    (beforeId, offset) -> usernameIndex.startingWith(keyword, beforeId, offset, 3), middle);
+        }
+    }
+
+    private void assertSamePages(String keyword, Function<String, BooleanExpression> like, PageReader index, Long middle) {
+        for (Long beforeId : new Long[]{null, middle}) {
+            for (long offset : new long[]{0, 2}) {
+                List<Long> expected = queryFactory
+                        .select(member.id)
+                        .from(member)
+                        .where(hasText(keyword) ? like.apply(keyword) : null,
+                                beforeId != null ? member.id.lt(beforeId) : null)
+                        .orderBy(member.id.desc())
+                        .offset(offset)
+                        .limit(3)
+                        .fetch();
+                assertThat(index.read(beforeId, offset))
+                        .as("keyword=%s, beforeId=%s, offset=%s", keyword, beforeId, offset)
+                        .isEqualTo(expected);
+            }
+        }
+    }
+
+    private interface PageReader {
+        List<Long> read(Long beforeId, long offset);
+    }
+}
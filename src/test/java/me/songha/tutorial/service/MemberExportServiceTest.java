@@ -0,0 +1,161 @@
+package me.songha.tutorial.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.songha.tutorial.domain.Member;
+import me.songha.tutorial.domain.Team;
+import me.songha.tutorial.dto.MemberSearchCondition;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:member-export;DB_CLOSE_DELAY=-1",
+        "spring.jpa.show-sql=false",
+        "app.export.fetch-size=2"})
+class MemberExportServiceTest {
+
+    private static final String TEAM_NAME = "export,\"team\"";
+
+    @Autowired
+    MemberExportService exportService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    void exportsSearchRowsAsCsvWithEscaping() throws Exception {
+        Seed seed = seed("csv");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long rows = exportService.exportSearch(teamCondition(seed), out, MemberExportService.Format.CSV);
+
+        String escapedTeam = "\"export,\"\"team\"\"" + seed.suffix + "\"";
+        List<String> expected = List.of(
+                seed.ids.get(0) + ",plain" + seed.suffix + ",10," + seed.teamId + "," + escapedTeam + "\n",
+                seed.ids.get(1) + ",\"comma," + seed.suffix + "\",20," + seed.teamId + "," + escapedTeam + "\n",
+                seed.ids.get(2) + ",\"quote\"\"d" + seed.suffix + "\",30," + seed.teamId + "," + escapedTeam + "\n",
+                seed.ids.get(3) + ",\"new\nline" + seed.suffix + "\",40," + seed.teamId + "," + escapedTeam + "\n",
+                seed.ids.get(4) + ",\"carriage\rreturn" + seed.suffix + "\",50," + seed.teamId + "," + escapedTeam + "\n");
+
+        String csv = out.toString(StandardCharsets.UTF_8);
+        String header = "memberId,username,age,teamId,teamName\n";
+        assertThat(rows).isEqualTo(expected.size());
+        assertThat(csv).startsWith(header);
+        // 행 순서는 정해져 있지 않고 값 안의 줄바꿈 때문에 줄 단위로 나눌 수 없으므로, 각 행이 있고 그 외에는 아무것도 없는지 확인한다.
+        for (String row : expected) {
+            assertThat(csv).contains(row);
+        }
+        assertThat(csv).hasSize(header.length() + expected.stream().mapToInt(String::length).sum());
+    }
+
+    @Test
+    void exportsMembersAsNdjson() throws Exception {
+        Seed seed = seed("ndjson");
+        Long soloId = transactionTemplate.execute(status -> {
+            Member solo = new Member("solo" + seed.suffix, 60, null);
+            em.persist(solo);
+            return solo.getId();
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long rows = exportService.exportMembers(out, MemberExportService.Format.NDJSON);
+
+        String ndjson = out.toString(StandardCharsets.UTF_8);
+        assertThat(ndjson).endsWith("\n");
+        String[] lines = ndjson.split("\n");
+        assertThat(lines).hasSize((int) rows);
+
+        List<List<String>> exported = new ArrayList<>();
+        for (String line : lines) {
+            JsonNode node = objectMapper.readTree(line);
+            assertThat(node.fieldNames()).toIterable().containsExactly("id", "username", "age", "teamId");
+            exported.add(Arrays.asList(node.get("id").asText(), node.get("username").asText(), node.get("age").asText(),
+                    node.get("teamId").isNull() ? null : node.get("teamId").asText()));
+        }
+        assertThat(exported).contains(
+                row(seed.ids.get(0), "plain" + seed.suffix, 10, seed.teamId),
+                row(seed.ids.get(3), "new\nline" + seed.suffix, 40, seed.teamId),
+                row(seed.ids.get(2), "quote\"d" + seed.suffix, 30, seed.teamId),
+                row(soloId, "solo" + seed.suffix, 60, null));
+    }
+
+    @Test
+    void exportsSearchRowsAsNdjsonAndJson() throws Exception {
+        Seed seed = seed("json");
+
+        ByteArrayOutputStream ndjsonOut = new ByteArrayOutputStream();
+        exportService.exportSearch(teamCondition(seed), ndjsonOut, MemberExportService.Format.NDJSON);
+        List<JsonNode> ndjson = new ArrayList<>();
+        for (String line : ndjsonOut.toString(StandardCharsets.UTF_8).split("\n")) {
+            ndjson.add(objectMapper.readTree(line));
+        }
+
+        ByteArrayOutputStream jsonOut = new ByteArrayOutputStream();
+        long rows = exportService.exportSearch(teamCondition(seed), jsonOut, MemberExportService.Format.JSON);
+        JsonNode json = objectMapper.readTree(jsonOut.toByteArray());
+
+        assertThat(json.isArray()).isTrue();
+        assertThat(json).hasSize((int) rows).containsExactlyInAnyOrderElementsOf(ndjson);
+        assertThat(json).allSatisfy(node -> {
+            assertThat(node.fieldNames()).toIterable().containsExactly("memberId", "username", "age", "teamId", "teamName");
+            assertThat(node.get("teamId").asLong()).isEqualTo(seed.teamId);
+            assertThat(node.get("teamName").asText()).isEqualTo(TEAM_NAME + seed.suffix);
+        });
+        assertThat(json).extracting(node -> node.get("username").asText())
+                .contains("new\nline" + seed.suffix, "quote\"d" + seed.suffix);
+    }
+
+    private Seed seed(String suffix) {
+        return transactionTemplate.execute(status -> {
+            Team team = new Team(null, TEAM_NAME + suffix);
+            em.persist(team);
+            List<Long> ids = new ArrayList<>();
+            String[] usernames = {"plain", "comma,", "quote\"d", "new\nline", "carriage\rreturn"};
+            for (int i = 0; i < usernames.length; i++) {
+                Member saving = new Member(usernames[i] + suffix, (i + 1) * 10, team);
+                em.persist(saving);
+                ids.add(saving.getId());
+            }
+            return new Seed(suffix, team.getId(), ids);
+        });
+    }
+
+    private MemberSearchCondition teamCondition(Seed seed) {
+        MemberSearchCondition condition = new MemberSearchCondition();
+        condition.setTeamName(TEAM_NAME + seed.suffix);
+        return condition;
+    }
+
+    private static List<String> row(Long id, String username, int age, Long teamId) {
+        return Arrays.asList(String.valueOf(id), username, String.valueOf(age), teamId != null ? String.valueOf(teamId) : null);
+    }
+
+    private static class Seed {
+        private final String suffix;
+        private final Long teamId;
+        private final List<Long> ids;
+
+        private Seed(String suffix, Long teamId, List<Long> ids) {
+            this.suffix = suffix;
+            this.teamId = teamId;
+            this.ids = ids;
+        }
+    }
+}